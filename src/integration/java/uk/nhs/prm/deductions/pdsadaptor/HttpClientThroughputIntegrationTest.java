@@ -0,0 +1,134 @@
+package uk.nhs.prm.deductions.pdsadaptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+import uk.nhs.prm.deductions.pdsadaptor.client.HttpStreamMetrics;
+import uk.nhs.prm.deductions.pdsadaptor.client.NonBlockingHttpClient;
+import uk.nhs.prm.deductions.pdsadaptor.client.ResponseCompression;
+import uk.nhs.prm.deductions.pdsadaptor.client.SimpleHttpClient;
+import uk.nhs.prm.deductions.pdsadaptor.configuration.HttpConnectionPoolManager;
+import uk.nhs.prm.deductions.pdsadaptor.configuration.RestTemplateConfig;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HttpClientThroughputIntegrationTest {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpClientThroughputIntegrationTest.class);
+
+    private static final int CONCURRENT_CALLS = 200;
+    private static final int SLOW_PDS_RESPONSE_MILLIS = 500;
+
+    private WireMockServer slowPdsFhir;
+
+    @BeforeEach
+    void startSlowPdsFhir() {
+        slowPdsFhir = new WireMockServer(options()
+                .dynamicPort()
+                .containerThreads(CONCURRENT_CALLS + 50)
+                .asynchronousResponseEnabled(true)
+                .asynchronousResponseThreads(CONCURRENT_CALLS));
+        slowPdsFhir.start();
+
+        slowPdsFhir.stubFor(get(urlMatching("/Patient/.*"))
+                .willReturn(aResponse()
+                        .withFixedDelay(SLOW_PDS_RESPONSE_MILLIS)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\":\"9691927179\"}")));
+    }
+
+    @AfterEach
+    void stopSlowPdsFhir() {
+        slowPdsFhir.stop();
+    }
+
+    @Test
+    void nonBlockingClientShouldCompleteConcurrentSlowCallsFasterThanBlockingClientWithoutAThreadPerCall() throws Exception {
+        var connectionPool = new HttpConnectionPoolManager(pdsUrl(), pdsUrl(), 50, 10, 2, 2000, 30000, 30000, 30000, new SimpleMeterRegistry());
+        var responseCompression = new ResponseCompression(pdsUrl(), pdsUrl() + "access-token", true, false, new SimpleMeterRegistry());
+        var blockingClient = new SimpleHttpClient(new RestTemplateConfig(connectionPool, responseCompression).apacheBasedRestTemplate());
+        var nonBlockingClient = new NonBlockingHttpClient(
+                java.net.http.HttpClient.newBuilder().version(java.net.http.HttpClient.Version.HTTP_1_1).build(),
+                new RestTemplate().getMessageConverters(),
+                new ObjectMapper(),
+                new HttpStreamMetrics(new SimpleMeterRegistry()),
+                responseCompression,
+                Duration.ofSeconds(30));
+
+        var blockingDuration = timeBlockingCalls(blockingClient);
+        var nonBlockingDuration = timeNonBlockingCalls(nonBlockingClient);
+
+        log.info("{} concurrent calls at {}ms each - blocking client: {}ms ({} calls/s), non-blocking client: {}ms ({} calls/s)",
+                CONCURRENT_CALLS, SLOW_PDS_RESPONSE_MILLIS,
+                blockingDuration.toMillis(), callsPerSecond(blockingDuration),
+                nonBlockingDuration.toMillis(), callsPerSecond(nonBlockingDuration));
+
+        assertThat(nonBlockingDuration).isLessThan(blockingDuration);
+
+        connectionPool.destroy();
+    }
+
+    private Duration timeBlockingCalls(SimpleHttpClient client) throws Exception {
+        // one worker thread per in-flight call, as Tomcat would provide
+        var workers = Executors.newFixedThreadPool(CONCURRENT_CALLS);
+        try {
+            List<Callable<ResponseEntity<String>>> calls = new ArrayList<>();
+            for (int i = 0; i < CONCURRENT_CALLS; i++) {
+                calls.add(() -> client.get(patientUrl(), new HttpHeaders(), String.class));
+            }
+            var startTime = System.nanoTime();
+            for (var result : workers.invokeAll(calls)) {
+                assertThat(result.get().getStatusCodeValue()).isEqualTo(200);
+            }
+            return Duration.ofNanos(System.nanoTime() - startTime);
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private Duration timeNonBlockingCalls(NonBlockingHttpClient client) {
+        // all calls are issued from this one thread and complete on the client's selector
+        var startTime = System.nanoTime();
+        var futures = new ArrayList<CompletableFuture<ResponseEntity<String>>>();
+        for (int i = 0; i < CONCURRENT_CALLS; i++) {
+            futures.add(client.getAsync(patientUrl(), new HttpHeaders(), String.class));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        var duration = Duration.ofNanos(System.nanoTime() - startTime);
+
+        futures.forEach(future -> assertThat(future.join().getStatusCodeValue()).isEqualTo(200));
+        return duration;
+    }
+
+    private long callsPerSecond(Duration duration) {
+        return CONCURRENT_CALLS * 1000L / Math.max(1, duration.toMillis());
+    }
+
+    private String patientUrl() {
+        return pdsUrl() + "Patient/9691927179";
+    }
+
+    private String pdsUrl() {
+        return "http://localhost:" + slowPdsFhir.port() + "/";
+    }
+}
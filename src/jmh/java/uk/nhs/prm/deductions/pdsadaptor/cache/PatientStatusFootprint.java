@@ -0,0 +1,75 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static uk.nhs.prm.deductions.pdsadaptor.cache.PatientStatusTableBenchmark.FETCHED_AT;
+import static uk.nhs.prm.deductions.pdsadaptor.cache.PatientStatusTableBenchmark.FIRST_NHS_NUMBER;
+import static uk.nhs.prm.deductions.pdsadaptor.cache.PatientStatusTableBenchmark.typicalStatus;
+
+/**
+ * Heap taken per patient by a {@link PatientStatusTable} and by a {@code ConcurrentHashMap<String, SuspendedPatientStatus>}
+ * holding the same statuses, measured as the growth in heap used after full GCs. JMH does not measure memory, so this
+ * is run on its own from the jmh jar, with a heap big enough for the map:
+ * <pre>
+ * ./gradlew jmhJar
+ * java -Xmx8g -cp build/libs/*-jmh.jar uk.nhs.prm.deductions.pdsadaptor.cache.PatientStatusFootprint 1000000 10000000
+ * </pre>
+ */
+public class PatientStatusFootprint {
+
+    public static void main(String[] args) {
+        var sizes = args.length == 0 ? new String[] {"1000000", "10000000"} : args;
+        for (var size : sizes) {
+            var entries = Integer.parseInt(size);
+            report("PatientStatusTable", entries, measure(() -> table(entries)));
+            report("ConcurrentHashMap<String, SuspendedPatientStatus>", entries, measure(() -> map(entries)));
+        }
+    }
+
+    private static PatientStatusTable table(int entries) {
+        var table = new PatientStatusTable(entries);
+        var random = new SplittableRandom(42);
+        for (int i = 0; i < entries; i++) {
+            var nhsNumber = FIRST_NHS_NUMBER + i;
+            var status = typicalStatus(Long.toString(nhsNumber), random);
+            table.put(nhsNumber, new CachedPatientStatus(status, FETCHED_AT, FETCHED_AT.plus(Duration.ofMinutes(10))));
+        }
+        return table;
+    }
+
+    private static ConcurrentHashMap<String, SuspendedPatientStatus> map(int entries) {
+        var map = new ConcurrentHashMap<String, SuspendedPatientStatus>(entries);
+        var random = new SplittableRandom(42);
+        for (int i = 0; i < entries; i++) {
+            var nhsNumber = Long.toString(FIRST_NHS_NUMBER + i);
+            map.put(nhsNumber, typicalStatus(nhsNumber, random));
+        }
+        return map;
+    }
+
+    private static long measure(Supplier<Object> build) {
+        var before = usedHeapAfterGc();
+        var built = build.get();
+        var after = usedHeapAfterGc();
+        Reference.reachabilityFence(built);
+        return after - before;
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void report(String store, int entries, long bytes) {
+        System.out.printf("%-52s %,12d entries %,16d bytes %8.1f bytes/entry%n", store, entries, bytes, (double) bytes / entries);
+    }
+}
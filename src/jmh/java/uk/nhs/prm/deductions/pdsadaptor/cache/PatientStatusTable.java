@@ -0,0 +1,420 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Patient statuses keyed by NHS number as a primitive long, in an open addressing table of parallel primitive arrays,
+ * so that an entry costs a few tens of bytes rather than the several hundred of a map of {@link String} to
+ * {@link SuspendedPatientStatus}.
+ * <p>
+ * ODS codes and managing organisations are interned in a {@link StringDictionary}, the suspended and deceased
+ * flags packed into bits, and record ETags of PDS's usual {@code W/"<version>"} form kept as their version number.
+ * The rare entry whose ETag is in some other form, or whose record NHS number is not the one it was looked up by,
+ * keeps the odd value out in a side map.
+ * <p>
+ * Once the table holds its maximum entries, adding another evicts the entry expiring soonest out of a small sample.
+ * <p>
+ * This lives with the benchmarks rather than the application: {@link PatientStatusCache} still keeps its entries in
+ * Caffeine, and this is the measured alternative to weigh up should the cache need to hold millions of patients. Its
+ * tests are under src/jmhTest.
+ */
+public final class PatientStatusTable {
+
+    private static final long EMPTY = 0;
+    private static final float MAX_LOAD = 0.75f;
+    private static final int MIN_CAPACITY = 16;
+    private static final int EVICTION_SAMPLE = 8;
+
+    private static final int TRI_STATE_NULL = 0;
+    private static final int TRI_STATE_FALSE = 1;
+    private static final int TRI_STATE_TRUE = 2;
+    private static final int DECEASED_SHIFT = 2;
+    private static final int ETAG_VERSION = 1 << 4;
+    private static final int ETAG_OTHER = 1 << 5;
+    private static final int NHS_NUMBER_OTHER = 1 << 6;
+    private static final int NHS_NUMBER_NULL = 1 << 7;
+
+    private final int maxEntries;
+    private final int maxCapacity;
+    private final StringDictionary organisations = new StringDictionary();
+    private final Map<Long, String> otherETags = new HashMap<>();
+    private final Map<Long, String> otherNhsNumbers = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] keys;
+    private long[] fetchedAtMillis;
+    private int[] ttlMillis;
+    private int[] odsCodeIds;
+    private int[] managingOrganisationIds;
+    private int[] eTagVersions;
+    private byte[] flags;
+    private int mask;
+    private int size;
+    private int evictionHand;
+    private long evictions;
+
+    public PatientStatusTable(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Patient status table must hold at least one entry");
+        }
+        this.maxEntries = maxEntries;
+        this.maxCapacity = capacityFor(maxEntries);
+        allocate(Math.min(maxCapacity, capacityFor(Math.min(maxEntries, 1024))));
+    }
+
+    public CachedPatientStatus get(long nhsNumber) {
+        checkKey(nhsNumber);
+        lock.readLock().lock();
+        try {
+            var slot = find(nhsNumber);
+            return slot < 0 ? null : decode(slot);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(long nhsNumber, CachedPatientStatus entry) {
+        checkKey(nhsNumber);
+        var ttl = entry.getExpiresAt().toEpochMilli() - entry.getFetchedAt().toEpochMilli();
+        if (ttl < 0 || ttl > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Patient status ttl of " + ttl + "ms cannot be held in the table");
+        }
+        var status = entry.getStatus();
+        var odsCodeId = organisations.intern(status.getCurrentOdsCode());
+        var managingOrganisationId = organisations.intern(status.getManagingOrganisation());
+
+        lock.writeLock().lock();
+        try {
+            var slot = find(nhsNumber);
+            if (slot < 0) {
+                if (size >= maxEntries) {
+                    evictOne();
+                } else if (size + 1 > keys.length * MAX_LOAD && keys.length < maxCapacity) {
+                    resize(keys.length * 2);
+                }
+                slot = emptySlotFor(nhsNumber);
+                keys[slot] = nhsNumber;
+                size++;
+            } else {
+                otherETags.remove(nhsNumber);
+                otherNhsNumbers.remove(nhsNumber);
+            }
+            fetchedAtMillis[slot] = entry.getFetchedAt().toEpochMilli();
+            ttlMillis[slot] = (int) ttl;
+            odsCodeIds[slot] = odsCodeId;
+            managingOrganisationIds[slot] = managingOrganisationId;
+            eTagVersions[slot] = 0;
+            flags[slot] = (byte) (encodeFlags(status) | encodeETag(nhsNumber, slot, status.getRecordETag())
+                    | encodeNhsNumber(nhsNumber, status.getNhsNumber()));
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(long nhsNumber) {
+        checkKey(nhsNumber);
+        lock.writeLock().lock();
+        try {
+            var slot = find(nhsNumber);
+            if (slot < 0) {
+                return false;
+            }
+            removeAt(slot);
+            return true;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int removeExpiredBefore(Instant cutoff) {
+        var cutoffMillis = cutoff.toEpochMilli();
+        var removed = 0;
+        lock.writeLock().lock();
+        try {
+            for (int slot = 0; slot < keys.length; slot++) {
+                // removing shifts a later entry back into this slot, so look at it again before moving on
+                while (keys[slot] != EMPTY && expiresAtMillis(slot) < cutoffMillis) {
+                    removeAt(slot);
+                    removed++;
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        return removed;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long evictions() {
+        lock.readLock().lock();
+        try {
+            return evictions;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int capacity() {
+        lock.readLock().lock();
+        try {
+            return keys.length;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int find(long nhsNumber) {
+        for (int slot = home(nhsNumber); ; slot = (slot + 1) & mask) {
+            var key = keys[slot];
+            if (key == nhsNumber) {
+                return slot;
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private int emptySlotFor(long nhsNumber) {
+        var slot = home(nhsNumber);
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // backward shift deletion, so the table never fills up with tombstones
+    private void removeAt(int slot) {
+        var removedKey = keys[slot];
+        otherETags.remove(removedKey);
+        otherNhsNumbers.remove(removedKey);
+        var gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            var home = home(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                moveSlot(next, gap);
+                gap = next;
+            }
+        }
+        keys[gap] = EMPTY;
+        size--;
+    }
+
+    private void evictOne() {
+        var victim = -1;
+        var victimExpiresAt = Long.MAX_VALUE;
+        var sampled = 0;
+        for (int scanned = 0; sampled < EVICTION_SAMPLE && scanned < keys.length; scanned++) {
+            evictionHand = (evictionHand + 1) & mask;
+            if (keys[evictionHand] == EMPTY) {
+                continue;
+            }
+            sampled++;
+            var expiresAt = expiresAtMillis(evictionHand);
+            if (expiresAt < victimExpiresAt) {
+                victim = evictionHand;
+                victimExpiresAt = expiresAt;
+            }
+        }
+        removeAt(victim);
+        evictions++;
+    }
+
+    private void resize(int newCapacity) {
+        var oldKeys = keys;
+        var oldFetchedAt = fetchedAtMillis;
+        var oldTtl = ttlMillis;
+        var oldOdsCodes = odsCodeIds;
+        var oldManagingOrganisations = managingOrganisationIds;
+        var oldETagVersions = eTagVersions;
+        var oldFlags = flags;
+        allocate(newCapacity);
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            if (oldKeys[oldSlot] == EMPTY) {
+                continue;
+            }
+            var slot = emptySlotFor(oldKeys[oldSlot]);
+            keys[slot] = oldKeys[oldSlot];
+            fetchedAtMillis[slot] = oldFetchedAt[oldSlot];
+            ttlMillis[slot] = oldTtl[oldSlot];
+            odsCodeIds[slot] = oldOdsCodes[oldSlot];
+            managingOrganisationIds[slot] = oldManagingOrganisations[oldSlot];
+            eTagVersions[slot] = oldETagVersions[oldSlot];
+            flags[slot] = oldFlags[oldSlot];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        fetchedAtMillis = new long[capacity];
+        ttlMillis = new int[capacity];
+        odsCodeIds = new int[capacity];
+        managingOrganisationIds = new int[capacity];
+        eTagVersions = new int[capacity];
+        flags = new byte[capacity];
+        mask = capacity - 1;
+        evictionHand = 0;
+    }
+
+    private void moveSlot(int from, int to) {
+        keys[to] = keys[from];
+        fetchedAtMillis[to] = fetchedAtMillis[from];
+        ttlMillis[to] = ttlMillis[from];
+        odsCodeIds[to] = odsCodeIds[from];
+        managingOrganisationIds[to] = managingOrganisationIds[from];
+        eTagVersions[to] = eTagVersions[from];
+        flags[to] = flags[from];
+    }
+
+    private CachedPatientStatus decode(int slot) {
+        var key = keys[slot];
+        int entryFlags = flags[slot];
+        var status = SuspendedPatientStatus.builder()
+                .nhsNumber(decodeNhsNumber(key, entryFlags))
+                .isSuspended(decodeTriState(entryFlags))
+                .isDeceased(decodeTriState(entryFlags >> DECEASED_SHIFT))
+                .currentOdsCode(organisations.lookUp(odsCodeIds[slot]))
+                .managingOrganisation(organisations.lookUp(managingOrganisationIds[slot]))
+                .recordETag(decodeETag(key, slot, entryFlags))
+                .build();
+        var fetchedAt = fetchedAtMillis[slot];
+        return new CachedPatientStatus(status, Instant.ofEpochMilli(fetchedAt), Instant.ofEpochMilli(fetchedAt + ttlMillis[slot]));
+    }
+
+    private static int encodeFlags(SuspendedPatientStatus status) {
+        return encodeTriState(status.getIsSuspended()) | encodeTriState(status.getIsDeceased()) << DECEASED_SHIFT;
+    }
+
+    private int encodeETag(long nhsNumber, int slot, String eTag) {
+        if (eTag == null) {
+            return 0;
+        }
+        var version = weakETagVersion(eTag);
+        if (version >= 0) {
+            eTagVersions[slot] = version;
+            return ETAG_VERSION;
+        }
+        otherETags.put(nhsNumber, eTag);
+        return ETAG_OTHER;
+    }
+
+    private String decodeETag(long nhsNumber, int slot, int entryFlags) {
+        if ((entryFlags & ETAG_VERSION) != 0) {
+            return "W/\"" + eTagVersions[slot] + "\"";
+        }
+        if ((entryFlags & ETAG_OTHER) != 0) {
+            return otherETags.get(nhsNumber);
+        }
+        return null;
+    }
+
+    private int encodeNhsNumber(long key, String nhsNumber) {
+        if (nhsNumber == null) {
+            return NHS_NUMBER_NULL;
+        }
+        if (nhsNumber.equals(formatNhsNumber(key))) {
+            return 0;
+        }
+        otherNhsNumbers.put(key, nhsNumber);
+        return NHS_NUMBER_OTHER;
+    }
+
+    private String decodeNhsNumber(long key, int entryFlags) {
+        if ((entryFlags & NHS_NUMBER_NULL) != 0) {
+            return null;
+        }
+        if ((entryFlags & NHS_NUMBER_OTHER) != 0) {
+            return otherNhsNumbers.get(key);
+        }
+        return formatNhsNumber(key);
+    }
+
+    private long expiresAtMillis(int slot) {
+        return fetchedAtMillis[slot] + ttlMillis[slot];
+    }
+
+    private int home(long nhsNumber) {
+        return (int) mix(nhsNumber) & mask;
+    }
+
+    private static int encodeTriState(Boolean value) {
+        if (value == null) {
+            return TRI_STATE_NULL;
+        }
+        return value ? TRI_STATE_TRUE : TRI_STATE_FALSE;
+    }
+
+    private static Boolean decodeTriState(int bits) {
+        switch (bits & 3) {
+            case TRI_STATE_TRUE:
+                return true;
+            case TRI_STATE_FALSE:
+                return false;
+            default:
+                return null;
+        }
+    }
+
+    // the version of a W/"<version>" ETag, or -1 if it is in any other form
+    private static int weakETagVersion(String eTag) {
+        if (eTag.length() < 5 || eTag.length() > 13 || !eTag.startsWith("W/\"") || !eTag.endsWith("\"")) {
+            return -1;
+        }
+        var digits = eTag.substring(3, eTag.length() - 1);
+        if (!digits.chars().allMatch(c -> c >= '0' && c <= '9') || (digits.length() > 1 && digits.charAt(0) == '0')) {
+            return -1;
+        }
+        var version = Long.parseLong(digits);
+        return version > Integer.MAX_VALUE ? -1 : (int) version;
+    }
+
+    private static String formatNhsNumber(long key) {
+        var digits = Long.toString(key);
+        return digits.length() >= 10 ? digits : "0".repeat(10 - digits.length()) + digits;
+    }
+
+    private static void checkKey(long nhsNumber) {
+        if (nhsNumber <= 0) {
+            throw new IllegalArgumentException("NHS number must be a positive number");
+        }
+    }
+
+    private static int capacityFor(int entries) {
+        var needed = (long) Math.ceil(entries / (double) MAX_LOAD);
+        var capacity = Long.highestOneBit(Math.max(MIN_CAPACITY, needed - 1)) << 1;
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Patient status table cannot hold " + entries + " entries");
+        }
+        return (int) capacity;
+    }
+
+    // murmur3 finaliser, so that runs of consecutive NHS numbers spread across the table
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
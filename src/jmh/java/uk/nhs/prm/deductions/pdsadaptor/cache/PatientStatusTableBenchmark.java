@@ -0,0 +1,108 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares looking up and replacing patient statuses in a {@link PatientStatusTable} against a
+ * {@code ConcurrentHashMap<String, SuspendedPatientStatus>} holding the same entries, at 1M and 10M patients.
+ * <p>
+ * The 10M case needs a heap of several gigabytes for the map, hence the fork's -Xmx. For memory use rather than
+ * speed see {@link PatientStatusFootprint}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+@Threads(4)
+public class PatientStatusTableBenchmark {
+
+    static final long FIRST_NHS_NUMBER = 9_000_000_000L;
+    static final Instant FETCHED_AT = Instant.parse("2022-03-01T09:00:00Z");
+
+    @Param({"1000000", "10000000"})
+    private int entries;
+
+    private PatientStatusTable table;
+    private ConcurrentHashMap<String, SuspendedPatientStatus> map;
+    private String[] nhsNumbers;
+
+    @Setup
+    public void setUp() {
+        table = new PatientStatusTable(entries);
+        map = new ConcurrentHashMap<>(entries);
+        nhsNumbers = new String[entries];
+        var random = new SplittableRandom(42);
+        for (int i = 0; i < entries; i++) {
+            var nhsNumber = FIRST_NHS_NUMBER + i;
+            nhsNumbers[i] = Long.toString(nhsNumber);
+            var status = typicalStatus(nhsNumbers[i], random);
+            table.put(nhsNumber, new CachedPatientStatus(status, FETCHED_AT, FETCHED_AT.plus(Duration.ofMinutes(10))));
+            map.put(nhsNumbers[i], status);
+        }
+    }
+
+    @Benchmark
+    public CachedPatientStatus tableGet() {
+        return table.get(FIRST_NHS_NUMBER + ThreadLocalRandom.current().nextInt(entries));
+    }
+
+    @Benchmark
+    public SuspendedPatientStatus mapGet() {
+        // the map is keyed by String as a cache would be, so the lookup starts from the String
+        return map.get(nhsNumbers[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+
+    @Benchmark
+    public void tablePut() {
+        var i = ThreadLocalRandom.current().nextInt(entries);
+        var status = SuspendedPatientStatus.suspendedPatientStatus(nhsNumbers[i], "B1234", "W/\"3\"");
+        table.put(FIRST_NHS_NUMBER + i, new CachedPatientStatus(status, FETCHED_AT, FETCHED_AT.plus(Duration.ofMinutes(10))));
+    }
+
+    @Benchmark
+    public void mapPut() {
+        var i = ThreadLocalRandom.current().nextInt(entries);
+        map.put(nhsNumbers[i], SuspendedPatientStatus.suspendedPatientStatus(nhsNumbers[i], "B1234", "W/\"3\""));
+    }
+
+    // roughly the mix PDS gives back: mostly registered patients across a few thousand practices
+    static SuspendedPatientStatus typicalStatus(String nhsNumber, SplittableRandom random) {
+        var kind = random.nextInt(100);
+        var eTag = "W/\"" + (1 + random.nextInt(20)) + "\"";
+        var practice = odsCode(random.nextInt(7000));
+        if (kind < 2) {
+            return SuspendedPatientStatus.deceasedPatientStatus(nhsNumber, eTag);
+        }
+        if (kind < 10) {
+            return SuspendedPatientStatus.suspendedPatientStatus(nhsNumber, practice, eTag);
+        }
+        var managingOrganisation = kind < 15 ? odsCode(random.nextInt(7000)) : null;
+        return SuspendedPatientStatus.nonSuspendedPatientStatus(nhsNumber, practice, managingOrganisation, eTag);
+    }
+
+    private static String odsCode(int practice) {
+        // a new String each time, as each PDS response parses its own copy
+        return "A" + (10000 + practice);
+    }
+}
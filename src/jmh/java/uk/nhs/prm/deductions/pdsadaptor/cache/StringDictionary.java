@@ -0,0 +1,44 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gives each distinct string, such as an ODS code, a small int id so that it is held once however many entries
+ * refer to it. Ids start at 1, 0 standing for null. Strings are never removed: the ODS codes of GP practices and
+ * managing organisations are a few tens of thousands at most.
+ */
+final class StringDictionary {
+
+    static final int NULL_ID = 0;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private volatile String[] strings = new String[64];
+    private int nextId = 1;
+
+    synchronized int intern(String value) {
+        if (value == null) {
+            return NULL_ID;
+        }
+        var existing = ids.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        var id = nextId++;
+        if (id >= strings.length) {
+            strings = Arrays.copyOf(strings, strings.length * 2);
+        }
+        strings[id] = value;
+        ids.put(value, id);
+        return id;
+    }
+
+    String lookUp(int id) {
+        return id == NULL_ID ? null : strings[id];
+    }
+
+    synchronized int size() {
+        return ids.size();
+    }
+}
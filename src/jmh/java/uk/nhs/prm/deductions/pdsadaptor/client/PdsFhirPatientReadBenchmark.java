@@ -0,0 +1,101 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading a PDS FHIR Patient through the Jackson data binding converter RestTemplate used
+ * to pick, against the streaming {@link PdsFhirPatientHttpMessageConverter}.
+ * <p>
+ * The payload is a full PDS Patient resource, with {@code historyEntries} copies of its name, address,
+ * telecom and contact entries to stand in for patients with a long demographic history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdsFhirPatientReadBenchmark {
+
+    @Param({"1", "20", "100"})
+    private int historyEntries;
+
+    private byte[] payload;
+    private MappingJackson2HttpMessageConverter dataBindingConverter;
+    private PdsFhirPatientHttpMessageConverter streamingConverter;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        payload = patientWithHistory(objectMapper, historyEntries);
+        dataBindingConverter = new MappingJackson2HttpMessageConverter(objectMapper);
+        streamingConverter = new PdsFhirPatientHttpMessageConverter();
+    }
+
+    @Benchmark
+    public Object dataBinding() throws IOException {
+        return dataBindingConverter.read(PdsFhirPatient.class, inputMessage());
+    }
+
+    @Benchmark
+    public PdsFhirPatient streaming() throws IOException {
+        return streamingConverter.read(PdsFhirPatient.class, inputMessage());
+    }
+
+    private HttpInputMessage inputMessage() {
+        var headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("application/fhir+json"));
+        var body = new ByteArrayInputStream(payload);
+        return new HttpInputMessage() {
+            @Override
+            public InputStream getBody() {
+                return body;
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return headers;
+            }
+        };
+    }
+
+    private static byte[] patientWithHistory(ObjectMapper objectMapper, int historyEntries) throws IOException {
+        try (var resource = PdsFhirPatientReadBenchmark.class.getResourceAsStream("/pds-patient.json")) {
+            var patient = (ObjectNode) objectMapper.readTree(resource);
+            for (var field : new String[] {"name", "address", "telecom", "contact"}) {
+                var entries = (ArrayNode) patient.get(field);
+                var template = entries.get(0);
+                for (int i = 1; i < historyEntries; i++) {
+                    var entry = template.deepCopy();
+                    ((ObjectNode) entry).put("id", field + "-" + i);
+                    entries.add(entry);
+                }
+            }
+            return objectMapper.writeValueAsBytes(patient);
+        }
+    }
+}
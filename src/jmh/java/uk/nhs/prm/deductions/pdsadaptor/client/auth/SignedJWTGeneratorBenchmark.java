@@ -0,0 +1,92 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.auth;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares creating a client assertion JWT the way {@link SignedJWTGenerator} used to, parsing the PEM private key
+ * and building a signer for every JWT, against the generator as it is now, reusing both between JWTs.
+ * <p>
+ * The key is a 2048 bit RSA key generated for the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignedJWTGeneratorBenchmark {
+
+    private static final String API_KEY = "api-key";
+    private static final String ACCESS_TOKEN_ENDPOINT = "https://int.api.service.nhs.uk/oauth2/token";
+    private static final String KEY_ID = "key-id";
+
+    private String privateKey;
+    private SignedJWTGenerator generator;
+
+    @Setup
+    public void setUp() throws IOException, NoSuchAlgorithmException {
+        var keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        var pem = new StringWriter();
+        try (var writer = new JcaPEMWriter(pem)) {
+            writer.writeObject(keyPairGenerator.generateKeyPair());
+        }
+        privateKey = pem.toString();
+        generator = new SignedJWTGenerator(privateKey, API_KEY, ACCESS_TOKEN_ENDPOINT, KEY_ID, new JwtSigner());
+        generator.createSignedJWT();
+    }
+
+    @Benchmark
+    public String parseKeyForEachJwt() throws IOException, JOSEException {
+        var pemParser = new PEMParser(new StringReader(privateKey));
+        Security.addProvider(new BouncyCastleProvider());
+        var converter = new JcaPEMKeyConverter().setProvider("BC");
+        var signer = new RSASSASigner(converter.getKeyPair((PEMKeyPair) pemParser.readObject()).getPrivate());
+        var signedJWT = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS512).keyID(KEY_ID).type(JOSEObjectType.JWT).build(),
+                new JWTClaimsSet.Builder()
+                        .subject(API_KEY)
+                        .issuer(API_KEY)
+                        .jwtID(UUID.randomUUID().toString())
+                        .audience(ACCESS_TOKEN_ENDPOINT)
+                        .expirationTime(new Date(new Date().getTime() + 60 * 1000))
+                        .build());
+        signedJWT.sign(signer);
+        return signedJWT.serialize();
+    }
+
+    @Benchmark
+    public String reuseParsedKey() {
+        return generator.createSignedJWT();
+    }
+}
@@ -0,0 +1,172 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import org.junit.jupiter.api.Test;
+import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.deceasedPatientStatus;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.nonSuspendedPatientStatus;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.suspendedPatientStatus;
+
+class PatientStatusTableTest {
+
+    private static final Instant FETCHED_AT = Instant.parse("2022-03-01T09:00:00Z");
+
+    private final PatientStatusTable table = new PatientStatusTable(1000);
+
+    @Test
+    void shouldGiveBackEveryKindOfStatusAsItWasPut() {
+        var registered = cached(nonSuspendedPatientStatus("9691927179", "B1234", "A9876", "W/\"12\""), Duration.ofMinutes(2));
+        var suspended = cached(suspendedPatientStatus("9691927180", "B1234", "W/\"1\""), Duration.ofMinutes(10));
+        var deceased = cached(deceasedPatientStatus("9691927181", null), Duration.ofDays(1));
+
+        table.put(9691927179L, registered);
+        table.put(9691927180L, suspended);
+        table.put(9691927181L, deceased);
+
+        assertThat(table.get(9691927179L)).isEqualTo(registered);
+        assertThat(table.get(9691927180L)).isEqualTo(suspended);
+        assertThat(table.get(9691927181L)).isEqualTo(deceased);
+        assertThat(table.get(9691927182L)).isNull();
+        assertThat(table.size()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldKeepETagsAndNhsNumbersThatDoNotFitTheCompactForm() {
+        var strongETag = cached(suspendedPatientStatus("9691927179", "B1234", "\"abc\""), Duration.ofMinutes(10));
+        var supersededNhsNumber = cached(suspendedPatientStatus("9000000009", "B1234", "W/\"007\""), Duration.ofMinutes(10));
+        var noNhsNumber = cached(new SuspendedPatientStatus(null, false, "B1234", null, "W/\"2\"", false), Duration.ofMinutes(2));
+
+        table.put(9691927179L, strongETag);
+        table.put(9691927180L, supersededNhsNumber);
+        table.put(9691927181L, noNhsNumber);
+
+        assertThat(table.get(9691927179L)).isEqualTo(strongETag);
+        assertThat(table.get(9691927180L)).isEqualTo(supersededNhsNumber);
+        assertThat(table.get(9691927181L)).isEqualTo(noNhsNumber);
+    }
+
+    @Test
+    void shouldReplaceExistingEntry() {
+        table.put(9691927179L, cached(suspendedPatientStatus("9691927179", "B1234", "\"abc\""), Duration.ofMinutes(10)));
+        var updated = cached(nonSuspendedPatientStatus("9691927179", "C5678", null, "W/\"3\""), Duration.ofMinutes(2));
+
+        table.put(9691927179L, updated);
+
+        assertThat(table.get(9691927179L)).isEqualTo(updated);
+        assertThat(table.size()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldStayConsistentWithAMapThroughRandomPutsAndRemoves() {
+        var bigTable = new PatientStatusTable(20_000);
+        var expected = new HashMap<Long, CachedPatientStatus>();
+        var random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            var nhsNumber = 9_000_000_000L + random.nextInt(15_000);
+            if (random.nextInt(3) == 0) {
+                assertThat(bigTable.remove(nhsNumber)).isEqualTo(expected.remove(nhsNumber) != null);
+            } else {
+                var entry = cached(suspendedPatientStatus(Long.toString(nhsNumber), "A" + random.nextInt(100), "W/\"" + i + "\""),
+                        Duration.ofMinutes(10));
+                bigTable.put(nhsNumber, entry);
+                expected.put(nhsNumber, entry);
+            }
+        }
+
+        assertThat(bigTable.size()).isEqualTo(expected.size());
+        expected.forEach((nhsNumber, entry) -> assertThat(bigTable.get(nhsNumber)).isEqualTo(entry));
+        assertThat(bigTable.evictions()).isZero();
+    }
+
+    @Test
+    void shouldGrowAsEntriesAreAddedButNotBeyondWhatMaxEntriesNeeds() {
+        var growingTable = new PatientStatusTable(100_000);
+        var initialCapacity = growingTable.capacity();
+
+        for (long nhsNumber = 9_000_000_000L; nhsNumber < 9_000_100_000L; nhsNumber++) {
+            growingTable.put(nhsNumber, cached(deceasedPatientStatus(Long.toString(nhsNumber), "W/\"1\""), Duration.ofDays(1)));
+        }
+
+        assertThat(growingTable.capacity()).isGreaterThan(initialCapacity).isLessThanOrEqualTo(262_144);
+        assertThat(growingTable.get(9_000_000_000L)).isNotNull();
+        assertThat(growingTable.get(9_000_099_999L)).isNotNull();
+    }
+
+    @Test
+    void shouldEvictAnEntryExpiringSoonWhenFull() {
+        var smallTable = new PatientStatusTable(8);
+        for (long nhsNumber = 1; nhsNumber <= 8; nhsNumber++) {
+            var ttl = nhsNumber == 5 ? Duration.ofSeconds(1) : Duration.ofDays(1);
+            smallTable.put(nhsNumber, cached(suspendedPatientStatus(null, "B1234", null), ttl));
+        }
+
+        smallTable.put(9, cached(suspendedPatientStatus(null, "B1234", null), Duration.ofDays(1)));
+
+        assertThat(smallTable.size()).isEqualTo(8);
+        assertThat(smallTable.get(5)).isNull();
+        assertThat(smallTable.get(9)).isNotNull();
+        assertThat(smallTable.evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRemoveEntriesExpiredBeforeCutoff() {
+        for (long nhsNumber = 1; nhsNumber <= 500; nhsNumber++) {
+            var ttl = nhsNumber % 2 == 0 ? Duration.ofMinutes(2) : Duration.ofMinutes(10);
+            table.put(nhsNumber, cached(suspendedPatientStatus(null, "B1234", null), ttl));
+        }
+
+        var removed = table.removeExpiredBefore(FETCHED_AT.plus(Duration.ofMinutes(5)));
+
+        assertThat(removed).isEqualTo(250);
+        assertThat(table.size()).isEqualTo(250);
+        for (long nhsNumber = 1; nhsNumber <= 500; nhsNumber++) {
+            assertThat(table.get(nhsNumber) == null).isEqualTo(nhsNumber % 2 == 0);
+        }
+    }
+
+    @Test
+    void shouldStayConsistentWithAMapThroughExpiryOfClustersThatWrapAround() {
+        var fullTable = new PatientStatusTable(48);
+        var expected = new HashMap<Long, CachedPatientStatus>();
+        var random = new Random(7);
+
+        for (int i = 1; i <= 20_000; i++) {
+            long nhsNumber = 1 + random.nextInt(200);
+            if (expected.containsKey(nhsNumber) || expected.size() < 48) {
+                var entry = cached(suspendedPatientStatus(null, "B1234", "W/\"" + i + "\""), Duration.ofMinutes(1 + random.nextInt(20)));
+                fullTable.put(nhsNumber, entry);
+                expected.put(nhsNumber, entry);
+            }
+            if (i % 50 == 0) {
+                var cutoff = FETCHED_AT.plus(Duration.ofMinutes(random.nextInt(20)));
+                var expectedSize = expected.size();
+                expected.values().removeIf(entry -> entry.getExpiresAt().isBefore(cutoff));
+
+                assertThat(fullTable.removeExpiredBefore(cutoff)).isEqualTo(expectedSize - expected.size());
+                assertThat(fullTable.size()).isEqualTo(expected.size());
+                for (long key = 1; key <= 200; key++) {
+                    assertThat(fullTable.get(key)).isEqualTo(expected.get(key));
+                }
+            }
+        }
+
+        assertThat(fullTable.evictions()).isZero();
+    }
+
+    @Test
+    void shouldRejectKeysThatCannotBeNhsNumbers() {
+        assertThrows(IllegalArgumentException.class, () -> table.get(0));
+    }
+
+    private static CachedPatientStatus cached(SuspendedPatientStatus status, Duration ttl) {
+        return new CachedPatientStatus(status, FETCHED_AT, FETCHED_AT.plus(ttl));
+    }
+}
@@ -0,0 +1,126 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Tells the other pds-adaptor tasks when this one has updated a patient's managing organisation, so that they replace
+ * any status they hold for the patient with the updated one and its new record ETag, rather than go on answering
+ * with an ETag that PDS will refuse.
+ * <p>
+ * Each message is the publishing task's id and when it was published, followed by the updated status as a record in
+ * the {@link PatientStatusRecordFormat}. Tasks ignore their own messages. The lag is measured against the publishing
+ * task's clock, so includes any skew between the two.
+ */
+@Slf4j
+@Component
+public class CacheInvalidationBus {
+
+    private final String taskId;
+    private final InvalidationTransport transport;
+    private final PatientStatusCache patientStatusCache;
+    private final Clock clock;
+    private final Counter published;
+    private final Counter publishFailures;
+    private final Counter replaced;
+    private final Counter ignored;
+    private final Counter failed;
+    private final Timer lag;
+
+    @Autowired
+    public CacheInvalidationBus(InvalidationTransport transport, PatientStatusCache patientStatusCache, MeterRegistry meterRegistry) {
+        this(UUID.randomUUID().toString(), transport, patientStatusCache, Clock.systemUTC(), meterRegistry);
+    }
+
+    CacheInvalidationBus(String taskId, InvalidationTransport transport, PatientStatusCache patientStatusCache, Clock clock,
+                         MeterRegistry meterRegistry) {
+        this.taskId = taskId;
+        this.transport = transport;
+        this.patientStatusCache = patientStatusCache;
+        this.clock = clock;
+
+        published = Counter.builder("pds.cache.invalidation.published")
+                .description("Updated patient statuses sent to the other tasks")
+                .register(meterRegistry);
+        publishFailures = Counter.builder("pds.cache.invalidation.publish.failures")
+                .description("Updated patient statuses that could not be sent to the other tasks")
+                .register(meterRegistry);
+        replaced = received(meterRegistry, "replaced");
+        ignored = received(meterRegistry, "ignored");
+        failed = received(meterRegistry, "failed");
+        lag = Timer.builder("pds.cache.invalidation.lag")
+                .description("Time from another task updating a patient to this task receiving the update")
+                .register(meterRegistry);
+
+        transport.subscribe(this::receive);
+    }
+
+    public void publish(String nhsNumber, SuspendedPatientStatus updatedStatus) {
+        if (transport == InvalidationTransport.none()) {
+            return;
+        }
+        try {
+            transport.publish(encode(nhsNumber, updatedStatus, clock.instant()));
+            published.increment();
+        }
+        catch (IOException | RuntimeException e) {
+            publishFailures.increment();
+            log.warn("Could not tell other tasks of patient update over " + transport.name() + ": " + e.getMessage());
+        }
+    }
+
+    void receive(byte[] message) {
+        try {
+            var in = new DataInputStream(new ByteArrayInputStream(message));
+            var origin = in.readUTF();
+            if (taskId.equals(origin)) {
+                return;
+            }
+            var publishedAt = Instant.ofEpochMilli(in.readLong());
+            var update = PatientStatusRecordFormat.decode(in.readAllBytes());
+            lag.record(Duration.ofMillis(Math.max(0, clock.millis() - publishedAt.toEpochMilli())));
+            if (patientStatusCache.replaceWithUpdateFromOtherTask(update.nhsNumber, update.status, update.fetchedAt)) {
+                replaced.increment();
+            } else {
+                ignored.increment();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            failed.increment();
+            log.warn("Could not apply patient update from another task: " + e.getMessage());
+        }
+    }
+
+    private byte[] encode(String nhsNumber, SuspendedPatientStatus updatedStatus, Instant publishedAt) throws IOException {
+        var record = PatientStatusRecordFormat.encode(nhsNumber, updatedStatus, publishedAt);
+        var bytes = new ByteArrayOutputStream(64 + record.remaining());
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeUTF(taskId);
+            out.writeLong(publishedAt.toEpochMilli());
+            out.write(record.array(), 0, record.remaining());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Counter received(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("pds.cache.invalidation.received")
+                .description("Patient updates received from other tasks, by whether they replaced a cached status")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,17 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import lombok.Value;
+import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
+
+import java.time.Instant;
+
+@Value
+public class CachedPatientStatus {
+    SuspendedPatientStatus status;
+    Instant fetchedAt;
+    Instant expiresAt;
+
+    public boolean isFreshAt(Instant now) {
+        return now.isBefore(expiresAt);
+    }
+}
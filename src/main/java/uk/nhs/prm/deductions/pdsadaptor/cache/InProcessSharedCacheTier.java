@@ -0,0 +1,67 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared tier held in memory, standing in for Redis in tests and local runs. Several caches given the same instance
+ * share it as tasks would share Redis. Expired records are dropped when next read rather than swept.
+ */
+public class InProcessSharedCacheTier implements SharedCacheTier {
+
+    private final Clock clock;
+    private final ConcurrentMap<String, StoredRecord> records = new ConcurrentHashMap<>();
+
+    public InProcessSharedCacheTier() {
+        this(Clock.systemUTC());
+    }
+
+    public InProcessSharedCacheTier(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public String name() {
+        return "in-process";
+    }
+
+    @Override
+    public Optional<byte[]> get(String nhsNumber) {
+        var stored = records.get(nhsNumber);
+        if (stored == null) {
+            return Optional.empty();
+        }
+        if (stored.expiresAtMillis <= clock.millis()) {
+            records.remove(nhsNumber, stored);
+            return Optional.empty();
+        }
+        return Optional.of(stored.record.clone());
+    }
+
+    @Override
+    public void put(String nhsNumber, byte[] record, Duration timeToLive) {
+        records.put(nhsNumber, new StoredRecord(record.clone(), clock.millis() + timeToLive.toMillis()));
+    }
+
+    @Override
+    public void evict(String nhsNumber) {
+        records.remove(nhsNumber);
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    private static class StoredRecord {
+        private final byte[] record;
+        private final long expiresAtMillis;
+
+        private StoredRecord(byte[] record, long expiresAtMillis) {
+            this.record = record;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries {@link CacheInvalidationBus} messages between pds-adaptor tasks. A message published by a task is delivered
+ * to every subscribed task, including the one that published it.
+ */
+public interface InvalidationTransport {
+
+    String name();
+
+    void publish(byte[] message);
+
+    void subscribe(Consumer<byte[]> listener);
+
+    static InvalidationTransport none() {
+        return NoInvalidationTransport.INSTANCE;
+    }
+}
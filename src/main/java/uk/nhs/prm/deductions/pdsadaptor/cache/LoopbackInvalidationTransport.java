@@ -0,0 +1,29 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Delivers messages straight to every listener in this process, for tests and local runs. Buses given the same
+ * instance behave as tasks sharing a real transport.
+ */
+public class LoopbackInvalidationTransport implements InvalidationTransport {
+
+    private final List<Consumer<byte[]>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String name() {
+        return "loopback";
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        listeners.forEach(listener -> listener.accept(message.clone()));
+    }
+
+    @Override
+    public void subscribe(Consumer<byte[]> listener) {
+        listeners.add(listener);
+    }
+}
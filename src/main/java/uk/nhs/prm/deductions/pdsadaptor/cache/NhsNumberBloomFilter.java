@@ -0,0 +1,66 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size Bloom filter of NHS numbers, safe for concurrent use. "Definitely not added" answers are always right;
+ * "might have been added" answers are wrong at about the configured false positive rate once the filter holds its
+ * expected number of entries, and more often beyond that.
+ */
+class NhsNumberBloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    NhsNumberBloomFilter(long expectedInsertions, double falsePositiveRate) {
+        var optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        var wordCount = Math.max(1, (optimalBits + Long.SIZE - 1) / Long.SIZE);
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter for " + expectedInsertions + " NHS numbers would be too large");
+        }
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bitCount = wordCount * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / Math.max(1, expectedInsertions) * Math.log(2)));
+    }
+
+    void add(long nhsNumber) {
+        var hash1 = mix(nhsNumber);
+        var hash2 = mix(hash1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            var bit = bitIndex(hash1 + i * hash2);
+            var mask = 1L << bit;
+            words.getAndAccumulate((int) (bit >>> 6), mask, (word, newBit) -> word | newBit);
+        }
+    }
+
+    boolean mightContain(long nhsNumber) {
+        var hash1 = mix(nhsNumber);
+        var hash2 = mix(hash1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            var bit = bitIndex(hash1 + i * hash2);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long sizeInBytes() {
+        return bitCount / Byte.SIZE;
+    }
+
+    private long bitIndex(long combinedHash) {
+        return (combinedHash & Long.MAX_VALUE) % bitCount;
+    }
+
+    // murmur3 finaliser, so that consecutive NHS numbers land far apart
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
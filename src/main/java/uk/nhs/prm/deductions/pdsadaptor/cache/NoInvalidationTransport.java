@@ -0,0 +1,24 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import java.util.function.Consumer;
+
+final class NoInvalidationTransport implements InvalidationTransport {
+
+    static final NoInvalidationTransport INSTANCE = new NoInvalidationTransport();
+
+    private NoInvalidationTransport() {
+    }
+
+    @Override
+    public String name() {
+        return "none";
+    }
+
+    @Override
+    public void publish(byte[] message) {
+    }
+
+    @Override
+    public void subscribe(Consumer<byte[]> listener) {
+    }
+}
@@ -0,0 +1,30 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import java.time.Duration;
+import java.util.Optional;
+
+final class NoSharedCacheTier implements SharedCacheTier {
+
+    static final NoSharedCacheTier INSTANCE = new NoSharedCacheTier();
+
+    private NoSharedCacheTier() {
+    }
+
+    @Override
+    public String name() {
+        return "none";
+    }
+
+    @Override
+    public Optional<byte[]> get(String nhsNumber) {
+        return Optional.empty();
+    }
+
+    @Override
+    public void put(String nhsNumber, byte[] record, Duration timeToLive) {
+    }
+
+    @Override
+    public void evict(String nhsNumber) {
+    }
+}
@@ -0,0 +1,139 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NHS numbers PDS has recently answered 404 for, so that repeats can be answered locally for the ttl instead of
+ * costing an authenticated PDS round trip and rate limit budget.
+ * <p>
+ * Lookups go through a Bloom filter first, which rules out the great majority of NHS numbers, those of patients that
+ * exist, without touching the exact set. A Bloom filter hit alone is never trusted to turn a patient away, it must be
+ * confirmed by the exact set. Bloom filters cannot forget, so a new one is started every ttl and the previous one kept
+ * alongside it, which covers everything the exact set can hold. As nothing the exact set has dropped can be confirmed,
+ * each filter is sized to the exact set too: a larger one would only hold NHS numbers that can no longer be answered.
+ */
+@Component
+public class NotFoundCache {
+
+    private final boolean enabled;
+    private final Duration ttl;
+    private final long maxEntries;
+    private final double bloomFalsePositiveRate;
+    private final Clock clock;
+    private final Cache<Long, Boolean> knownMissing;
+    private final Counter callsAvoided;
+    private final Counter bloomUnconfirmed;
+
+    private volatile NhsNumberBloomFilter currentBloomFilter;
+    private volatile NhsNumberBloomFilter previousBloomFilter;
+    private volatile long bloomRotationDueMillis;
+
+    @Autowired
+    public NotFoundCache(@Value("${pds.cache.not.found.enabled}") boolean enabled,
+                         @Value("${pds.cache.not.found.ttl.seconds}") long ttlSeconds,
+                         @Value("${pds.cache.not.found.max.entries}") long maxEntries,
+                         @Value("${pds.cache.not.found.bloom.false.positive.rate}") double bloomFalsePositiveRate,
+                         MeterRegistry meterRegistry) {
+        this(enabled, Duration.ofSeconds(ttlSeconds), maxEntries, bloomFalsePositiveRate, Clock.systemUTC(), meterRegistry);
+    }
+
+    NotFoundCache(boolean enabled, Duration ttl, long maxEntries, double bloomFalsePositiveRate, Clock clock,
+                  MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+        this.bloomFalsePositiveRate = bloomFalsePositiveRate;
+        this.clock = clock;
+        this.knownMissing = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .ticker(() -> TimeUnit.MILLISECONDS.toNanos(clock.millis()))
+                .build();
+        this.currentBloomFilter = newBloomFilter();
+        this.previousBloomFilter = newBloomFilter();
+        this.bloomRotationDueMillis = clock.millis() + ttl.toMillis();
+
+        callsAvoided = Counter.builder("pds.cache.not.found.calls.avoided")
+                .description("PDS calls not made because the NHS number was recently not found")
+                .register(meterRegistry);
+        bloomUnconfirmed = Counter.builder("pds.cache.not.found.bloom.unconfirmed")
+                .description("Bloom filter hits not confirmed by the exact set of recently not found NHS numbers")
+                .register(meterRegistry);
+        Gauge.builder("pds.cache.not.found.size", knownMissing, Cache::estimatedSize)
+                .description("NHS numbers held as recently not found")
+                .register(meterRegistry);
+        Gauge.builder("pds.cache.not.found.bloom.bytes", this, cache -> 2.0 * cache.currentBloomFilter.sizeInBytes())
+                .description("Memory taken by the current and previous Bloom filters")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public boolean isKnownMissing(String nhsNumber) {
+        if (!enabled || !isNumeric(nhsNumber)) {
+            return false;
+        }
+        var key = Long.parseLong(nhsNumber);
+        rotateBloomFiltersIfDue();
+        if (!currentBloomFilter.mightContain(key) && !previousBloomFilter.mightContain(key)) {
+            return false;
+        }
+        if (knownMissing.getIfPresent(key) == null) {
+            bloomUnconfirmed.increment();
+            return false;
+        }
+        callsAvoided.increment();
+        return true;
+    }
+
+    public void recordNotFound(String nhsNumber) {
+        if (!enabled || !isNumeric(nhsNumber)) {
+            return;
+        }
+        var key = Long.parseLong(nhsNumber);
+        rotateBloomFiltersIfDue();
+        knownMissing.put(key, true);
+        currentBloomFilter.add(key);
+    }
+
+    public void forget(String nhsNumber) {
+        if (!enabled || !isNumeric(nhsNumber)) {
+            return;
+        }
+        knownMissing.invalidate(Long.parseLong(nhsNumber));
+    }
+
+    private void rotateBloomFiltersIfDue() {
+        if (clock.millis() < bloomRotationDueMillis) {
+            return;
+        }
+        synchronized (this) {
+            var now = clock.millis();
+            if (now < bloomRotationDueMillis) {
+                return;
+            }
+            previousBloomFilter = currentBloomFilter;
+            currentBloomFilter = newBloomFilter();
+            bloomRotationDueMillis = now + ttl.toMillis();
+        }
+    }
+
+    private NhsNumberBloomFilter newBloomFilter() {
+        return new NhsNumberBloomFilter(maxEntries, bloomFalsePositiveRate);
+    }
+
+    private static boolean isNumeric(String nhsNumber) {
+        return nhsNumber != null && !nhsNumber.isEmpty() && nhsNumber.length() <= 18
+                && nhsNumber.chars().allMatch(c -> c >= '0' && c <= '9');
+    }
+}
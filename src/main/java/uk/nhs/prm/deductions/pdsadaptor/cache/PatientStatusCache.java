@@ -0,0 +1,316 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Boolean.TRUE;
+
+/**
+ * Recently fetched patient statuses by NHS number, bounded in size, each kept for as long as a record of its kind is
+ * expected to stay the same: deceased records never change, while a registered patient may be suspended at any time.
+ * <p>
+ * Expired entries are held on to for the stale retention period so that they can be revalidated with PDS using
+ * their record ETag, rather than downloaded again.
+ * <p>
+ * When the {@link PatientStatusStore} is enabled, statuses are also written to disk and restored from it at startup,
+ * with their ttls worked out again from when they were fetched.
+ * <p>
+ * When a {@link SharedCacheTier} is configured, this cache is the near cache in front of it: statuses are written
+ * through to the shared tier, and a lookup that misses here is tried there before the caller goes to PDS.
+ */
+@Slf4j
+@Component
+public class PatientStatusCache {
+
+    private final boolean enabled;
+    private final Duration registeredTtl;
+    private final Duration suspendedTtl;
+    private final Duration deceasedTtl;
+    private final Duration staleRetention;
+    private final Clock clock;
+    private final Cache<String, CachedPatientStatus> entries;
+    private final PatientStatusStore store;
+    private final SharedCacheTier sharedTier;
+    private final boolean sharing;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter bypasses;
+    private final Counter notModified;
+    private final Counter modified;
+    private final Counter localHits;
+    private final Counter localMisses;
+    private final Counter sharedHits;
+    private final Counter sharedMisses;
+    private final Counter sharedErrors;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public PatientStatusCache(@Value("${pds.cache.enabled}") boolean enabled,
+                              @Value("${pds.cache.max.entries}") long maxEntries,
+                              @Value("${pds.cache.ttl.registered.seconds}") long registeredTtlSeconds,
+                              @Value("${pds.cache.ttl.suspended.seconds}") long suspendedTtlSeconds,
+                              @Value("${pds.cache.ttl.deceased.seconds}") long deceasedTtlSeconds,
+                              @Value("${pds.cache.stale.retention.seconds}") long staleRetentionSeconds,
+                              PatientStatusStore store,
+                              SharedCacheTier sharedTier,
+                              MeterRegistry meterRegistry) {
+        this(enabled, maxEntries, Duration.ofSeconds(registeredTtlSeconds), Duration.ofSeconds(suspendedTtlSeconds),
+                Duration.ofSeconds(deceasedTtlSeconds), Duration.ofSeconds(staleRetentionSeconds), store, sharedTier,
+                Clock.systemUTC(), meterRegistry);
+    }
+
+    PatientStatusCache(boolean enabled, long maxEntries, Duration registeredTtl, Duration suspendedTtl, Duration deceasedTtl,
+                       Duration staleRetention, PatientStatusStore store, SharedCacheTier sharedTier, Clock clock,
+                       MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.registeredTtl = registeredTtl;
+        this.suspendedTtl = suspendedTtl;
+        this.deceasedTtl = deceasedTtl;
+        this.staleRetention = staleRetention;
+        this.store = store;
+        this.sharedTier = sharedTier;
+        this.sharing = enabled && sharedTier != SharedCacheTier.none();
+        this.clock = clock;
+        this.meterRegistry = meterRegistry;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new UntilStaleRetentionEnds())
+                .ticker(() -> TimeUnit.MILLISECONDS.toNanos(clock.millis()))
+                .executor(Runnable::run)
+                .removalListener((String nhsNumber, CachedPatientStatus entry, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        evictions(cause).increment();
+                    }
+                })
+                .build();
+
+        hits = requests("hit");
+        misses = requests("miss");
+        bypasses = requests("bypass");
+        notModified = revalidations("not-modified");
+        modified = revalidations("modified");
+        localHits = tierLookups("local", "hit");
+        localMisses = tierLookups("local", "miss");
+        sharedHits = tierLookups("shared", "hit");
+        sharedMisses = tierLookups("shared", "miss");
+        sharedErrors = tierLookups("shared", "error");
+        Gauge.builder("pds.cache.size", entries, Cache::estimatedSize)
+                .description("Patient statuses held in the cache")
+                .register(meterRegistry);
+
+        if (enabled) {
+            store.open(this::restore, entries::asMap);
+        }
+    }
+
+    public Optional<SuspendedPatientStatus> getFresh(String nhsNumber) {
+        return getFreshEntry(nhsNumber).map(CachedPatientStatus::getStatus);
+    }
+
+    public Optional<CachedPatientStatus> getFreshEntry(String nhsNumber) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        var now = clock.instant();
+        var entry = entries.getIfPresent(nhsNumber);
+        if (entry != null && entry.isFreshAt(now)) {
+            localHits.increment();
+            hits.increment();
+            return Optional.of(entry);
+        }
+        localMisses.increment();
+        if (sharing) {
+            var sharedEntry = fromSharedTier(nhsNumber);
+            if (sharedEntry.isPresent() && (entry == null || sharedEntry.get().getFetchedAt().isAfter(entry.getFetchedAt()))) {
+                // kept even if expired, as another task's ETag may still be revalidated
+                entries.put(nhsNumber, sharedEntry.get());
+                if (sharedEntry.get().isFreshAt(now)) {
+                    sharedHits.increment();
+                    hits.increment();
+                    return sharedEntry;
+                }
+            }
+            sharedMisses.increment();
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    public Optional<CachedPatientStatus> getStale(String nhsNumber) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(entries.getIfPresent(nhsNumber))
+                .filter(entry -> !entry.isFreshAt(clock.instant()))
+                .filter(entry -> entry.getStatus().getRecordETag() != null);
+    }
+
+    public void refreshExpiry(String nhsNumber, CachedPatientStatus revalidatedEntry) {
+        notModified.increment();
+        put(nhsNumber, revalidatedEntry.getStatus());
+    }
+
+    public void replaceAfterRevalidation(String nhsNumber, SuspendedPatientStatus changedStatus) {
+        modified.increment();
+        put(nhsNumber, changedStatus);
+    }
+
+    public boolean replaceWithUpdateFromOtherTask(String nhsNumber, SuspendedPatientStatus updatedStatus, Instant updatedAt) {
+        if (!enabled) {
+            return false;
+        }
+        var current = entries.getIfPresent(nhsNumber);
+        if (current == null || !current.getFetchedAt().isBefore(updatedAt)
+                || Objects.equals(current.getStatus().getRecordETag(), updatedStatus.getRecordETag())) {
+            return false;
+        }
+        var entry = new CachedPatientStatus(updatedStatus, updatedAt, updatedAt.plus(ttlFor(updatedStatus)));
+        entries.put(nhsNumber, entry);
+        store.append(nhsNumber, entry);
+        return true;
+    }
+
+    public void recordBypass() {
+        bypasses.increment();
+    }
+
+    public void put(String nhsNumber, SuspendedPatientStatus status) {
+        if (!enabled) {
+            return;
+        }
+        var now = clock.instant();
+        var entry = new CachedPatientStatus(status, now, now.plus(ttlFor(status)));
+        entries.put(nhsNumber, entry);
+        store.append(nhsNumber, entry);
+        if (sharing) {
+            toSharedTier(nhsNumber, entry);
+        }
+    }
+
+    public void evict(String nhsNumber) {
+        if (!enabled) {
+            return;
+        }
+        entries.invalidate(nhsNumber);
+        store.appendEviction(nhsNumber, clock.instant());
+        if (sharing) {
+            try {
+                sharedTier.evict(nhsNumber);
+            }
+            catch (RuntimeException e) {
+                sharedErrors.increment();
+                log.warn("Could not evict patient status from " + sharedTier.name() + " shared cache: " + e.getMessage());
+            }
+        }
+    }
+
+    Duration ttlFor(SuspendedPatientStatus status) {
+        if (TRUE.equals(status.getIsDeceased())) {
+            return deceasedTtl;
+        }
+        if (TRUE.equals(status.getIsSuspended())) {
+            return suspendedTtl;
+        }
+        return registeredTtl;
+    }
+
+    private void restore(String nhsNumber, SuspendedPatientStatus status, Instant fetchedAt) {
+        var expiresAt = fetchedAt.plus(ttlFor(status));
+        if (expiresAt.plus(staleRetention).isAfter(clock.instant())) {
+            entries.put(nhsNumber, new CachedPatientStatus(status, fetchedAt, expiresAt));
+        }
+    }
+
+    private Optional<CachedPatientStatus> fromSharedTier(String nhsNumber) {
+        try {
+            var record = sharedTier.get(nhsNumber);
+            if (record.isEmpty()) {
+                return Optional.empty();
+            }
+            var stored = PatientStatusRecordFormat.decode(record.get());
+            return Optional.of(new CachedPatientStatus(stored.status, stored.fetchedAt, stored.fetchedAt.plus(ttlFor(stored.status))));
+        }
+        catch (IOException | RuntimeException e) {
+            sharedErrors.increment();
+            log.warn("Could not read patient status from " + sharedTier.name() + " shared cache: " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private void toSharedTier(String nhsNumber, CachedPatientStatus entry) {
+        try {
+            var record = PatientStatusRecordFormat.encode(nhsNumber, entry.getStatus(), entry.getFetchedAt());
+            var timeToLive = Duration.between(clock.instant(), entry.getExpiresAt().plus(staleRetention));
+            sharedTier.put(nhsNumber, record.array(), timeToLive);
+        }
+        catch (IOException | RuntimeException e) {
+            sharedErrors.increment();
+            log.warn("Could not write patient status to " + sharedTier.name() + " shared cache: " + e.getMessage());
+        }
+    }
+
+    private Counter requests(String result) {
+        return Counter.builder("pds.cache.requests")
+                .description("Patient status lookups answered from the cache, missed, or bypassed by the caller")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Counter tierLookups(String tier, String result) {
+        return Counter.builder("pds.cache.tier.lookups")
+                .description("Patient status lookups by cache tier, whether local to this task or shared between tasks")
+                .tag("tier", tier)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Counter revalidations(String result) {
+        return Counter.builder("pds.cache.revalidations")
+                .description("Expired patient statuses revalidated with PDS, by whether the record had changed")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Counter evictions(RemovalCause cause) {
+        return Counter.builder("pds.cache.evictions")
+                .description("Patient statuses dropped from the cache on expiry or to keep within its size")
+                .tag("cause", cause == RemovalCause.SIZE ? "size" : "expired")
+                .register(meterRegistry);
+    }
+
+    private class UntilStaleRetentionEnds implements Expiry<String, CachedPatientStatus> {
+        @Override
+        public long expireAfterCreate(String nhsNumber, CachedPatientStatus entry, long currentTime) {
+            var retainUntil = entry.getExpiresAt().plus(staleRetention);
+            return Math.max(0, TimeUnit.MILLISECONDS.toNanos(retainUntil.toEpochMilli() - clock.millis()));
+        }
+
+        @Override
+        public long expireAfterUpdate(String nhsNumber, CachedPatientStatus entry, long currentTime, long currentDuration) {
+            return expireAfterCreate(nhsNumber, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String nhsNumber, CachedPatientStatus entry, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
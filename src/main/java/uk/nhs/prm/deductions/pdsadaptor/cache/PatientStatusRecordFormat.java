@@ -0,0 +1,171 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.zip.CRC32;
+
+/**
+ * Layout of the patient status segment files. Each segment starts with a header of the magic number and format
+ * version, followed by records of payload length, CRC32 of the payload, then the payload:
+ * NHS number, fetched at (epoch ms), suspended and deceased flags, ODS code, managing organisation and record ETag.
+ * <p>
+ * A tombstone record, written when a status is evicted, has just the NHS number, the time of eviction and a flags
+ * byte with the tombstone bit set. It hides every earlier record for that NHS number. Version 1 segments have the
+ * same records without tombstones, so are still read.
+ * <p>
+ * A record that is cut short or fails its checksum marks where a crash interrupted writing to the segment; nothing
+ * after it in that segment is read.
+ * <p>
+ * The same records, without the segment header, are the values held in a {@link SharedCacheTier}.
+ */
+final class PatientStatusRecordFormat {
+
+    static final int MAGIC = 0x50445343;
+    static final short VERSION = 2;
+    static final short OLDEST_READABLE_VERSION = 1;
+    static final int HEADER_BYTES = Integer.BYTES + Short.BYTES;
+    static final int RECORD_PREFIX_BYTES = 2 * Integer.BYTES;
+    static final int MAX_PAYLOAD_BYTES = 4096;
+
+    private static final int FLAG_NULL = 0;
+    private static final int FLAG_FALSE = 1;
+    private static final int FLAG_TRUE = 2;
+    private static final int TOMBSTONE = 1 << 4;
+
+    private PatientStatusRecordFormat() {
+    }
+
+    static ByteBuffer header() {
+        return ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putShort(VERSION).flip();
+    }
+
+    static boolean isReadableVersion(short version) {
+        return version >= OLDEST_READABLE_VERSION && version <= VERSION;
+    }
+
+    static ByteBuffer encodeTombstone(String nhsNumber, Instant evictedAt) throws IOException {
+        var payloadBytes = new ByteArrayOutputStream(32);
+        try (var payload = new DataOutputStream(payloadBytes)) {
+            payload.writeUTF(nhsNumber);
+            payload.writeLong(evictedAt.toEpochMilli());
+            payload.writeByte(TOMBSTONE);
+        }
+        return framed(payloadBytes.toByteArray());
+    }
+
+    static ByteBuffer encode(String nhsNumber, SuspendedPatientStatus status, Instant fetchedAt) throws IOException {
+        var payloadBytes = new ByteArrayOutputStream(128);
+        try (var payload = new DataOutputStream(payloadBytes)) {
+            payload.writeUTF(nhsNumber);
+            payload.writeLong(fetchedAt.toEpochMilli());
+            payload.writeByte(flag(status.getIsSuspended()) | flag(status.getIsDeceased()) << 2);
+            writeNullable(payload, status.getNhsNumber());
+            writeNullable(payload, status.getCurrentOdsCode());
+            writeNullable(payload, status.getManagingOrganisation());
+            writeNullable(payload, status.getRecordETag());
+        }
+        return framed(payloadBytes.toByteArray());
+    }
+
+    private static ByteBuffer framed(byte[] payload) throws IOException {
+        if (payload.length > MAX_PAYLOAD_BYTES) {
+            throw new IOException("Patient status record of " + payload.length + " bytes is too large to store");
+        }
+        return ByteBuffer.allocate(RECORD_PREFIX_BYTES + payload.length)
+                .putInt(payload.length)
+                .putInt(checksum(payload))
+                .put(payload)
+                .flip();
+    }
+
+    static StoredPatientStatus decode(byte[] record) throws IOException {
+        var buffer = ByteBuffer.wrap(record);
+        if (record.length < RECORD_PREFIX_BYTES || buffer.getInt() != record.length - RECORD_PREFIX_BYTES) {
+            throw new IOException("Patient status record of " + record.length + " bytes does not match its length");
+        }
+        var checksum = buffer.getInt();
+        var payload = new byte[record.length - RECORD_PREFIX_BYTES];
+        buffer.get(payload);
+        if (!isValidChecksum(payload, checksum)) {
+            throw new IOException("Patient status record failed its checksum");
+        }
+        return decode(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    static boolean isValidChecksum(byte[] payload, int expectedChecksum) {
+        return checksum(payload) == expectedChecksum;
+    }
+
+    static StoredPatientStatus decode(DataInput payload) throws IOException {
+        var key = payload.readUTF();
+        var fetchedAt = Instant.ofEpochMilli(payload.readLong());
+        var flags = payload.readByte();
+        if ((flags & TOMBSTONE) != 0) {
+            return new StoredPatientStatus(key, null, fetchedAt);
+        }
+        var status = SuspendedPatientStatus.builder()
+                .isSuspended(fromFlag(flags & 3))
+                .isDeceased(fromFlag(flags >> 2 & 3))
+                .nhsNumber(readNullable(payload))
+                .currentOdsCode(readNullable(payload))
+                .managingOrganisation(readNullable(payload))
+                .recordETag(readNullable(payload))
+                .build();
+        return new StoredPatientStatus(key, status, fetchedAt);
+    }
+
+    private static int checksum(byte[] payload) {
+        var crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static int flag(Boolean value) {
+        if (value == null) {
+            return FLAG_NULL;
+        }
+        return value ? FLAG_TRUE : FLAG_FALSE;
+    }
+
+    private static Boolean fromFlag(int flag) {
+        if (flag == FLAG_NULL) {
+            return null;
+        }
+        return flag == FLAG_TRUE;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static class StoredPatientStatus {
+        final String nhsNumber;
+        final SuspendedPatientStatus status;
+        final Instant fetchedAt;
+
+        StoredPatientStatus(String nhsNumber, SuspendedPatientStatus status, Instant fetchedAt) {
+            this.nhsNumber = nhsNumber;
+            this.status = status;
+            this.fetchedAt = fetchedAt;
+        }
+
+        boolean isTombstone() {
+            return status == null;
+        }
+    }
+}
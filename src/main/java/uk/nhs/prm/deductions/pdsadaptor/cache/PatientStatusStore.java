@@ -0,0 +1,418 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.nhs.prm.deductions.pdsadaptor.cache.PatientStatusRecordFormat.StoredPatientStatus;
+import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Keeps a copy of the patient status cache on disk so that it can be restored when the adaptor restarts, rather than
+ * every patient being fetched from PDS again.
+ * <p>
+ * Statuses are appended to the active segment file as they are cached, and a new segment started when it reaches
+ * the segment size. Once enough segments have been sealed they are compacted in the background: the live cache is
+ * written out as a single new segment and the segments it replaces deleted. On restore the segments are read back
+ * in order, the most recently fetched status for each NHS number winning. An evicted status has a tombstone appended,
+ * so that it is not restored unless fetched again after the eviction. See {@link PatientStatusRecordFormat}.
+ * <p>
+ * Failing to read or write the store never fails a request, the cache just carries on in memory.
+ */
+@Slf4j
+@Component
+public class PatientStatusStore implements DisposableBean {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    public interface Restorer {
+        void restore(String nhsNumber, SuspendedPatientStatus status, Instant fetchedAt);
+    }
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long segmentMaxBytes;
+    private final int compactionSegmentCount;
+    private final ExecutorService compactionExecutor;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final List<Path> sealedSegments = new ArrayList<>();
+    private final Counter restored;
+    private final Counter tornSegments;
+    private final Counter writeFailures;
+    private final Counter compactions;
+    private final Timer restoreTime;
+
+    private Supplier<Map<String, CachedPatientStatus>> liveEntries;
+    private FileChannel activeSegment;
+    private long activeSequence;
+    private long activeSegmentBytes;
+    private long nextSequence;
+    private volatile boolean writable;
+
+    @Autowired
+    public PatientStatusStore(@Value("${pds.cache.store.enabled}") boolean enabled,
+                              @Value("${pds.cache.store.directory}") String directory,
+                              @Value("${pds.cache.store.segment.max.bytes}") long segmentMaxBytes,
+                              @Value("${pds.cache.store.compaction.segment.count}") int compactionSegmentCount,
+                              MeterRegistry meterRegistry) {
+        this(enabled, Paths.get(directory), segmentMaxBytes, compactionSegmentCount,
+                enabled ? compactionExecutor() : null, meterRegistry);
+    }
+
+    PatientStatusStore(boolean enabled, Path directory, long segmentMaxBytes, int compactionSegmentCount,
+                       ExecutorService compactionExecutor, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.compactionSegmentCount = compactionSegmentCount;
+        this.compactionExecutor = compactionExecutor;
+
+        restored = Counter.builder("pds.cache.store.restored")
+                .description("Patient statuses read back from disk at startup")
+                .register(meterRegistry);
+        tornSegments = Counter.builder("pds.cache.store.torn.segments")
+                .description("Segments that ended in a cut short or corrupt record, read up to the last good record")
+                .register(meterRegistry);
+        writeFailures = Counter.builder("pds.cache.store.write.failures")
+                .description("Patient statuses that could not be written to disk")
+                .register(meterRegistry);
+        compactions = Counter.builder("pds.cache.store.compactions")
+                .description("Compactions of the patient status segments down to the live cache")
+                .register(meterRegistry);
+        restoreTime = Timer.builder("pds.cache.store.restore")
+                .description("Time taken to read the patient status segments back at startup")
+                .register(meterRegistry);
+        Gauge.builder("pds.cache.store.segments", this, PatientStatusStore::segmentCount)
+                .description("Patient status segment files on disk, including the active one")
+                .register(meterRegistry);
+    }
+
+    public synchronized void open(Restorer restorer, Supplier<Map<String, CachedPatientStatus>> liveEntries) {
+        if (!enabled) {
+            return;
+        }
+        this.liveEntries = liveEntries;
+        try {
+            Files.createDirectories(directory);
+            deleteTemporaryFiles();
+            var segments = segmentsInOrder();
+            restoreTime.record(() -> restore(segments, restorer));
+            sealedSegments.addAll(segments);
+            nextSequence = segments.isEmpty() ? 1 : sequenceOf(segments.get(segments.size() - 1)) + 1;
+            startNewActiveSegment();
+            writable = true;
+        }
+        catch (IOException e) {
+            log.error("Could not open patient status store in " + directory + ", caching in memory only", e);
+            return;
+        }
+        compactIfDue();
+    }
+
+    public void append(String nhsNumber, CachedPatientStatus entry) {
+        if (!writable) {
+            return;
+        }
+        try {
+            write(PatientStatusRecordFormat.encode(nhsNumber, entry.getStatus(), entry.getFetchedAt()));
+        }
+        catch (IOException e) {
+            writeFailures.increment();
+            log.warn("Could not write patient status to store: " + e.getMessage());
+        }
+    }
+
+    public void appendEviction(String nhsNumber, Instant evictedAt) {
+        if (!writable) {
+            return;
+        }
+        try {
+            write(PatientStatusRecordFormat.encodeTombstone(nhsNumber, evictedAt));
+        }
+        catch (IOException e) {
+            writeFailures.increment();
+            log.warn("Could not write patient status eviction to store: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdown();
+        }
+        synchronized (this) {
+            writable = false;
+            if (activeSegment == null) {
+                return;
+            }
+            try {
+                activeSegment.force(true);
+                activeSegment.close();
+                activeSegment = null;
+            }
+            catch (IOException e) {
+                log.warn("Could not close patient status store cleanly: " + e.getMessage());
+            }
+        }
+    }
+
+    void compact() {
+        long compactedSequence;
+        List<Path> replacedSegments;
+        try {
+            synchronized (this) {
+                if (!writable) {
+                    compacting.set(false);
+                    return;
+                }
+                compactedSequence = nextSequence++;
+                sealActiveSegment();
+                startNewActiveSegment();
+                replacedSegments = new ArrayList<>(sealedSegments);
+                sealedSegments.clear();
+            }
+        }
+        catch (IOException e) {
+            log.warn("Could not start patient status store compaction: " + e.getMessage());
+            compacting.set(false);
+            return;
+        }
+
+        try {
+            var compactedSegment = writeCompactedSegment(compactedSequence);
+            synchronized (this) {
+                sealedSegments.add(0, compactedSegment);
+            }
+            for (var segment : replacedSegments) {
+                Files.deleteIfExists(segment);
+            }
+            compactions.increment();
+            log.info("Compacted " + replacedSegments.size() + " patient status segments");
+        }
+        catch (IOException e) {
+            log.warn("Could not compact patient status store: " + e.getMessage());
+            synchronized (this) {
+                sealedSegments.addAll(0, replacedSegments);
+            }
+        }
+        finally {
+            compacting.set(false);
+        }
+    }
+
+    private synchronized void write(ByteBuffer record) throws IOException {
+        // checked again now that the store cannot be closed under us
+        if (!writable) {
+            return;
+        }
+        writeFully(activeSegment, record);
+        activeSegmentBytes += record.limit();
+        if (activeSegmentBytes >= segmentMaxBytes) {
+            sealActiveSegment();
+            startNewActiveSegment();
+            compactIfDue();
+        }
+    }
+
+    private void restore(List<Path> segments, Restorer restorer) {
+        var latestByNhsNumber = new HashMap<String, StoredPatientStatus>();
+        for (var segment : segments) {
+            try {
+                readSegment(segment, stored -> latestByNhsNumber.merge(stored.nhsNumber, stored,
+                        (earlier, later) -> later.fetchedAt.isBefore(earlier.fetchedAt) ? earlier : later));
+            }
+            catch (IOException e) {
+                log.warn("Could not read patient status segment " + segment.getFileName() + ": " + e.getMessage());
+            }
+        }
+        var restoredCount = 0;
+        for (var stored : latestByNhsNumber.values()) {
+            if (!stored.isTombstone()) {
+                restorer.restore(stored.nhsNumber, stored.status, stored.fetchedAt);
+                restoredCount++;
+            }
+        }
+        restored.increment(restoredCount);
+        log.info("Restored " + restoredCount + " patient statuses from " + segments.size() + " segments");
+    }
+
+    private void readSegment(Path segment, Consumer<StoredPatientStatus> reader) throws IOException {
+        try (var channel = FileChannel.open(segment, READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < PatientStatusRecordFormat.HEADER_BYTES
+                    || buffer.getInt() != PatientStatusRecordFormat.MAGIC) {
+                log.warn("Skipping " + segment.getFileName() + " as it is not a patient status segment");
+                return;
+            }
+            var version = buffer.getShort();
+            if (!PatientStatusRecordFormat.isReadableVersion(version)) {
+                log.warn("Skipping " + segment.getFileName() + " written in unsupported format version " + version);
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                var stored = readRecord(buffer);
+                if (stored == null) {
+                    tornSegments.increment();
+                    log.warn("Patient status segment " + segment.getFileName() + " ends in an incomplete or corrupt record, "
+                            + "probably written during a crash, reading it up to byte " + buffer.position());
+                    return;
+                }
+                reader.accept(stored);
+            }
+        }
+    }
+
+    private static StoredPatientStatus readRecord(ByteBuffer buffer) {
+        var recordStart = buffer.position();
+        if (buffer.remaining() < PatientStatusRecordFormat.RECORD_PREFIX_BYTES) {
+            return null;
+        }
+        var length = buffer.getInt();
+        var checksum = buffer.getInt();
+        if (length <= 0 || length > PatientStatusRecordFormat.MAX_PAYLOAD_BYTES || length > buffer.remaining()) {
+            buffer.position(recordStart);
+            return null;
+        }
+        var payload = new byte[length];
+        buffer.get(payload);
+        if (!PatientStatusRecordFormat.isValidChecksum(payload, checksum)) {
+            buffer.position(recordStart);
+            return null;
+        }
+        try {
+            return PatientStatusRecordFormat.decode(new DataInputStream(new ByteArrayInputStream(payload)));
+        }
+        catch (IOException e) {
+            buffer.position(recordStart);
+            return null;
+        }
+    }
+
+    private Path writeCompactedSegment(long sequence) throws IOException {
+        var segment = segmentPath(sequence);
+        var temporary = directory.resolve(segment.getFileName() + TEMPORARY_SUFFIX);
+        try (var channel = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            var out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            writeTo(out, PatientStatusRecordFormat.header());
+            for (var entry : liveEntries.get().entrySet()) {
+                var cached = entry.getValue();
+                writeTo(out, PatientStatusRecordFormat.encode(entry.getKey(), cached.getStatus(), cached.getFetchedAt()));
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, segment, ATOMIC_MOVE, REPLACE_EXISTING);
+        return segment;
+    }
+
+    private void compactIfDue() {
+        if (sealedSegments.size() >= compactionSegmentCount && compacting.compareAndSet(false, true)) {
+            compactionExecutor.execute(this::compact);
+        }
+    }
+
+    private void sealActiveSegment() throws IOException {
+        activeSegment.close();
+        sealedSegments.add(segmentPath(activeSequence));
+    }
+
+    private void startNewActiveSegment() throws IOException {
+        activeSequence = nextSequence++;
+        activeSegment = FileChannel.open(segmentPath(activeSequence), CREATE_NEW, WRITE);
+        var header = PatientStatusRecordFormat.header();
+        writeFully(activeSegment, header);
+        activeSegmentBytes = header.limit();
+    }
+
+    private synchronized int segmentCount() {
+        return sealedSegments.size() + (activeSegment != null && activeSegment.isOpen() ? 1 : 0);
+    }
+
+    private List<Path> segmentsInOrder() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(PatientStatusStore::isSegment)
+                    .sorted(Comparator.comparingLong(PatientStatusStore::sequenceOf))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void deleteTemporaryFiles() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (var file : files.filter(path -> path.getFileName().toString().endsWith(TEMPORARY_SUFFIX)).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private static boolean isSegment(Path path) {
+        var name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)
+                && name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()).chars().allMatch(Character::isDigit);
+    }
+
+    private static long sequenceOf(Path segment) {
+        var name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeTo(BufferedOutputStream out, ByteBuffer buffer) throws IOException {
+        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    private static ExecutorService compactionExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "pds-cache-store-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
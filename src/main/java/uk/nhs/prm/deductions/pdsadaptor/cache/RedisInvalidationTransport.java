@@ -0,0 +1,153 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionException;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Carries invalidations over a Redis pub/sub channel, with the same client options as the {@link RedisSharedCacheTier}
+ * on the same server. Publishing and subscribing use connections of their own.
+ * <p>
+ * Neither connection is needed to start: the publishing one is made on first publish and not tried again for a few
+ * seconds after it fails, and the subscription is made in the background, tried again every few seconds until it
+ * succeeds. While Redis cannot be reached updates are neither sent nor received, so entries are left to expire as
+ * usual. Once connected the client reconnects, and resubscribes, by itself.
+ */
+@Slf4j
+public class RedisInvalidationTransport implements InvalidationTransport, DisposableBean {
+
+    private static final RedisCodec<String, byte[]> CODEC = RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE);
+
+    private final RedisClient client;
+    private final String channel;
+    private final Duration connectRetry;
+    private final ScheduledExecutorService subscriber;
+    private volatile RedisCommands<String, byte[]> publishCommands;
+    private StatefulRedisConnection<String, byte[]> publishConnection;
+    private StatefulRedisPubSubConnection<String, byte[]> subscribeConnection;
+    private long nextConnectAttemptNanos;
+    private boolean subscribeFailureLogged;
+
+    public RedisInvalidationTransport(String host, int port, boolean ssl, Duration timeout, String channel) {
+        this(RedisSharedCacheTier.redisClient(host, port, ssl, timeout), channel, RedisSharedCacheTier.CONNECT_RETRY);
+    }
+
+    RedisInvalidationTransport(RedisClient client, String channel, Duration connectRetry) {
+        this.client = client;
+        this.channel = channel;
+        this.connectRetry = connectRetry;
+        this.nextConnectAttemptNanos = System.nanoTime();
+        this.subscriber = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "pds-cache-invalidation-subscriber");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String name() {
+        return "redis";
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        publishCommands().publish(channel, message);
+    }
+
+    @Override
+    public void subscribe(Consumer<byte[]> listener) {
+        subscriber.execute(() -> trySubscribe(listener));
+    }
+
+    @Override
+    public void destroy() {
+        subscriber.shutdownNow();
+        synchronized (this) {
+            if (subscribeConnection != null) {
+                subscribeConnection.close();
+            }
+            if (publishConnection != null) {
+                publishConnection.close();
+            }
+        }
+        client.shutdown();
+    }
+
+    private void trySubscribe(Consumer<byte[]> listener) {
+        StatefulRedisPubSubConnection<String, byte[]> connection = null;
+        try {
+            connection = client.connectPubSub(CODEC);
+            connection.addListener(new RedisPubSubAdapter<>() {
+                @Override
+                public void message(String messageChannel, byte[] message) {
+                    if (channel.equals(messageChannel)) {
+                        listener.accept(message);
+                    }
+                }
+            });
+            connection.sync().subscribe(channel);
+            synchronized (this) {
+                subscribeConnection = connection;
+                subscribeFailureLogged = false;
+            }
+            log.info("Subscribed to patient updates from other tasks on " + channel);
+        }
+        catch (RuntimeException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            synchronized (this) {
+                if (!subscribeFailureLogged) {
+                    log.warn("Could not subscribe to patient updates from other tasks, carrying on without them and trying "
+                            + "again every " + connectRetry.toSeconds() + "s: " + e.getMessage());
+                    subscribeFailureLogged = true;
+                }
+            }
+            try {
+                subscriber.schedule(() -> trySubscribe(listener), connectRetry.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException shuttingDown) {
+                // the transport is being destroyed, so there is no one left to subscribe for
+            }
+        }
+    }
+
+    private RedisCommands<String, byte[]> publishCommands() {
+        var connected = publishCommands;
+        if (connected != null) {
+            return connected;
+        }
+        synchronized (this) {
+            if (publishCommands == null) {
+                if (System.nanoTime() - nextConnectAttemptNanos < 0) {
+                    throw new RedisConnectionException("Not connected to the invalidation channel, waiting to try again");
+                }
+                try {
+                    publishConnection = client.connect(CODEC);
+                    publishCommands = publishConnection.sync();
+                    log.info("Connected to publish patient updates on " + channel);
+                }
+                catch (RuntimeException e) {
+                    nextConnectAttemptNanos = System.nanoTime() + connectRetry.toNanos();
+                    throw e;
+                }
+            }
+            return publishCommands;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionException;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.SocketOptions;
+import io.lettuce.core.TimeoutOptions;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Shared tier kept in Redis, or anything that speaks its protocol such as ElastiCache or Valkey. Records are held
+ * under the key prefix followed by the NHS number and left to Redis to expire.
+ * <p>
+ * Commands time out quickly and are rejected rather than queued while disconnected, as the cache would sooner go to
+ * PDS than keep a request waiting. The first connection is made on first use, and not tried again for a few seconds
+ * after it fails; once connected the client reconnects by itself.
+ */
+@Slf4j
+public class RedisSharedCacheTier implements SharedCacheTier, DisposableBean {
+
+    static final Duration CONNECT_RETRY = Duration.ofSeconds(5);
+
+    private final RedisClient client;
+    private final String keyPrefix;
+    private volatile RedisCommands<String, byte[]> commands;
+    private StatefulRedisConnection<String, byte[]> connection;
+    private long nextConnectAttemptNanos;
+
+    public RedisSharedCacheTier(String host, int port, boolean ssl, Duration timeout, String keyPrefix) {
+        this.client = redisClient(host, port, ssl, timeout);
+        this.keyPrefix = keyPrefix;
+        this.nextConnectAttemptNanos = System.nanoTime();
+    }
+
+    RedisSharedCacheTier(RedisCommands<String, byte[]> commands, String keyPrefix) {
+        this.client = null;
+        this.commands = commands;
+        this.keyPrefix = keyPrefix;
+    }
+
+    @Override
+    public String name() {
+        return "redis";
+    }
+
+    @Override
+    public Optional<byte[]> get(String nhsNumber) {
+        return Optional.ofNullable(commands().get(keyPrefix + nhsNumber));
+    }
+
+    @Override
+    public void put(String nhsNumber, byte[] record, Duration timeToLive) {
+        commands().psetex(keyPrefix + nhsNumber, timeToLive.toMillis(), record);
+    }
+
+    @Override
+    public void evict(String nhsNumber) {
+        commands().del(keyPrefix + nhsNumber);
+    }
+
+    @Override
+    public void destroy() {
+        if (client == null) {
+            return;
+        }
+        synchronized (this) {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        client.shutdown();
+    }
+
+    // shared with RedisInvalidationTransport, which talks to the same server and should give up on it as quickly
+    static RedisClient redisClient(String host, int port, boolean ssl, Duration timeout) {
+        var client = RedisClient.create(RedisURI.builder()
+                .withHost(host)
+                .withPort(port)
+                .withSsl(ssl)
+                .withTimeout(timeout)
+                .build());
+        client.setOptions(ClientOptions.builder()
+                .socketOptions(SocketOptions.builder().connectTimeout(timeout).build())
+                .timeoutOptions(TimeoutOptions.enabled(timeout))
+                .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS)
+                .build());
+        return client;
+    }
+
+    private RedisCommands<String, byte[]> commands() {
+        var connected = commands;
+        if (connected != null) {
+            return connected;
+        }
+        synchronized (this) {
+            if (commands == null) {
+                if (System.nanoTime() - nextConnectAttemptNanos < 0) {
+                    throw new RedisConnectionException("Not connected to the shared cache, waiting to try again");
+                }
+                try {
+                    connection = client.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+                    commands = connection.sync();
+                    log.info("Connected to the shared cache");
+                }
+                catch (RuntimeException e) {
+                    nextConnectAttemptNanos = System.nanoTime() + CONNECT_RETRY.toNanos();
+                    throw e;
+                }
+            }
+            return commands;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.nhs.prm.deductions.pdsadaptor.client.AdaptiveRateLimiter;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes cached patient statuses that are still being read as they near expiry, in the background, so that hot
+ * NHS numbers are not left to expire and make the next caller wait on PDS.
+ * <p>
+ * An entry is due once it is into the last refresh ratio of its ttl. Each NHS number is refreshed by at most one
+ * worker at a time, and refreshes are skipped rather than queued without bound when the pool is busy, or when the
+ * PDS FHIR rate limiter has no spare capacity and the refresh would take a slot from a caller.
+ */
+@Slf4j
+@Component
+public class RefreshAhead implements DisposableBean {
+
+    private final boolean enabled;
+    private final double refreshRatio;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final Clock clock;
+    private final ExecutorService executor;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Counter scheduled;
+    private final Counter skippedRateLimited;
+    private final Counter skippedBusy;
+    private final Counter refreshed;
+    private final Counter failed;
+    private final Timer refreshTime;
+
+    @Autowired
+    public RefreshAhead(@Value("${pds.cache.refresh.ahead.enabled}") boolean enabled,
+                        @Value("${pds.cache.refresh.ahead.ratio}") double refreshRatio,
+                        @Value("${pds.cache.refresh.ahead.threads}") int threads,
+                        @Value("${pds.cache.refresh.ahead.queue.size}") int queueSize,
+                        AdaptiveRateLimiter rateLimiter,
+                        MeterRegistry meterRegistry) {
+        this(enabled, refreshRatio, rateLimiter, Clock.systemUTC(), enabled ? refreshExecutor(threads, queueSize) : null, meterRegistry);
+    }
+
+    RefreshAhead(boolean enabled, double refreshRatio, AdaptiveRateLimiter rateLimiter, Clock clock, ExecutorService executor,
+                 MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.refreshRatio = refreshRatio;
+        this.rateLimiter = rateLimiter;
+        this.clock = clock;
+        this.executor = executor;
+
+        scheduled = Counter.builder("pds.cache.refresh.ahead.scheduled")
+                .description("Cached patient statuses near expiry queued for a background refresh")
+                .register(meterRegistry);
+        skippedRateLimited = skipped(meterRegistry, "rate-limited");
+        skippedBusy = skipped(meterRegistry, "busy");
+        refreshed = completed(meterRegistry, "refreshed");
+        failed = completed(meterRegistry, "failed");
+        refreshTime = Timer.builder("pds.cache.refresh.ahead.duration")
+                .description("Time taken by background refreshes of cached patient statuses")
+                .register(meterRegistry);
+        Gauge.builder("pds.cache.refresh.ahead.in.flight", inFlight, Set::size)
+                .description("Background refreshes of cached patient statuses queued or running")
+                .register(meterRegistry);
+    }
+
+    public void refreshIfDue(String nhsNumber, CachedPatientStatus entry, Runnable refresh) {
+        if (!enabled || !isDue(entry) || inFlight.contains(nhsNumber)) {
+            return;
+        }
+        if (!rateLimiter.hasSpareCapacity()) {
+            skippedRateLimited.increment();
+            return;
+        }
+        if (!inFlight.add(nhsNumber)) {
+            return;
+        }
+        try {
+            executor.execute(() -> refresh(nhsNumber, refresh));
+            scheduled.increment();
+        }
+        catch (RejectedExecutionException e) {
+            inFlight.remove(nhsNumber);
+            skippedBusy.increment();
+        }
+    }
+
+    boolean isDue(CachedPatientStatus entry) {
+        var ttl = Duration.between(entry.getFetchedAt(), entry.getExpiresAt());
+        var refreshFrom = entry.getExpiresAt().minusMillis((long) (ttl.toMillis() * refreshRatio));
+        return !clock.instant().isBefore(refreshFrom);
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void refresh(String nhsNumber, Runnable refresh) {
+        var sample = Timer.start();
+        try {
+            refresh.run();
+            refreshed.increment();
+        }
+        catch (RuntimeException e) {
+            failed.increment();
+            log.warn("Background refresh of cached patient status failed: " + e.getMessage());
+        }
+        finally {
+            sample.stop(refreshTime);
+            inFlight.remove(nhsNumber);
+        }
+    }
+
+    private static Counter skipped(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("pds.cache.refresh.ahead.skipped")
+                .description("Background refreshes not made because PDS FHIR had no spare rate or the refresh pool was busy")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private static Counter completed(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("pds.cache.refresh.ahead.completed")
+                .description("Background refreshes of cached patient statuses, by whether they succeeded")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static ExecutorService refreshExecutor(int threads, int queueSize) {
+        var threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueSize),
+                runnable -> {
+                    var thread = new Thread(runnable, "pds-cache-refresh-ahead-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
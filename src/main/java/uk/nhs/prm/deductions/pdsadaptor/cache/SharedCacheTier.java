@@ -0,0 +1,27 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * A cache of patient statuses shared by every pds-adaptor task, consulted by {@link PatientStatusCache} when its own
+ * entries miss, so that a status fetched by one task is not fetched again by the others.
+ * <p>
+ * Values are patient status records in the {@link PatientStatusRecordFormat}; a tier only has to store them by NHS
+ * number and drop them once their time to live is up. Failures are thrown back to the cache, which carries on
+ * without the shared tier.
+ */
+public interface SharedCacheTier {
+
+    String name();
+
+    Optional<byte[]> get(String nhsNumber);
+
+    void put(String nhsNumber, byte[] record, Duration timeToLive);
+
+    void evict(String nhsNumber);
+
+    static SharedCacheTier none() {
+        return NoSharedCacheTier.INSTANCE;
+    }
+}
@@ -0,0 +1,196 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.ClientRateLimitExceededException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.TooManyRequestsException;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.Sleeper;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Token bucket in front of PDS FHIR whose rate follows PDS's own limit: it is cut by the decrease factor when PDS
+ * answers 429 and grows by the additive increase for each successful call, up to the maximum rate.
+ * <p>
+ * Callers that find the bucket empty wait for their turn, unless that would take longer than the max wait, in which
+ * case they are turned away with a 503 rather than sending a request PDS would reject anyway.
+ */
+@Slf4j
+@Component
+public class AdaptiveRateLimiter {
+
+    // 429s for requests sent before a decrease took effect should not cut the rate again
+    private static final long MIN_NANOS_BETWEEN_DECREASES = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final double maxRate;
+    private final double minRate;
+    private final double burst;
+    private final double additiveIncrease;
+    private final double decreaseFactor;
+    private final long maxWaitNanos;
+    private final LongSupplier nanoClock;
+    private final Sleeper sleeper;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Timer throttledTime;
+    private final Counter rejected;
+
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long lastDecreaseNanos;
+
+    @Autowired
+    public AdaptiveRateLimiter(@Value("${pds.fhir.rate.limit.enabled}") boolean enabled,
+                               @Value("${pds.fhir.rate.limit.max.per.second}") double maxRate,
+                               @Value("${pds.fhir.rate.limit.min.per.second}") double minRate,
+                               @Value("${pds.fhir.rate.limit.burst}") int burst,
+                               @Value("${pds.fhir.rate.limit.additive.increase}") double additiveIncrease,
+                               @Value("${pds.fhir.rate.limit.decrease.factor}") double decreaseFactor,
+                               @Value("${pds.fhir.rate.limit.max.wait.ms}") long maxWaitMillis,
+                               Sleeper sleeper,
+                               MeterRegistry meterRegistry) {
+        this(enabled, maxRate, minRate, burst, additiveIncrease, decreaseFactor, maxWaitMillis, System::nanoTime, sleeper, meterRegistry);
+    }
+
+    AdaptiveRateLimiter(boolean enabled, double maxRate, double minRate, int burst, double additiveIncrease, double decreaseFactor,
+                        long maxWaitMillis, LongSupplier nanoClock, Sleeper sleeper, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.maxRate = maxRate;
+        this.minRate = minRate;
+        this.burst = burst;
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.nanoClock = nanoClock;
+        this.sleeper = sleeper;
+
+        this.rate = maxRate;
+        this.tokens = burst;
+        this.lastRefillNanos = nanoClock.getAsLong();
+        this.lastDecreaseNanos = lastRefillNanos - MIN_NANOS_BETWEEN_DECREASES;
+
+        Gauge.builder("pds.fhir.rate.limit.permitted", this, AdaptiveRateLimiter::currentRate)
+                .description("Requests per second currently permitted to PDS FHIR")
+                .register(meterRegistry);
+        Gauge.builder("pds.fhir.rate.limit.queue.depth", waiting, AtomicInteger::get)
+                .description("Requests waiting for the PDS FHIR rate limit")
+                .register(meterRegistry);
+        throttledTime = Timer.builder("pds.fhir.rate.limit.throttled")
+                .description("Time requests spent waiting for the PDS FHIR rate limit")
+                .register(meterRegistry);
+        rejected = Counter.builder("pds.fhir.rate.limit.rejected")
+                .description("Requests turned away because the PDS FHIR rate limit would have kept them waiting too long")
+                .register(meterRegistry);
+    }
+
+    public <T> T execute(Supplier<T> request) {
+        if (!enabled) {
+            return request.get();
+        }
+        acquire();
+        try {
+            var result = request.get();
+            onSuccess();
+            return result;
+        }
+        catch (TooManyRequestsException e) {
+            onThrottled();
+            throw e;
+        }
+    }
+
+    // takes a token only if one is free now, for extra requests that should be dropped rather than wait for one
+    public synchronized boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    // whether a request sent now would go straight through, so optional background requests can give way to callers
+    public synchronized boolean hasSpareCapacity() {
+        if (!enabled) {
+            return true;
+        }
+        refill();
+        return tokens >= 1;
+    }
+
+    synchronized double currentRate() {
+        return rate;
+    }
+
+    private void acquire() {
+        var waitNanos = reserve();
+        if (waitNanos == 0) {
+            return;
+        }
+        waiting.incrementAndGet();
+        try {
+            sleeper.sleep(Duration.ofNanos(waitNanos));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientRateLimitExceededException("Interrupted waiting for PDS FHIR rate limit");
+        }
+        finally {
+            waiting.decrementAndGet();
+            throttledTime.record(waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // takes a token now, or the next one not yet taken by an earlier waiter, and says how long until it is due
+    private synchronized long reserve() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        var waitNanos = (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+        if (waitNanos > maxWaitNanos) {
+            rejected.increment();
+            throw new ClientRateLimitExceededException("Not calling PDS FHIR as it would mean waiting more than "
+                    + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + "ms for the rate limit of " + String.format("%.1f", rate) + "/s");
+        }
+        tokens -= 1;
+        return waitNanos;
+    }
+
+    private synchronized void onSuccess() {
+        refill();
+        rate = Math.min(maxRate, rate + additiveIncrease);
+    }
+
+    private synchronized void onThrottled() {
+        var now = nanoClock.getAsLong();
+        if (now - lastDecreaseNanos < MIN_NANOS_BETWEEN_DECREASES) {
+            return;
+        }
+        refill();
+        rate = Math.max(minRate, rate * decreaseFactor);
+        lastDecreaseNanos = now;
+        log.warn("PDS FHIR rate limited our request, reducing permitted rate to " + String.format("%.1f", rate) + "/s");
+    }
+
+    private void refill() {
+        var now = nanoClock.getAsLong();
+        tokens = Math.min(burst, tokens + rate * (now - lastRefillNanos) / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
@@ -1,8 +1,8 @@
 package uk.nhs.prm.deductions.pdsadaptor.client;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -12,23 +12,28 @@ import uk.nhs.prm.deductions.pdsadaptor.client.auth.AuthService;
 
 import static org.springframework.http.HttpHeaders.AUTHORIZATION;
 
-@RequiredArgsConstructor
 @Component
 @Slf4j
 public class AuthenticatingHttpClient implements HttpClient {
 
-    private final SimpleHttpClient httpClient;
+    private final HttpClient httpClient;
     private final AuthService authService;
 
+    public AuthenticatingHttpClient(@Qualifier("pdsFhirTransport") HttpClient httpClient, AuthService authService) {
+        this.httpClient = httpClient;
+        this.authService = authService;
+    }
+
     @Override
     public <T> ResponseEntity<T> get(String url, HttpHeaders headers, Class<T> responseType) {
+        var accessToken = authService.getAccessToken();
         try {
-            return httpClient.get(url, withCurrentAuthHeader(headers), responseType);
+            return httpClient.get(url, withAuthHeader(headers, accessToken), responseType);
         }
         catch (HttpStatusCodeException e) {
             if (isUnauthorized(e)) {
                 log.info("GET request unauthorized. Requesting new access token");
-                return httpClient.get(url, withRefreshedAuthHeader(headers), responseType);
+                return httpClient.get(url, withRefreshedAuthHeader(headers, accessToken), responseType);
             }
             throw e;
         }
@@ -36,13 +41,14 @@ public class AuthenticatingHttpClient implements HttpClient {
 
     @Override
     public <T> ResponseEntity<T> patch(String url, HttpHeaders headers, Object patchPayload, Class<T> responseType) {
+        var accessToken = authService.getAccessToken();
         try {
-            return httpClient.patch(url, withCurrentAuthHeader(headers), patchPayload, responseType);
+            return httpClient.patch(url, withAuthHeader(headers, accessToken), patchPayload, responseType);
         }
         catch (HttpStatusCodeException e) {
             if (isUnauthorized(e)) {
                 log.info("PATCH request unauthorized. Requesting new access token");
-                return httpClient.patch(url, withRefreshedAuthHeader(headers), patchPayload, responseType);
+                return httpClient.patch(url, withRefreshedAuthHeader(headers, accessToken), patchPayload, responseType);
             }
             throw e;
         }
@@ -53,13 +59,8 @@ public class AuthenticatingHttpClient implements HttpClient {
     }
 
     @NotNull
-    private HttpHeaders withRefreshedAuthHeader(HttpHeaders headers) {
-        return withAuthHeader(headers, authService.getNewAccessToken());
-    }
-
-    @NotNull
-    private HttpHeaders withCurrentAuthHeader(HttpHeaders headers) {
-        return withAuthHeader(headers, authService.getAccessToken());
+    private HttpHeaders withRefreshedAuthHeader(HttpHeaders headers, String rejectedAccessToken) {
+        return withAuthHeader(headers, authService.getNewAccessToken(rejectedAccessToken));
     }
 
     private HttpHeaders withAuthHeader(HttpHeaders headers, String accessToken) {
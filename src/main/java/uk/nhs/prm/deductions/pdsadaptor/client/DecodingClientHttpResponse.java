@@ -0,0 +1,178 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Inflates a gzip or deflate encoded response body as it is read and reports the encoded and decoded
+ * sizes once the response is closed. Responses with any other encoding are passed through, but still counted.
+ */
+class DecodingClientHttpResponse implements ClientHttpResponse {
+
+    interface SizeListener {
+        void onClose(String encoding, long wireBytes, long decodedBytes);
+    }
+
+    private final ClientHttpResponse delegate;
+    private final SizeListener sizeListener;
+    private final String encoding;
+    private HttpHeaders headers;
+    private CountingInputStream wireBody;
+    private CountingInputStream decodedBody;
+
+    DecodingClientHttpResponse(ClientHttpResponse delegate, SizeListener sizeListener) {
+        this.delegate = delegate;
+        this.sizeListener = sizeListener;
+        this.encoding = contentEncoding(delegate.getHeaders());
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        if (headers == null) {
+            headers = new HttpHeaders();
+            headers.putAll(delegate.getHeaders());
+            if (isDecoded()) {
+                // the body handed on is no longer encoded, nor the length sent
+                headers.remove(HttpHeaders.CONTENT_ENCODING);
+                headers.remove(HttpHeaders.CONTENT_LENGTH);
+            }
+        }
+        return headers;
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+        if (decodedBody == null) {
+            wireBody = new CountingInputStream(delegate.getBody());
+            decodedBody = new CountingInputStream(isDecoded() ? decoder(wireBody) : wireBody) {
+                @Override
+                public void close() throws IOException {
+                    // a streaming reader stops at the end of the resource and closes the body, leaving any
+                    // gzip trailer unread, so read it here to verify it and count the full size
+                    try {
+                        transferTo(OutputStream.nullOutputStream());
+                    }
+                    finally {
+                        super.close();
+                    }
+                }
+            };
+        }
+        return decodedBody;
+    }
+
+    @Override
+    public HttpStatus getStatusCode() throws IOException {
+        return delegate.getStatusCode();
+    }
+
+    @Override
+    public int getRawStatusCode() throws IOException {
+        return delegate.getRawStatusCode();
+    }
+
+    @Override
+    public String getStatusText() throws IOException {
+        return delegate.getStatusText();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (decodedBody != null && !decodedBody.closed) {
+                decodedBody.close();
+            }
+        }
+        catch (IOException ignored) {
+            // the response has already been read as far as it was needed
+        }
+        finally {
+            if (decodedBody != null) {
+                sizeListener.onClose(encoding, wireBody.count, decodedBody.count);
+            }
+            delegate.close();
+        }
+    }
+
+    private boolean isDecoded() {
+        return "gzip".equals(encoding) || "x-gzip".equals(encoding) || "deflate".equals(encoding);
+    }
+
+    private InputStream decoder(InputStream wire) throws IOException {
+        var pushback = new PushbackInputStream(wire, 2);
+        var header = new byte[2];
+        var headerLength = pushback.readNBytes(header, 0, 2);
+        if (headerLength == 0) {
+            return pushback;
+        }
+        pushback.unread(header, 0, headerLength);
+        if ("deflate".equals(encoding)) {
+            // servers disagree on whether deflate means zlib wrapped or raw deflate data
+            return new InflaterInputStream(pushback, new Inflater(!isZlibHeader(header, headerLength)));
+        }
+        return new GZIPInputStream(pushback);
+    }
+
+    private static boolean isZlibHeader(byte[] header, int length) {
+        if (length < 2) {
+            return false;
+        }
+        var compressionMethodAndFlags = ((header[0] & 0xff) << 8) | (header[1] & 0xff);
+        return (header[0] & 0x0f) == 8 && compressionMethodAndFlags % 31 == 0;
+    }
+
+    private static String contentEncoding(HttpHeaders headers) {
+        var encoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+        return encoding == null ? "identity" : encoding.trim().toLowerCase();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+        private boolean closed;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            var read = super.read();
+            if (read != -1) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            var read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            var skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Tracks concurrent exchanges per authority on the JDK client. Over HTTP/2 the JDK client multiplexes every
+ * request to an authority onto a single connection, so these are the stream counts per connection.
+ */
+@Component
+public class HttpStreamMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, AtomicInteger> activeStreams = new ConcurrentHashMap<>();
+
+    public HttpStreamMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> track(URI uri, Supplier<CompletableFuture<HttpResponse<T>>> exchange) {
+        var authority = uri.getAuthority();
+        var active = activeStreamsFor(authority);
+
+        var concurrentStreams = active.incrementAndGet();
+        DistributionSummary.builder("pds.http.connection.streams")
+                .description("Concurrent streams on the connection when a request starts")
+                .tag("authority", authority)
+                .register(meterRegistry)
+                .record(concurrentStreams);
+
+        try {
+            return exchange.get().whenComplete((response, error) -> {
+                active.decrementAndGet();
+                if (response != null) {
+                    meterRegistry.counter("pds.http.responses", "authority", authority, "version", response.version().name()).increment();
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            active.decrementAndGet();
+            throw e;
+        }
+    }
+
+    public int activeStreams(String authority) {
+        return activeStreamsFor(authority).get();
+    }
+
+    private AtomicInteger activeStreamsFor(String authority) {
+        return activeStreams.computeIfAbsent(authority, key -> {
+            var active = new AtomicInteger();
+            Gauge.builder("pds.http.connection.streams.active", active, AtomicInteger::get)
+                    .description("Streams currently in flight on the connection")
+                    .tag("authority", key)
+                    .register(meterRegistry);
+            return active;
+        });
+    }
+}
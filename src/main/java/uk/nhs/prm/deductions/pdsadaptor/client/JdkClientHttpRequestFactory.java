@@ -0,0 +1,99 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lets RestTemplate callers share the JDK client and its HTTP/2 connections.
+ */
+public class JdkClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+    private static final Set<String> HEADERS_SET_BY_JDK_CLIENT = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final java.net.http.HttpClient httpClient;
+    private final HttpStreamMetrics streamMetrics;
+    private final Duration requestTimeout;
+
+    public JdkClientHttpRequestFactory(java.net.http.HttpClient httpClient, HttpStreamMetrics streamMetrics, Duration requestTimeout) {
+        this.httpClient = httpClient;
+        this.streamMetrics = streamMetrics;
+        this.requestTimeout = requestTimeout;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new JdkClientHttpRequest(uri, httpMethod);
+    }
+
+    static void copyHeaders(HttpHeaders headers, HttpRequest.Builder request) {
+        headers.forEach((name, values) -> {
+            if (!HEADERS_SET_BY_JDK_CLIENT.contains(name.toLowerCase())) {
+                values.forEach(value -> request.header(name, value));
+            }
+        });
+    }
+
+    private class JdkClientHttpRequest extends AbstractClientHttpRequest {
+        private final URI uri;
+        private final HttpMethod method;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+
+        JdkClientHttpRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public String getMethodValue() {
+            return method.name();
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            var request = HttpRequest.newBuilder(uri)
+                    .timeout(requestTimeout)
+                    .method(method.name(), body.size() == 0 ? BodyPublishers.noBody() : BodyPublishers.ofByteArray(body.toByteArray()));
+            copyHeaders(headers, request);
+
+            try {
+                var response = streamMetrics.track(uri, () -> httpClient.sendAsync(request.build(), BodyHandlers.ofByteArray())).get();
+                return new JdkClientHttpResponse(response);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for response from " + uri.getAuthority(), e);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+}
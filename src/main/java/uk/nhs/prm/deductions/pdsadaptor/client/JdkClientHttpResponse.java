@@ -0,0 +1,73 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+
+/**
+ * Adapts a completed JDK {@link HttpResponse} to Spring's {@link ClientHttpResponse} so that the
+ * same message converters and error handling used by RestTemplate can be applied to it.
+ */
+public class JdkClientHttpResponse implements ClientHttpResponse {
+
+    private final int statusCode;
+    private final HttpHeaders headers;
+    private final InputStream body;
+
+    public JdkClientHttpResponse(HttpResponse<byte[]> response) {
+        this(response.statusCode(), toHttpHeaders(response.headers()), new ByteArrayInputStream(response.body()));
+    }
+
+    public JdkClientHttpResponse(int statusCode, HttpHeaders headers, InputStream body) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    @Override
+    public HttpStatus getStatusCode() {
+        return HttpStatus.valueOf(statusCode);
+    }
+
+    @Override
+    public int getRawStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String getStatusText() {
+        var status = HttpStatus.resolve(statusCode);
+        return status == null ? "" : status.getReasonPhrase();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public InputStream getBody() {
+        return body;
+    }
+
+    @Override
+    public void close() {
+        try {
+            body.close();
+        }
+        catch (IOException e) {
+            // nothing more to release
+        }
+    }
+
+    public static HttpHeaders toHttpHeaders(java.net.http.HttpHeaders jdkHeaders) {
+        var headers = new HttpHeaders();
+        jdkHeaders.map().forEach(headers::addAll);
+        return headers;
+    }
+}
@@ -0,0 +1,160 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.HttpMessageConverterExtractor;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseErrorHandler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+@Slf4j
+public class NonBlockingHttpClient implements HttpClient {
+
+    private final java.net.http.HttpClient httpClient;
+    private final List<HttpMessageConverter<?>> messageConverters;
+    private final ObjectMapper objectMapper;
+    private final HttpStreamMetrics streamMetrics;
+    private final ResponseCompression responseCompression;
+    private final Duration requestTimeout;
+    private final ResponseErrorHandler errorHandler = new DefaultResponseErrorHandler();
+
+    public NonBlockingHttpClient(java.net.http.HttpClient httpClient,
+                                 List<HttpMessageConverter<?>> messageConverters,
+                                 ObjectMapper objectMapper,
+                                 HttpStreamMetrics streamMetrics,
+                                 ResponseCompression responseCompression,
+                                 Duration requestTimeout) {
+        this.httpClient = httpClient;
+        this.messageConverters = messageConverters;
+        this.objectMapper = objectMapper;
+        this.streamMetrics = streamMetrics;
+        this.responseCompression = responseCompression;
+        this.requestTimeout = requestTimeout;
+    }
+
+    @Override
+    public <T> ResponseEntity<T> get(String url, HttpHeaders headers, Class<T> responseType) {
+        return await(getAsync(url, headers, responseType));
+    }
+
+    @Override
+    public <T> ResponseEntity<T> patch(String url, HttpHeaders headers, Object patchPayload, Class<T> responseType) {
+        return await(patchAsync(url, headers, patchPayload, responseType));
+    }
+
+    public <T> CompletableFuture<ResponseEntity<T>> getAsync(String url, HttpHeaders headers, Class<T> responseType) {
+        return exchangeAsync(HttpMethod.GET, url, headers, BodyPublishers.noBody(), responseType);
+    }
+
+    public <T> CompletableFuture<ResponseEntity<T>> patchAsync(String url, HttpHeaders headers, Object patchPayload, Class<T> responseType) {
+        return exchangeAsync(HttpMethod.PATCH, url, headers, BodyPublishers.ofByteArray(serialize(patchPayload)), responseType);
+    }
+
+    private <T> CompletableFuture<ResponseEntity<T>> exchangeAsync(HttpMethod method, String url, HttpHeaders headers,
+                                                                   BodyPublisher body, Class<T> responseType) {
+        var request = createRequest(method, url, headers, body);
+        return streamMetrics.track(request.uri(), () -> httpClient.sendAsync(request, BodyHandlers.ofByteArray()))
+                .handle((response, error) -> {
+                    if (error != null) {
+                        throw networkFailure(method, url, unwrap(error));
+                    }
+                    return toResponseEntity(method, url, response, responseType);
+                });
+    }
+
+    private HttpRequest createRequest(HttpMethod method, String url, HttpHeaders headers, BodyPublisher body) {
+        var uri = URI.create(url);
+        var request = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .method(method.name(), body);
+        JdkClientHttpRequestFactory.copyHeaders(headers, request);
+        if (responseCompression.isEnabledFor(uri)) {
+            request.setHeader(HttpHeaders.ACCEPT_ENCODING, ResponseCompression.ACCEPTED_ENCODINGS);
+        }
+        return request.build();
+    }
+
+    private <T> ResponseEntity<T> toResponseEntity(HttpMethod method, String url, HttpResponse<byte[]> response, Class<T> responseType) {
+        var clientResponse = responseCompression.decode(response.uri(), new JdkClientHttpResponse(response));
+        try {
+            if (errorHandler.hasError(clientResponse)) {
+                errorHandler.handleError(clientResponse);
+            }
+            T body = new HttpMessageConverterExtractor<>(responseType, messageConverters).extractData(clientResponse);
+            return ResponseEntity.status(clientResponse.getRawStatusCode()).headers(clientResponse.getHeaders()).body(body);
+        }
+        catch (IOException e) {
+            throw networkFailure(method, url, e);
+        }
+        finally {
+            clientResponse.close();
+        }
+    }
+
+    private byte[] serialize(Object payload) {
+        if (payload instanceof String) {
+            return ((String) payload).getBytes(UTF_8);
+        }
+        try {
+            return objectMapper.writeValueAsBytes(payload);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unable to serialize request payload", e);
+        }
+    }
+
+    private static <T> ResponseEntity<T> await(CompletableFuture<ResponseEntity<T>> responseFuture) {
+        try {
+            return responseFuture.get();
+        }
+        catch (InterruptedException e) {
+            // lets a caller that no longer needs the response, such as the loser of a hedged request, give up on it
+            responseFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted waiting for response", new InterruptedIOException(e.getMessage()));
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+    private static RuntimeException networkFailure(HttpMethod method, String url, Throwable error) {
+        if (error instanceof RuntimeException) {
+            return (RuntimeException) error;
+        }
+        log.warn("I/O error on non-blocking " + method + " request");
+        var cause = error instanceof IOException ? (IOException) error : new IOException(error);
+        return new ResourceAccessException("I/O error on " + method + " request for \"" + url + "\": " + error.getMessage(), cause);
+    }
+}
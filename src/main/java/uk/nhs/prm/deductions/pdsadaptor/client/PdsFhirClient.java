@@ -1,10 +1,18 @@
 package uk.nhs.prm.deductions.pdsadaptor.client;
 
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.BulkheadRejectedException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.CircuitBreakerOpenException;
 import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.PdsFhirPatchSpecifiesNoChangesException;
 import uk.nhs.prm.deductions.pdsadaptor.model.UpdateManagingOrganisationRequest;
 import uk.nhs.prm.deductions.pdsadaptor.model.pdspatchrequest.PdsPatch;
@@ -15,6 +23,7 @@ import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Supplier;
 
@@ -27,24 +36,39 @@ public class PdsFhirClient {
     private final AuthenticatingHttpClient httpClient;
     private final PdsFhirPatchRejectionInterpreter patchRejectionInterpreter;
     private final PdsFhirExceptionHandler exceptionHandler;
+    private final RequestHedger requestHedger;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead retrievalBulkhead;
+    private final Bulkhead updateBulkhead;
     private final String pdsFhirEndpoint;
 
     public PdsFhirClient(AuthenticatingHttpClient httpClient,
                          PdsFhirPatchRejectionInterpreter patchRejectionInterpreter,
                          PdsFhirExceptionHandler exceptionHandler,
+                         RequestHedger requestHedger,
+                         AdaptiveRateLimiter rateLimiter,
+                         @Qualifier("pdsFhirCircuitBreaker") CircuitBreaker circuitBreaker,
+                         @Qualifier("pdsFhirRetrievalBulkhead") Bulkhead retrievalBulkhead,
+                         @Qualifier("pdsFhirUpdateBulkhead") Bulkhead updateBulkhead,
                          @Value("${pdsFhirEndpoint}") String pdsFhirEndpoint) {
 
         this.httpClient = httpClient;
         this.patchRejectionInterpreter = patchRejectionInterpreter;
         this.exceptionHandler = exceptionHandler;
+        this.requestHedger = requestHedger;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.retrievalBulkhead = retrievalBulkhead;
+        this.updateBulkhead = updateBulkhead;
         this.pdsFhirEndpoint = pdsFhirEndpoint;
     }
 
     public PdsFhirPatient requestPdsRecordByNhsNumber(String nhsNumber) {
         log.info("Making GET request for pds record from pds fhir");
-        return timeRequest("retrieval", () -> {
+        return timeRequest("retrieval", retrievalBulkhead, () -> {
             try {
-                var response = httpClient.get(patientUrl(nhsNumber), createRequestHeaders(UUID.randomUUID(), APPLICATION_JSON.toString()), PdsFhirPatient.class);
+                var response = requestPdsRecord(nhsNumber, new HttpHeaders());
                 log.info("Successfully requested pds record");
                 return addEtagToResponseObject(response);
             }
@@ -54,13 +78,34 @@ public class PdsFhirClient {
         });
     }
 
+    public Optional<PdsFhirPatient> requestPdsRecordByNhsNumberIfChanged(String nhsNumber, String recordETag) {
+        log.info("Making conditional GET request to revalidate pds record from pds fhir");
+        var conditionalHeaders = new HttpHeaders();
+        conditionalHeaders.setIfNoneMatch(recordETag);
+        var changedRecord = timeRequest("revalidation", retrievalBulkhead, () -> {
+            try {
+                var response = requestPdsRecord(nhsNumber, conditionalHeaders);
+                if (response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                    log.info("Pds record not modified since it was cached");
+                    return null;
+                }
+                log.info("Pds record has changed since it was cached");
+                return addEtagToResponseObject(response);
+            }
+            catch (RuntimeException exception) {
+                throw exceptionHandler.handleCommonExceptions("requesting", exception);
+            }
+        });
+        return Optional.ofNullable(changedRecord);
+    }
+
     public PdsFhirPatient updateManagingOrganisation(String nhsNumber, UpdateManagingOrganisationRequest updateRequest, UUID requestId) {
         log.info("Making PATCH request to update managing organisation via pds fhir");
 
         var patchRequest = createPatchRequest(updateRequest.getPreviousGp());
         var requestHeaders = createUpdateHeaders(updateRequest.getRecordETag(), requestId);
 
-        return timeRequest("update", () -> {
+        return timeRequest("update", updateBulkhead, () -> {
             try {
                 var response = httpClient.patch(patientUrl(nhsNumber), requestHeaders, patchRequest, PdsFhirPatient.class);
                 log.info("Successfully updated managing organisation on pds record.");
@@ -76,6 +121,17 @@ public class PdsFhirClient {
         });
     }
 
+    private ResponseEntity<PdsFhirPatient> requestPdsRecord(String nhsNumber, HttpHeaders extraHeaders) {
+        var requestId = UUID.randomUUID();
+        // a hedged request is identical to the original, but needs its own headers as they get the auth header added.
+        // The original has taken its rate limit token already, and a hedge is only sent if it can take another now
+        return requestHedger.execute(() -> {
+            var headers = createRequestHeaders(requestId, APPLICATION_JSON.toString());
+            headers.addAll(extraHeaders);
+            return httpClient.get(patientUrl(nhsNumber), headers, PdsFhirPatient.class);
+        }, rateLimiter::tryAcquire);
+    }
+
     private HttpHeaders createUpdateHeaders(String recordETag, UUID requestId) {
         HttpHeaders headers = createRequestHeaders(requestId, "application/json-patch+json");
         headers.setIfMatch(recordETag);
@@ -107,10 +163,17 @@ public class PdsFhirClient {
         return pdsFhirEndpoint + "Patient/" + nhsNumber;
     }
 
-    private PdsFhirPatient timeRequest(final String description, final Supplier<PdsFhirPatient> pdsRequestProcess) {
+    private PdsFhirPatient timeRequest(final String description, final Bulkhead bulkhead, final Supplier<PdsFhirPatient> pdsRequestProcess) {
         var startTime = Instant.now();
         try {
-            return pdsRequestProcess.get();
+            // waits for the rate limit before taking a compartment permit, so a queued request does not hold a connection's worth of it
+            return rateLimiter.execute(() -> bulkhead.executeSupplier(() -> circuitBreaker.executeSupplier(pdsRequestProcess)));
+        }
+        catch (BulkheadFullException e) {
+            throw new BulkheadRejectedException(description, e);
+        }
+        catch (CallNotPermittedException e) {
+            throw new CircuitBreakerOpenException(e);
         }
         finally {
             log.info("PDS-FHIR " + description + " call took " + Duration.between(startTime, Instant.now()).toMillis() + "ms");
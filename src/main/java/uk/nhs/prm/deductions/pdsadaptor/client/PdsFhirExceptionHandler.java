@@ -1,6 +1,7 @@
 package uk.nhs.prm.deductions.pdsadaptor.client;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.*;
@@ -28,6 +29,11 @@ public class PdsFhirExceptionHandler {
             throw new RetryableRequestException((HttpServerErrorException) exception);
         }
 
+        if (exception instanceof ResourceAccessException && exception.getCause() instanceof ConnectionPoolTimeoutException) {
+            // not worth retrying as it would only queue for the same exhausted pool again
+            throw new ConnectionPoolExhaustedException(exception);
+        }
+
         if (exception instanceof ResourceAccessException) {
             throw new RetryableRequestException((ResourceAccessException) exception);
         }
@@ -46,7 +52,10 @@ public class PdsFhirExceptionHandler {
             return new NotFoundException("PDS FHIR Request failed - Patient not found 404", exception);
         }
         if (exception.getStatusCode().equals(HttpStatus.TOO_MANY_REQUESTS)) {
-            return new TooManyRequestsException();
+            return new TooManyRequestsException(exception);
+        }
+        if (exception.getStatusCode().equals(HttpStatus.PRECONDITION_FAILED)) {
+            return new PreconditionFailedException(exception);
         }
         return new BadRequestException(exception);
     }
@@ -0,0 +1,53 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
+
+import java.io.IOException;
+
+/**
+ * Reads PDS FHIR Patient responses with {@link PdsFhirPatientReader}. Registered ahead of the general
+ * Jackson converter so that it takes precedence for {@link PdsFhirPatient} and nothing else.
+ */
+public class PdsFhirPatientHttpMessageConverter extends AbstractHttpMessageConverter<PdsFhirPatient> {
+
+    private final PdsFhirPatientReader reader;
+
+    public PdsFhirPatientHttpMessageConverter() {
+        this(new PdsFhirPatientReader());
+    }
+
+    public PdsFhirPatientHttpMessageConverter(PdsFhirPatientReader reader) {
+        super(MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+        this.reader = reader;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return PdsFhirPatient.class == clazz;
+    }
+
+    @Override
+    protected boolean canWrite(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected PdsFhirPatient readInternal(Class<? extends PdsFhirPatient> clazz, HttpInputMessage inputMessage) throws IOException {
+        try {
+            return reader.read(inputMessage.getBody());
+        } catch (IOException e) {
+            throw new HttpMessageNotReadableException("Could not read PDS FHIR Patient: " + e.getMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    protected void writeInternal(PdsFhirPatient patient, HttpOutputMessage outputMessage) {
+        throw new HttpMessageNotWritableException("PDS FHIR Patient resources are only ever read");
+    }
+}
@@ -0,0 +1,135 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.GeneralPractitioner;
+import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.Identifier;
+import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.ManagingOrganization;
+import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pulls only the fields needed to work out a patient's status out of a FHIR Patient resource, skipping
+ * names, addresses, telecom, extensions and the rest token by token rather than binding or building a tree.
+ * <p>
+ * Only the first general practitioner is read as that is the only one used, so the returned list has at
+ * most one entry. Identifier periods are not read.
+ */
+public class PdsFhirPatientReader {
+
+    private final JsonFactory jsonFactory;
+
+    public PdsFhirPatientReader() {
+        this(new JsonFactory());
+    }
+
+    public PdsFhirPatientReader(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    public PdsFhirPatient read(InputStream body) throws IOException {
+        try (var parser = jsonFactory.createParser(body)) {
+            return readPatient(parser);
+        }
+    }
+
+    public PdsFhirPatient read(byte[] body) throws IOException {
+        try (var parser = jsonFactory.createParser(body)) {
+            return readPatient(parser);
+        }
+    }
+
+    private PdsFhirPatient readPatient(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected PDS FHIR Patient resource to be a JSON object");
+        }
+        var patient = new PdsFhirPatient();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var fieldName = parser.getCurrentName();
+            parser.nextToken();
+            switch (fieldName) {
+                case "id":
+                    patient.setId(readText(parser));
+                    break;
+                case "deceasedDateTime":
+                    patient.setDeceasedDateTime(readText(parser));
+                    break;
+                case "generalPractitioner":
+                    patient.setGeneralPractitioner(readFirstGeneralPractitioner(parser));
+                    break;
+                case "managingOrganization":
+                    patient.setManagingOrganization(readManagingOrganization(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return patient;
+    }
+
+    private List<GeneralPractitioner> readFirstGeneralPractitioner(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        var generalPractitioners = new ArrayList<GeneralPractitioner>(1);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (generalPractitioners.isEmpty() && parser.currentToken() == JsonToken.START_OBJECT) {
+                generalPractitioners.add(new GeneralPractitioner(readReferenceIdentifier(parser)));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return generalPractitioners;
+    }
+
+    private ManagingOrganization readManagingOrganization(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        return new ManagingOrganization(readReferenceIdentifier(parser));
+    }
+
+    private Identifier readReferenceIdentifier(JsonParser parser) throws IOException {
+        Identifier identifier = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var fieldName = parser.getCurrentName();
+            parser.nextToken();
+            if ("identifier".equals(fieldName) && parser.currentToken() == JsonToken.START_OBJECT) {
+                identifier = new Identifier(readIdentifierValue(parser), null);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return identifier;
+    }
+
+    private String readIdentifierValue(JsonParser parser) throws IOException {
+        String value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var fieldName = parser.getCurrentName();
+            parser.nextToken();
+            if ("value".equals(fieldName)) {
+                value = readText(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    private String readText(JsonParser parser) throws IOException {
+        if (parser.currentToken().isScalarValue()) {
+            return parser.getValueAsString();
+        }
+        parser.skipChildren();
+        return null;
+    }
+}
@@ -0,0 +1,279 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Sends a second, identical request if the first has not answered within the hedge delay and takes
+ * whichever succeeds first, cancelling the other. Only to be used for idempotent reads.
+ * <p>
+ * The delay is the configured percentile of recent attempt latencies once enough attempts have been seen,
+ * and the fixed delay until then or when no percentile is configured. Hedges are paid for out of a budget
+ * that each request tops up by the budget ratio, so they cannot add more than that share of extra traffic.
+ * A hedge must also be granted its own permit, so that it is counted against any limit on requests sent.
+ */
+@Slf4j
+@Component
+public class RequestHedger implements DisposableBean {
+
+    private static final long MIN_SAMPLES_FOR_PERCENTILE = 100;
+
+    private final boolean enabled;
+    private final Duration fixedDelay;
+    private final double delayPercentile;
+    private final HedgeBudget budget;
+    private final ExecutorService executor;
+    private final Timer attemptLatency;
+    private final Counter hedgesSent;
+    private final Counter hedgesDeniedByBudget;
+    private final Counter hedgesDeniedPermit;
+    private final Counter primaryWins;
+    private final Counter hedgeWins;
+
+    public RequestHedger(@Value("${pds.fhir.hedging.enabled}") boolean enabled,
+                         @Value("${pds.fhir.hedging.delay.ms}") long fixedDelayMillis,
+                         @Value("${pds.fhir.hedging.delay.percentile}") double delayPercentile,
+                         @Value("${pds.fhir.hedging.budget.ratio}") double budgetRatio,
+                         @Value("${pds.fhir.hedging.budget.max}") int maxBudget,
+                         @Value("${pds.fhir.hedging.threads}") int threads,
+                         MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.fixedDelay = Duration.ofMillis(fixedDelayMillis);
+        this.delayPercentile = delayPercentile;
+        this.budget = new HedgeBudget(budgetRatio, maxBudget);
+        this.executor = enabled ? hedgingExecutor(threads) : null;
+
+        var timerBuilder = Timer.builder("pds.http.hedging.attempt")
+                .description("Latency of individual, possibly hedged, PDS FHIR read attempts");
+        if (delayPercentile > 0) {
+            timerBuilder.publishPercentiles(delayPercentile);
+        }
+        attemptLatency = timerBuilder.register(meterRegistry);
+        hedgesSent = hedgeCounter(meterRegistry, "sent");
+        hedgesDeniedByBudget = hedgeCounter(meterRegistry, "denied");
+        hedgesDeniedPermit = hedgeCounter(meterRegistry, "no-permit");
+        primaryWins = Counter.builder("pds.http.hedging.winner").tag("attempt", "primary").register(meterRegistry);
+        hedgeWins = Counter.builder("pds.http.hedging.winner").tag("attempt", "hedge").register(meterRegistry);
+    }
+
+    public <T> T execute(Supplier<T> request, BooleanSupplier hedgePermit) {
+        if (!enabled) {
+            return request.get();
+        }
+        budget.deposit();
+
+        CompletableFuture<T> primary;
+        try {
+            primary = submit(request);
+        }
+        catch (RejectedExecutionException e) {
+            log.warn("Hedging executor saturated, sending request without hedging");
+            return request.get();
+        }
+
+        try {
+            return primary.get(hedgeDelay().toNanos(), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException slowPrimary) {
+            return hedge(request, hedgePermit, primary);
+        }
+        catch (InterruptedException e) {
+            primary.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for PDS FHIR response", e);
+        }
+        catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    Duration hedgeDelay() {
+        if (delayPercentile <= 0 || attemptLatency.count() < MIN_SAMPLES_FOR_PERCENTILE) {
+            return fixedDelay;
+        }
+        var percentiles = attemptLatency.takeSnapshot().percentileValues();
+        if (percentiles.length == 0 || percentiles[0].value() <= 0) {
+            return fixedDelay;
+        }
+        return Duration.ofNanos((long) percentiles[0].value(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private <T> T hedge(Supplier<T> request, BooleanSupplier hedgePermit, CompletableFuture<T> primary) {
+        if (!budget.tryWithdraw()) {
+            hedgesDeniedByBudget.increment();
+            return await(primary);
+        }
+        if (!hedgePermit.getAsBoolean()) {
+            hedgesDeniedPermit.increment();
+            return await(primary);
+        }
+
+        CompletableFuture<T> hedge;
+        try {
+            hedge = submit(request);
+        }
+        catch (RejectedExecutionException e) {
+            log.warn("Hedging executor saturated, waiting on original request");
+            return await(primary);
+        }
+        hedgesSent.increment();
+        log.info("PDS FHIR request slower than " + hedgeDelay().toMillis() + "ms, sent hedged request");
+
+        var firstSuccess = new CompletableFuture<T>();
+        var outstanding = new AtomicInteger(2);
+        var firstFailure = new AtomicReference<Throwable>();
+        completeOnFirstSuccess(primary, firstSuccess, outstanding, firstFailure, primaryWins);
+        completeOnFirstSuccess(hedge, firstSuccess, outstanding, firstFailure, hedgeWins);
+
+        try {
+            return await(firstSuccess);
+        }
+        finally {
+            primary.cancel(true);
+            hedge.cancel(true);
+        }
+    }
+
+    private <T> void completeOnFirstSuccess(CompletableFuture<T> attempt, CompletableFuture<T> firstSuccess,
+                                            AtomicInteger outstanding, AtomicReference<Throwable> firstFailure, Counter winCounter) {
+        attempt.whenComplete((result, error) -> {
+            if (error == null) {
+                if (firstSuccess.complete(result)) {
+                    winCounter.increment();
+                }
+                return;
+            }
+            firstFailure.compareAndSet(null, error);
+            if (outstanding.decrementAndGet() == 0) {
+                firstSuccess.completeExceptionally(firstFailure.get());
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> request) {
+        var callerContext = MDC.getCopyOfContextMap();
+        var attempt = new CompletableFuture<T>();
+        var task = executor.submit(() -> {
+            var previousContext = MDC.getCopyOfContextMap();
+            setMdc(callerContext);
+            var sample = Timer.start();
+            try {
+                attempt.complete(request.get());
+            }
+            catch (Throwable error) {
+                attempt.completeExceptionally(error);
+            }
+            finally {
+                sample.stop(attemptLatency);
+                setMdc(previousContext);
+            }
+        });
+        // cancelling a CompletableFuture does not interrupt the thread running it, so pass it on to the task
+        attempt.whenComplete((result, error) -> {
+            if (attempt.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return attempt;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for PDS FHIR response", e);
+        }
+        catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    private static void setMdc(Map<String, String> context) {
+        if (context == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(context);
+        }
+    }
+
+    private static Counter hedgeCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("pds.http.hedging.hedges")
+                .description("Hedged requests sent, or not sent because the hedging budget was spent or no permit was granted")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static ExecutorService hedgingExecutor(int threads) {
+        var threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(threads),
+                runnable -> {
+                    var thread = new Thread(runnable, "pds-fhir-hedging-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    static class HedgeBudget {
+        private final double ratio;
+        private final double max;
+        private double available;
+
+        HedgeBudget(double ratio, int max) {
+            this.ratio = ratio;
+            this.max = max;
+        }
+
+        synchronized void deposit() {
+            available = Math.min(max, available + ratio);
+        }
+
+        synchronized boolean tryWithdraw() {
+            if (available < 1) {
+                return false;
+            }
+            available -= 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Negotiates gzip/deflate compressed responses for the endpoints it is enabled for and decodes them as
+ * they are read, so the body is inflated straight into the message converter rather than buffered.
+ * Response sizes are recorded both as received on the wire and once decoded, for every endpoint whether
+ * compression is enabled or not, so that the saving can be compared with compression switched off.
+ * <p>
+ * A 304 Not Modified is counted as saving the typical size on the wire of a full response from the same endpoint.
+ */
+@Component
+public class ResponseCompression {
+
+    static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    private final Map<String, Boolean> enabledByEndpoint = new LinkedHashMap<>();
+    private final Map<String, String> endpointNamesByPrefix = new LinkedHashMap<>();
+    private final Map<String, FullResponseSizes> fullResponseSizes = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    public ResponseCompression(@Value("${pdsFhirEndpoint}") String pdsFhirEndpoint,
+                               @Value("${accessTokenEndpoint}") String accessTokenEndpoint,
+                               @Value("${http.compression.pds.fhir.enabled}") boolean pdsFhirEnabled,
+                               @Value("${http.compression.access.token.enabled}") boolean accessTokenEnabled,
+                               MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        // most specific first, as the access token endpoint can sit under the pds fhir one
+        if (accessTokenEndpoint.startsWith(pdsFhirEndpoint)) {
+            addEndpoint("access-token", accessTokenEndpoint, accessTokenEnabled);
+            addEndpoint("pds-fhir", pdsFhirEndpoint, pdsFhirEnabled);
+        } else {
+            addEndpoint("pds-fhir", pdsFhirEndpoint, pdsFhirEnabled);
+            addEndpoint("access-token", accessTokenEndpoint, accessTokenEnabled);
+        }
+    }
+
+    public boolean isEnabledFor(URI uri) {
+        return enabledByEndpoint.getOrDefault(endpointName(uri), false);
+    }
+
+    public void negotiate(URI uri, HttpHeaders requestHeaders) {
+        if (isEnabledFor(uri)) {
+            requestHeaders.set(HttpHeaders.ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+        }
+    }
+
+    public ClientHttpResponse decode(URI uri, ClientHttpResponse response) {
+        var endpoint = endpointName(uri);
+        var sizes = fullResponseSizes.computeIfAbsent(endpoint, name -> new FullResponseSizes());
+        if (isNotModified(response)) {
+            notModifiedBytesSaved(endpoint).increment(sizes.typicalWireBytes());
+        }
+        return new DecodingClientHttpResponse(response, (encoding, wireBytes, decodedBytes) -> {
+            responseBytes(endpoint, encoding, "wire").record(wireBytes);
+            responseBytes(endpoint, encoding, "decoded").record(decodedBytes);
+            if (wireBytes > 0) {
+                sizes.record(wireBytes);
+            }
+        });
+    }
+
+    public ClientHttpRequestInterceptor interceptor() {
+        return (request, body, execution) -> {
+            negotiate(request.getURI(), request.getHeaders());
+            return decode(request.getURI(), execution.execute(request, body));
+        };
+    }
+
+    String endpointName(URI uri) {
+        var url = uri.toString();
+        return endpointNamesByPrefix.entrySet().stream()
+                .filter(endpoint -> url.startsWith(endpoint.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse("other");
+    }
+
+    private DistributionSummary responseBytes(String endpoint, String encoding, String stage) {
+        return DistributionSummary.builder("pds.http.response.bytes")
+                .description("Size of response bodies as received on the wire and after decoding")
+                .baseUnit("bytes")
+                .tag("endpoint", endpoint)
+                .tag("encoding", encoding)
+                .tag("stage", stage)
+                .register(meterRegistry);
+    }
+
+    private Counter notModifiedBytesSaved(String endpoint) {
+        return Counter.builder("pds.http.not.modified.bytes.saved")
+                .description("Typical full response size not downloaded because the endpoint answered 304 Not Modified")
+                .baseUnit("bytes")
+                .tag("endpoint", endpoint)
+                .register(meterRegistry);
+    }
+
+    private static boolean isNotModified(ClientHttpResponse response) {
+        try {
+            return response.getRawStatusCode() == HttpStatus.NOT_MODIFIED.value();
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void addEndpoint(String name, String endpoint, boolean enabled) {
+        endpointNamesByPrefix.putIfAbsent(endpoint, name);
+        enabledByEndpoint.put(name, enabled);
+    }
+
+    private static class FullResponseSizes {
+        private final LongAdder totalWireBytes = new LongAdder();
+        private final LongAdder responses = new LongAdder();
+
+        void record(long wireBytes) {
+            totalWireBytes.add(wireBytes);
+            responses.increment();
+        }
+
+        double typicalWireBytes() {
+            var count = responses.sum();
+            return count == 0 ? 0 : (double) totalWireBytes.sum() / count;
+        }
+    }
+}
@@ -1,12 +1,20 @@
 package uk.nhs.prm.deductions.pdsadaptor.client;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.RetryableRequestException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.TooManyRequestsException;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.RetryPolicy;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.Sleeper;
 import uk.nhs.prm.deductions.pdsadaptor.model.UpdateManagingOrganisationRequest;
 import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
 
+import java.time.Duration;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Supplier;
 
@@ -14,38 +22,112 @@ import java.util.function.Supplier;
 @Slf4j
 public class RetryingPdsFhirClient {
 
-    private final int maxUpdateTries;
     private final PdsFhirClient client;
+    private final RetryPolicy retrievalRetryPolicy;
+    private final RetryPolicy updateRetryPolicy;
+    private final Sleeper sleeper;
+    private final MeterRegistry meterRegistry;
+    private final SingleFlight<String, PdsFhirPatient> inFlightRetrievals;
+    private final SingleFlight<String, Optional<PdsFhirPatient>> inFlightRevalidations;
 
     public RetryingPdsFhirClient(PdsFhirClient pdsFhirClient,
-                                 @Value("${pds.fhir.update.number.of.tries}") int maxUpdateTries) {
+                                 @Qualifier("pdsFhirRetrievalRetryPolicy") RetryPolicy retrievalRetryPolicy,
+                                 @Qualifier("pdsFhirUpdateRetryPolicy") RetryPolicy updateRetryPolicy,
+                                 Sleeper sleeper,
+                                 MeterRegistry meterRegistry) {
         this.client = pdsFhirClient;
-        this.maxUpdateTries = maxUpdateTries;
+        this.retrievalRetryPolicy = retrievalRetryPolicy;
+        this.updateRetryPolicy = updateRetryPolicy;
+        this.sleeper = sleeper;
+        this.meterRegistry = meterRegistry;
+        this.inFlightRetrievals = new SingleFlight<>("pds.fhir.retrieval.coalescing", meterRegistry);
+        this.inFlightRevalidations = new SingleFlight<>("pds.fhir.revalidation.coalescing", meterRegistry);
     }
 
     public PdsFhirPatient requestPdsRecordByNhsNumber(String nhsNumber) {
-        return requestWithRetries(() -> client.requestPdsRecordByNhsNumber(nhsNumber), maxUpdateTries);
+        return inFlightRetrievals.execute(nhsNumber, () ->
+                requestWithRetries("retrieval", retrievalRetryPolicy, () -> client.requestPdsRecordByNhsNumber(nhsNumber)));
+    }
+
+    public Optional<PdsFhirPatient> requestPdsRecordByNhsNumberIfChanged(String nhsNumber, String recordETag) {
+        return inFlightRevalidations.execute(nhsNumber + " " + recordETag, () ->
+                requestWithRetries("revalidation", retrievalRetryPolicy, () -> client.requestPdsRecordByNhsNumberIfChanged(nhsNumber, recordETag)));
     }
 
     public PdsFhirPatient updateManagingOrganisation(String nhsNumber, UpdateManagingOrganisationRequest updateRequest) {
         var sharedRequestIdAcrossRetries = UUID.randomUUID();
-        return requestWithRetries(() ->
-                client.updateManagingOrganisation(nhsNumber, updateRequest, sharedRequestIdAcrossRetries), maxUpdateTries
+        return requestWithRetries("update", updateRetryPolicy, () ->
+                client.updateManagingOrganisation(nhsNumber, updateRequest, sharedRequestIdAcrossRetries)
         );
     }
 
-    private PdsFhirPatient requestWithRetries(Supplier<PdsFhirPatient> requestProcess, int triesLeft) {
+    private <T> T requestWithRetries(String operation, RetryPolicy retryPolicy, Supplier<T> requestProcess) {
+        var startTime = System.nanoTime();
+        var previousDelay = Duration.ZERO;
+        for (int tries = 1; ; tries++) {
+            try {
+                return requestProcess.get();
+            }
+            catch (RetryableRequestException | TooManyRequestsException retryableException) {
+                var elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+                var delay = retryPolicy.delayBeforeNextTry(tries, elapsed, previousDelay, retryAfter(retryableException));
+                if (delay.isEmpty()) {
+                    var reason = tries >= retryPolicy.getMaxTries() ? "attempts" : "elapsed";
+                    log.error("Giving up on server request after " + tries + " attempts and " + elapsed.toMillis() + "ms.");
+                    exhaustedRetries(operation, reason).increment();
+                    throw retryableException;
+                }
+                log.error("Retrying server request in " + delay.get().toMillis() + "ms, tries remaining: " + (retryPolicy.getMaxTries() - tries));
+                retries(operation).increment();
+                sleep(operation, delay.get(), retryableException);
+                previousDelay = delay.get();
+            }
+        }
+    }
+
+    private void sleep(String operation, Duration delay, RuntimeException lastFailure) {
+        if (delay.isZero()) {
+            return;
+        }
+        var sample = Timer.start();
         try {
-            return requestProcess.get();
+            sleeper.sleep(delay);
         }
-        catch (RetryableRequestException retryableException) {
-            if (triesLeft > 1) {
-                log.error("Retrying server request, tries remaining: " + (triesLeft - 1));
-                return requestWithRetries(requestProcess, triesLeft - 1);
-            }
-            log.error("Giving up on server request after " + maxUpdateTries + " attempts.");
-            throw retryableException;
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw lastFailure;
+        }
+        finally {
+            sample.stop(sleepTime(operation));
         }
     }
 
+    private static Optional<Duration> retryAfter(RuntimeException retryableException) {
+        if (retryableException instanceof TooManyRequestsException) {
+            return ((TooManyRequestsException) retryableException).getRetryAfter();
+        }
+        return ((RetryableRequestException) retryableException).getRetryAfter();
+    }
+
+    private Counter retries(String operation) {
+        return Counter.builder("pds.fhir.retries")
+                .description("Retries of PDS FHIR requests")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    private Counter exhaustedRetries(String operation, String reason) {
+        return Counter.builder("pds.fhir.retries.exhausted")
+                .description("PDS FHIR requests given up on after running out of tries or time")
+                .tag("operation", operation)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private Timer sleepTime(String operation) {
+        return Timer.builder("pds.fhir.retry.sleep")
+                .description("Time spent backing off between PDS FHIR request retries")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
 }
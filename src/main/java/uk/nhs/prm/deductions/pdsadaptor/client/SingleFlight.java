@@ -0,0 +1,81 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent calls for the same key share a single call already in flight, each getting its result or
+ * exception, rather than making their own. Nothing is kept once the call has finished, so a call made after it
+ * has returned always goes out again.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter calls;
+    private final Counter sharedCalls;
+
+    public SingleFlight(String metricName, MeterRegistry meterRegistry) {
+        calls = callCounter(metricName, "made", meterRegistry);
+        sharedCalls = callCounter(metricName, "shared", meterRegistry);
+        Gauge.builder(metricName + ".hit.ratio", this, SingleFlight::hitRatio)
+                .description("Share of calls that waited on an identical call already in flight")
+                .register(meterRegistry);
+    }
+
+    public V execute(K key, Supplier<V> call) {
+        var ours = new CompletableFuture<V>();
+        var existing = inFlight.putIfAbsent(key, ours);
+        if (existing != null) {
+            sharedCalls.increment();
+            return await(existing);
+        }
+        calls.increment();
+        try {
+            var result = call.get();
+            ours.complete(result);
+            return result;
+        }
+        catch (RuntimeException | Error e) {
+            ours.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, ours);
+        }
+    }
+
+    double hitRatio() {
+        var total = calls.count() + sharedCalls.count();
+        return total == 0 ? 0 : sharedCalls.count() / total;
+    }
+
+    private static Counter callCounter(String metricName, String result, MeterRegistry meterRegistry) {
+        return Counter.builder(metricName)
+                .description("Calls made, or shared with an identical call already in flight")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static <V> V await(CompletableFuture<V> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for shared call", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+}
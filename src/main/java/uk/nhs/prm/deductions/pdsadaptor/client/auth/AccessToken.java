@@ -0,0 +1,25 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.auth;
+
+import lombok.Value;
+
+import java.time.Instant;
+
+/**
+ * An access token with when it was issued and when it expires, or null expiry when the token endpoint did not say.
+ * Each token given out is numbered one version on from the last, so that it is clear which of two tokens is newer.
+ */
+@Value
+class AccessToken {
+    long version;
+    String value;
+    Instant issuedAt;
+    Instant expiresAt;
+
+    boolean isExpiredAt(Instant instant) {
+        return expiresAt != null && !instant.isBefore(expiresAt);
+    }
+
+    static long versionOf(AccessToken token) {
+        return token == null ? 0 : token.version;
+    }
+}
@@ -2,8 +2,21 @@ package uk.nhs.prm.deductions.pdsadaptor.client.auth;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -11,51 +24,285 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
+import uk.nhs.prm.deductions.pdsadaptor.client.SingleFlight;
 import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.AccessTokenRequestException;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.RetryAfter;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.RetryPolicy;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.Sleeper;
+import uk.nhs.prm.deductions.pdsadaptor.configuration.AccessTokenHttpClient;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Gets access tokens for PDS FHIR from the token endpoint. With refresh ahead enabled, the first token is fetched
+ * once the application is ready, and each token is replaced in the background a safety margin before the expires_in
+ * it was given, so that requests are not left to find it has expired from a 401. A background refresh that fails is
+ * tried again shortly, and a token known to have expired is replaced before use.
+ * <p>
+ * The token in use is swapped atomically for a newer version, never an older one. Only one renewal of a given token
+ * is made at a time: callers that find the same token rejected or expired wait for that renewal and share its
+ * result, and a caller whose rejected token has already been replaced is given the replacement straight away.
+ * <p>
+ * Token requests go through {@link AccessTokenHttpClient} rather than the client used for PDS FHIR, and are retried
+ * on server errors, 429s and network failures as the access token retry policy allows.
+ */
 @Service
 @Slf4j
-public class AuthService {
+public class AuthService implements DisposableBean {
 
     private final SignedJWTGenerator signedJWTGenerator;
     private final RestTemplate restTemplate;
     private final String accessTokenEndpoint;
-    private String accessToken = "";
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final RetryPolicy retryPolicy;
+    private final Sleeper sleeper;
+    private final boolean refreshAhead;
+    private final Duration refreshMargin;
+    private final Duration refreshRetry;
+    private final Clock clock;
+    private final ScheduledExecutorService scheduler;
+    private final MeterRegistry meterRegistry;
+    private final Counter unauthorizedRefreshes;
+    private final Counter retries;
+    private final AtomicReference<AccessToken> accessToken = new AtomicReference<>();
+    private final AtomicLong lastVersion = new AtomicLong();
+    private final SingleFlight<Long, AccessToken> renewals;
+    private ScheduledFuture<?> nextRefresh;
 
+    @Autowired
     public AuthService(SignedJWTGenerator signedJWTGenerator,
-                       RestTemplate restTemplate,
-                       @Value("${accessTokenEndpoint}") String accessTokenEndpoint) {
+                       AccessTokenHttpClient accessTokenHttpClient,
+                       @Value("${accessTokenEndpoint}") String accessTokenEndpoint,
+                       @Qualifier("accessTokenCircuitBreaker") CircuitBreaker circuitBreaker,
+                       @Qualifier("accessTokenBulkhead") Bulkhead bulkhead,
+                       @Qualifier("accessTokenRetryPolicy") RetryPolicy retryPolicy,
+                       Sleeper sleeper,
+                       @Value("${access.token.refresh.ahead.enabled}") boolean refreshAhead,
+                       @Value("${access.token.refresh.margin.seconds}") long refreshMarginSeconds,
+                       @Value("${access.token.refresh.retry.seconds}") long refreshRetrySeconds,
+                       MeterRegistry meterRegistry) {
+        this(signedJWTGenerator, accessTokenHttpClient.getRestTemplate(), accessTokenEndpoint, circuitBreaker, bulkhead,
+                retryPolicy, sleeper, refreshAhead, Duration.ofSeconds(refreshMarginSeconds), Duration.ofSeconds(refreshRetrySeconds),
+                Clock.systemUTC(), refreshAhead ? refreshScheduler() : null, meterRegistry);
+    }
+
+    AuthService(SignedJWTGenerator signedJWTGenerator, RestTemplate restTemplate, String accessTokenEndpoint,
+                CircuitBreaker circuitBreaker, Bulkhead bulkhead, RetryPolicy retryPolicy, Sleeper sleeper,
+                boolean refreshAhead, Duration refreshMargin, Duration refreshRetry, Clock clock,
+                ScheduledExecutorService scheduler, MeterRegistry meterRegistry) {
         this.signedJWTGenerator = signedJWTGenerator;
         this.restTemplate = restTemplate;
         this.accessTokenEndpoint = accessTokenEndpoint;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.retryPolicy = retryPolicy;
+        this.sleeper = sleeper;
+        this.refreshAhead = refreshAhead;
+        this.refreshMargin = refreshMargin;
+        this.refreshRetry = refreshRetry;
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.meterRegistry = meterRegistry;
+
+        renewals = new SingleFlight<>("pds.access.token.renewals", meterRegistry);
+        unauthorizedRefreshes = Counter.builder("pds.access.token.unauthorized.refreshes")
+                .description("Access tokens requested because PDS FHIR rejected the current one with a 401")
+                .register(meterRegistry);
+        retries = Counter.builder("pds.access.token.retries")
+                .description("Access token requests tried again after a server error, 429 or network failure")
+                .register(meterRegistry);
+        Gauge.builder("pds.access.token.age", this, AuthService::tokenAgeSeconds)
+                .description("Time since the access token in use was issued")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void fetchFirstAccessToken() {
+        if (refreshAhead) {
+            scheduler.execute(() -> refreshInBackground("startup"));
+        }
     }
 
+    /**
+     * For when PDS FHIR has rejected the given access token.
+     */
+    public String getNewAccessToken(String rejectedAccessToken) {
+        var current = accessToken.get();
+        if (current != null && !current.getValue().equals(rejectedAccessToken)) {
+            return current.getValue();
+        }
+        return renew(current, "unauthorized").getValue();
+    }
+
+    /**
+     * Replaces whichever access token is in use.
+     */
     public String getNewAccessToken() {
+        return renew(accessToken.get(), "unauthorized").getValue();
+    }
+
+    /**
+     * For once the signing key has been rotated, so that the token in use is not one got with the old key.
+     */
+    public void renewAfterKeyRotation() {
+        renew(accessToken.get(), "key-rotation");
+    }
+
+    public String getAccessToken() {
+        var current = accessToken.get();
+        if (current == null) {
+            log.info("No access token available. Requesting new access token");
+            return renew(null, "missing").getValue();
+        }
+        if (current.isExpiredAt(clock.instant())) {
+            log.info("Access token has expired. Requesting new access token");
+            return renew(current, "expired").getValue();
+        }
+        return current.getValue();
+    }
+
+    public void setAccessToken(String accessToken) {
+        use(new AccessToken(lastVersion.incrementAndGet(), accessToken, clock.instant(), null));
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private AccessToken renew(AccessToken staleToken, String trigger) {
+        var staleVersion = AccessToken.versionOf(staleToken);
+        return renewals.execute(staleVersion, () -> {
+            var latest = accessToken.get();
+            if (AccessToken.versionOf(latest) > staleVersion) {
+                return latest;
+            }
+            if ("unauthorized".equals(trigger)) {
+                unauthorizedRefreshes.increment();
+            }
+            return requestAccessToken(trigger);
+        });
+    }
+
+    private AccessToken use(AccessToken newToken) {
+        return accessToken.accumulateAndGet(newToken,
+                (current, offered) -> AccessToken.versionOf(offered) > AccessToken.versionOf(current) ? offered : current);
+    }
+
+    private AccessToken requestAccessToken(String trigger) {
+        var sample = Timer.start();
         try {
-            HttpEntity<MultiValueMap<String, String>> request = createRequestEntity();
-            ResponseEntity<String> accessTokenResponse = restTemplate.postForEntity(accessTokenEndpoint, request, String.class);
-            accessToken = getAccessTokenFromResponse(accessTokenResponse);
+            var newToken = use(getAccessTokenFromResponse(postWithRetries()));
             log.info("Successfully generated new access token");
-            return accessToken;
+            scheduleRefresh(newToken);
+            return newToken;
         } catch (HttpStatusCodeException e) {
             log.error("Got a http exception when requesting new access token", e);
             throw new AccessTokenRequestException(e);
+        } catch (CallNotPermittedException e) {
+            log.warn("Not requesting new access token while the token endpoint is failing - circuit breaker is open");
+            throw new AccessTokenRequestException("Access token endpoint circuit breaker is open", e);
+        } catch (BulkheadFullException e) {
+            log.warn("Too many concurrent access token requests");
+            throw new AccessTokenRequestException("Too many concurrent access token requests", e);
+        } finally {
+            sample.stop(Timer.builder("pds.access.token.request.duration")
+                    .description("Time taken to get a new access token from the token endpoint, including retries, by what asked for it")
+                    .tag("trigger", trigger)
+                    .register(meterRegistry));
         }
     }
 
-    public String getAccessToken() {
-        if (this.accessToken.isEmpty()) {
-            log.info("No access token available. Requesting new access token");
-            return getNewAccessToken();
-        } else {
-            return this.accessToken;
+    private ResponseEntity<String> postWithRetries() {
+        var startTime = System.nanoTime();
+        var previousDelay = Duration.ZERO;
+        for (int tries = 1; ; tries++) {
+            try {
+                // a new client assertion for each try, as the token endpoint turns away a jti it has seen before
+                HttpEntity<MultiValueMap<String, String>> request = createRequestEntity();
+                return bulkhead.executeSupplier(() -> circuitBreaker.executeSupplier(() ->
+                        restTemplate.postForEntity(accessTokenEndpoint, request, String.class)));
+            }
+            catch (HttpServerErrorException | HttpClientErrorException.TooManyRequests | ResourceAccessException retryableException) {
+                var elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+                var delay = retryPolicy.delayBeforeNextTry(tries, elapsed, previousDelay, retryAfter(retryableException));
+                if (delay.isEmpty()) {
+                    throw retryableException;
+                }
+                log.warn("Retrying access token request in " + delay.get().toMillis() + "ms: " + retryableException.getMessage());
+                retries.increment();
+                sleep(delay.get(), retryableException);
+                previousDelay = delay.get();
+            }
         }
     }
 
-    public void setAccessToken(String accessToken) {
-        this.accessToken = accessToken;
+    private void sleep(Duration delay, RuntimeException lastFailure) {
+        if (delay.isZero()) {
+            return;
+        }
+        try {
+            sleeper.sleep(delay);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw lastFailure;
+        }
+    }
+
+    private static Optional<Duration> retryAfter(RuntimeException retryableException) {
+        if (retryableException instanceof HttpStatusCodeException) {
+            return RetryAfter.from(((HttpStatusCodeException) retryableException).getResponseHeaders());
+        }
+        return Optional.empty();
+    }
+
+    private void refreshInBackground(String trigger) {
+        try {
+            renew(accessToken.get(), trigger);
+        }
+        catch (RuntimeException e) {
+            log.warn("Could not refresh access token ahead of expiry, trying again in " + refreshRetry.toSeconds() + "s: " + e.getMessage());
+            schedule(refreshRetry);
+        }
+    }
+
+    private void scheduleRefresh(AccessToken token) {
+        if (!refreshAhead || token.getExpiresAt() == null) {
+            return;
+        }
+        var lifetime = Duration.between(token.getIssuedAt(), token.getExpiresAt());
+        var margin = refreshMargin.compareTo(lifetime.dividedBy(2)) < 0 ? refreshMargin : lifetime.dividedBy(2);
+        schedule(Duration.between(clock.instant(), token.getExpiresAt().minus(margin)));
+    }
+
+    private synchronized void schedule(Duration delay) {
+        if (nextRefresh != null) {
+            nextRefresh.cancel(false);
+        }
+        nextRefresh = scheduler.schedule(() -> refreshInBackground("scheduled"), Math.max(0, delay.toMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private double tokenAgeSeconds() {
+        var current = accessToken.get();
+        return current == null ? Double.NaN : Duration.between(current.getIssuedAt(), clock.instant()).toMillis() / 1000.0;
     }
 
     private HttpEntity<MultiValueMap<String, String>> createRequestEntity() {
@@ -70,13 +317,24 @@ public class AuthService {
         return new HttpEntity<>(requestBody, headers);
     }
 
-    private String getAccessTokenFromResponse(ResponseEntity<String> accessTokenResponse) {
+    private AccessToken getAccessTokenFromResponse(ResponseEntity<String> accessTokenResponse) {
         try {
             var parent = new ObjectMapper().readTree(accessTokenResponse.getBody());
-            return parent.get("access_token").asText();
+            var issuedAt = clock.instant();
+            // expires_in comes back from the token endpoint as a string of seconds
+            var expiresIn = parent.path("expires_in").asLong(0);
+            return new AccessToken(lastVersion.incrementAndGet(), parent.get("access_token").asText(), issuedAt, expiresIn > 0 ? issuedAt.plusSeconds(expiresIn) : null);
         }
         catch (JsonProcessingException e) {
             throw new AccessTokenRequestException("Could not handle access token response", e);
         }
     }
-}
\ No newline at end of file
+
+    private static ScheduledExecutorService refreshScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "access-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
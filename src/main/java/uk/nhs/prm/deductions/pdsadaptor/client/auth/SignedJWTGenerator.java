@@ -17,18 +17,26 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.security.KeyPair;
 import java.security.PrivateKey;
-import java.security.Security;
 import java.util.Date;
 import java.util.UUID;
 
+/**
+ * Creates the signed client assertions exchanged for access tokens. The private key is parsed and its signer built
+ * on first use and then kept, as parsing the PEM is far more costly than signing. {@link #rotateKey} replaces both
+ * at runtime, once the new key has been parsed, so a key that cannot be used leaves the current one in place.
+ */
 @Slf4j
 @Component
 public class SignedJWTGenerator {
-    private final String jwtPrivateKey;
+
+    private static final BouncyCastleProvider BOUNCY_CASTLE = new BouncyCastleProvider();
+
     private final String jwtApiKey;
     private final String accessTokenEndpoint;
-    private final String jwtKeyId;
     private final JwtSigner jwtSigner;
+    private String jwtPrivateKey;
+    private String jwtKeyId;
+    private volatile KeyMaterial keyMaterial;
 
     public SignedJWTGenerator(@Value("${jwtPrivateKey}") String jwtPrivateKey,
                               @Value("${jwtApiKey}") String jwtApiKey,
@@ -44,16 +52,40 @@ public class SignedJWTGenerator {
     }
 
     public String createSignedJWT() {
-        PrivateKey rsaJWK = getPrivateKey(jwtPrivateKey);
-        JWSSigner signer = new RSASSASigner(rsaJWK);
-        JWTClaimsSet claimsSet = getClaimsSet();
-
-        SignedJWT signedJWT = new SignedJWT(
-                new JWSHeader.Builder(JWSAlgorithm.RS512).keyID(jwtKeyId).type(JOSEObjectType.JWT).build(), claimsSet);
-        signJwt(signer, signedJWT);
+        var material = keyMaterial();
+        SignedJWT signedJWT = new SignedJWT(material.header, getClaimsSet());
+        signJwt(material.signer, signedJWT);
         return signedJWT.serialize();
     }
 
+    public synchronized String getKeyId() {
+        return jwtKeyId;
+    }
+
+    public synchronized void rotateKey(String newJwtPrivateKey, String newJwtKeyId) {
+        if (newJwtPrivateKey.equals(jwtPrivateKey) && newJwtKeyId.equals(jwtKeyId) && keyMaterial != null) {
+            return;
+        }
+        var material = new KeyMaterial(getPrivateKey(newJwtPrivateKey), newJwtKeyId);
+        jwtPrivateKey = newJwtPrivateKey;
+        jwtKeyId = newJwtKeyId;
+        keyMaterial = material;
+        log.info("Rotated JWT signing key to key id " + newJwtKeyId);
+    }
+
+    private KeyMaterial keyMaterial() {
+        var material = keyMaterial;
+        if (material != null) {
+            return material;
+        }
+        synchronized (this) {
+            if (keyMaterial == null) {
+                keyMaterial = new KeyMaterial(getPrivateKey(jwtPrivateKey), jwtKeyId);
+            }
+            return keyMaterial;
+        }
+    }
+
     private void signJwt(JWSSigner signer, SignedJWT signedJWT) {
         log.info("Signing JWT Token");
         try {
@@ -77,8 +109,7 @@ public class SignedJWTGenerator {
         try {
             log.info("Parsing RSA Private key");
             PEMParser pemParser = new PEMParser(new StringReader(privateKeyString));
-            Security.addProvider(new BouncyCastleProvider());
-            JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider("BC");
+            JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider(BOUNCY_CASTLE);
             Object object = pemParser.readObject();
             KeyPair kp = converter.getKeyPair((PEMKeyPair) object);
             return kp.getPrivate();
@@ -87,4 +118,15 @@ public class SignedJWTGenerator {
             throw new PdsAdaptorMisconfigurationException("Private key configuration unusable", e);
         }
     }
+
+    private static class KeyMaterial {
+        private final JWSSigner signer;
+        private final JWSHeader header;
+
+        private KeyMaterial(PrivateKey privateKey, String keyId) {
+            // the signer takes a new java.security.Signature for each JWT, so can be shared between threads
+            this.signer = new RSASSASigner(privateKey);
+            this.header = new JWSHeader.Builder(JWSAlgorithm.RS512).keyID(keyId).type(JOSEObjectType.JWT).build();
+        }
+    }
 }
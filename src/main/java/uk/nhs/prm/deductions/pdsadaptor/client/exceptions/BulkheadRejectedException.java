@@ -0,0 +1,15 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.exceptions;
+
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Slf4j
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class BulkheadRejectedException extends RuntimeException {
+    public BulkheadRejectedException(String description, BulkheadFullException e) {
+        super("Too many concurrent PDS FHIR " + description + " requests", e);
+        log.warn("Too many concurrent PDS FHIR {} requests: {}", description, e.getMessage());
+    }
+}
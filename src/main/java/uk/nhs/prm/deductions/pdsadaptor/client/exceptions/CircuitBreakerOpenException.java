@@ -0,0 +1,15 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.exceptions;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Slf4j
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class CircuitBreakerOpenException extends RuntimeException {
+    public CircuitBreakerOpenException(CallNotPermittedException e) {
+        super("Not calling PDS FHIR while it is failing - circuit breaker is open", e);
+        log.warn("Not calling PDS FHIR while it is failing: {}", e.getMessage());
+    }
+}
@@ -0,0 +1,14 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.exceptions;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Slf4j
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class ConnectionPoolExhaustedException extends RuntimeException {
+    public ConnectionPoolExhaustedException(Exception e) {
+        super("Timed out waiting for a pooled connection to PDS FHIR", e);
+        log.warn("Timed out waiting for a pooled connection to PDS FHIR: {}", e.getMessage());
+    }
+}
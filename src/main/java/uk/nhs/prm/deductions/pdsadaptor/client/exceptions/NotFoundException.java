@@ -15,4 +15,9 @@ public class NotFoundException extends RuntimeException {
         super(errorMessage, exception);
         logInfoWithJson(log, errorMessage, "error_response", exception.getResponseBodyAsString());
     }
+
+    public NotFoundException(String errorMessage) {
+        super(errorMessage);
+        log.info(errorMessage);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.exceptions;
+
+import org.springframework.web.client.HttpStatusCodeException;
+
+// the If-Match ETag sent with an update was not the record's current one, so the caller's copy of the record is out of date
+public class PreconditionFailedException extends BadRequestException {
+    public PreconditionFailedException(HttpStatusCodeException exception) {
+        super(exception);
+    }
+}
@@ -5,20 +5,32 @@ import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.ResourceAccessException;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.RetryAfter;
+
+import java.time.Duration;
+import java.util.Optional;
 
 @Slf4j
 @ResponseStatus(value= HttpStatus.SERVICE_UNAVAILABLE)
 public class RetryableRequestException extends RuntimeException {
+    private final Duration retryAfter;
+
     public RetryableRequestException(HttpStatusCodeException e) {
         super(errorMessage(e));
+        this.retryAfter = RetryAfter.from(e.getResponseHeaders()).orElse(null);
         log.info(errorMessage(e));
     }
 
     public RetryableRequestException(ResourceAccessException e) {
         super(errorMessage(e), e);
+        this.retryAfter = null;
         log.info(errorMessage(e));
     }
 
+    public Optional<Duration> getRetryAfter() {
+        return Optional.ofNullable(retryAfter);
+    }
+
     private static String errorMessage(ResourceAccessException exception) {
         return String.format("PDS FHIR request had network failure: %s", exception.getMessage());
     }
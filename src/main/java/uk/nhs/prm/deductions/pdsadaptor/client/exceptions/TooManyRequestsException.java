@@ -3,12 +3,32 @@ package uk.nhs.prm.deductions.pdsadaptor.client.exceptions;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.RetryAfter;
+
+import java.time.Duration;
+import java.util.Optional;
 
 @Slf4j
 @ResponseStatus(value= HttpStatus.SERVICE_UNAVAILABLE)
 public class TooManyRequestsException extends RuntimeException {
+    private final Duration retryAfter;
+
     public TooManyRequestsException() {
+        this((Duration) null);
+    }
+
+    public TooManyRequestsException(HttpStatusCodeException e) {
+        this(RetryAfter.from(e.getResponseHeaders()).orElse(null));
+    }
+
+    private TooManyRequestsException(Duration retryAfter) {
         super("Rate limit exceeded for PDS FHIR - too many requests");
+        this.retryAfter = retryAfter;
         log.info("Rate limit exceeded for PDS FHIR - too many requests");
     }
-}
\ No newline at end of file
+
+    public Optional<Duration> getRetryAfter() {
+        return Optional.ofNullable(retryAfter);
+    }
+}
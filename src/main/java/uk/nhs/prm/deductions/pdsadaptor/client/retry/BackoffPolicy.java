@@ -0,0 +1,15 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.retry;
+
+import java.time.Duration;
+
+/**
+ * Works out how long to wait before the next retry of a request.
+ */
+public interface BackoffPolicy {
+
+    /**
+     * @param retryNumber   1 for the first retry, 2 for the second and so on
+     * @param previousDelay the delay before the previous retry, or zero before the first
+     */
+    Duration delayBeforeRetry(int retryNumber, Duration previousDelay);
+}
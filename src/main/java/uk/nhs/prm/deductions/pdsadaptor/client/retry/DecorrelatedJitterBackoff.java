@@ -0,0 +1,26 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.retry;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Waits a random time between the base delay and three times the previous delay, capped at the maximum,
+ * which grows more gently than full jitter while still keeping retries from lining up.
+ */
+public class DecorrelatedJitterBackoff implements BackoffPolicy {
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public DecorrelatedJitterBackoff(Duration baseDelay, Duration maxDelay) {
+        this.baseDelayMillis = baseDelay.toMillis();
+        this.maxDelayMillis = maxDelay.toMillis();
+    }
+
+    @Override
+    public Duration delayBeforeRetry(int retryNumber, Duration previousDelay) {
+        var upperBound = Math.max(baseDelayMillis, previousDelay.toMillis() * 3);
+        var delay = upperBound <= baseDelayMillis ? baseDelayMillis : ThreadLocalRandom.current().nextLong(baseDelayMillis, upperBound + 1);
+        return Duration.ofMillis(Math.min(maxDelayMillis, delay));
+    }
+}
@@ -0,0 +1,25 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.retry;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Waits a random time between zero and an exponentially growing ceiling, so that callers that failed
+ * together spread their retries out rather than retrying in step.
+ */
+public class FullJitterBackoff implements BackoffPolicy {
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public FullJitterBackoff(Duration baseDelay, Duration maxDelay) {
+        this.baseDelayMillis = baseDelay.toMillis();
+        this.maxDelayMillis = maxDelay.toMillis();
+    }
+
+    @Override
+    public Duration delayBeforeRetry(int retryNumber, Duration previousDelay) {
+        var ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retryNumber - 1, 30));
+        return Duration.ofMillis(ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+}
@@ -0,0 +1,45 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.retry;
+
+import org.springframework.http.HttpHeaders;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+
+/**
+ * Reads the Retry-After header, which is either a number of seconds or an HTTP date.
+ */
+public final class RetryAfter {
+
+    private static final String RETRY_AFTER = "Retry-After";
+
+    private RetryAfter() {
+    }
+
+    public static Optional<Duration> from(HttpHeaders headers) {
+        return from(headers, Clock.systemUTC());
+    }
+
+    static Optional<Duration> from(HttpHeaders headers, Clock clock) {
+        if (headers == null || headers.getFirst(RETRY_AFTER) == null) {
+            return Optional.empty();
+        }
+        var value = headers.getFirst(RETRY_AFTER).trim();
+        try {
+            return Optional.of(Duration.ofSeconds(Math.max(0, Long.parseLong(value))));
+        }
+        catch (NumberFormatException notSeconds) {
+            try {
+                var retryAt = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                var untilRetry = Duration.between(clock.instant(), retryAt);
+                return Optional.of(untilRetry.isNegative() ? Duration.ZERO : untilRetry);
+            }
+            catch (DateTimeParseException notDate) {
+                return Optional.empty();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.retry;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Decides whether and when a failed request should be retried: up to a maximum number of tries and
+ * within a maximum elapsed time, waiting as the backoff policy says or for as long as the server asked
+ * in its Retry-After header if that is longer.
+ */
+public class RetryPolicy {
+
+    private final int maxTries;
+    private final Duration maxElapsed;
+    private final BackoffPolicy backoffPolicy;
+
+    public RetryPolicy(int maxTries, Duration maxElapsed, BackoffPolicy backoffPolicy) {
+        this.maxTries = maxTries;
+        this.maxElapsed = maxElapsed;
+        this.backoffPolicy = backoffPolicy;
+    }
+
+    public int getMaxTries() {
+        return maxTries;
+    }
+
+    /**
+     * @return the delay before the next try, or empty if the request should not be retried
+     */
+    public Optional<Duration> delayBeforeNextTry(int triesSoFar, Duration elapsed, Duration previousDelay, Optional<Duration> retryAfter) {
+        if (triesSoFar >= maxTries) {
+            return Optional.empty();
+        }
+        var delay = backoffPolicy.delayBeforeRetry(triesSoFar, previousDelay);
+        if (retryAfter.isPresent() && retryAfter.get().compareTo(delay) > 0) {
+            delay = retryAfter.get();
+        }
+        if (elapsed.plus(delay).compareTo(maxElapsed) > 0) {
+            return Optional.empty();
+        }
+        return Optional.of(delay);
+    }
+}
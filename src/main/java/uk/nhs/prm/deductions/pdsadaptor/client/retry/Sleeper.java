@@ -0,0 +1,10 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.retry;
+
+import java.time.Duration;
+
+public interface Sleeper {
+
+    Sleeper THREAD_SLEEPER = duration -> Thread.sleep(duration.toMillis());
+
+    void sleep(Duration duration) throws InterruptedException;
+}
@@ -0,0 +1,186 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+import uk.nhs.prm.deductions.pdsadaptor.client.ResponseCompression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The client for access token requests, with a small connection pool of its own and short timeouts, so that token
+ * renewal never waits for a connection behind the PDS FHIR requests that need the new token. Connections to the
+ * token endpoint are opened once the application is ready rather than by the first token request, and are kept idle
+ * for longer than the PDS FHIR ones, as renewal only comes round every few minutes.
+ */
+@Slf4j
+@Component
+public class AccessTokenHttpClient implements DisposableBean {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final IdleConnectionEvictor idleConnectionEvictor;
+    private final HttpRoute route;
+    private final int connectTimeoutMillis;
+    private final int leaseTimeoutMillis;
+    private final long maxIdleMillis;
+    private final long maxKeepAliveMillis;
+    private final int warmConnections;
+    private final MeterRegistry meterRegistry;
+    private final RestTemplate restTemplate;
+
+    public AccessTokenHttpClient(@Value("${accessTokenEndpoint}") String accessTokenEndpoint,
+                                 @Value("${http.pool.access.token.max.per.route}") int maxConnections,
+                                 @Value("${access.token.http.connect.timeout.ms}") int connectTimeoutMillis,
+                                 @Value("${access.token.http.read.timeout.ms}") int readTimeoutMillis,
+                                 @Value("${access.token.http.lease.timeout.ms}") int leaseTimeoutMillis,
+                                 @Value("${access.token.http.warm.connections}") int warmConnections,
+                                 @Value("${http.pool.validate.after.inactivity.ms}") int validateAfterInactivityMillis,
+                                 @Value("${http.pool.access.token.max.idle.ms}") long maxIdleMillis,
+                                 @Value("${http.pool.access.token.max.keep.alive.ms}") long maxKeepAliveMillis,
+                                 ResponseCompression responseCompression,
+                                 MeterRegistry meterRegistry) {
+        this.route = HttpConnectionPoolManager.route(accessTokenEndpoint);
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.maxIdleMillis = maxIdleMillis;
+        this.maxKeepAliveMillis = maxKeepAliveMillis;
+        this.warmConnections = Math.min(warmConnections, maxConnections);
+        this.meterRegistry = meterRegistry;
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(validateAfterInactivityMillis);
+        idleConnectionEvictor = new IdleConnectionEvictor(connectionManager, Math.max(1000, maxIdleMillis / 2), TimeUnit.MILLISECONDS,
+                maxIdleMillis, TimeUnit.MILLISECONDS);
+        idleConnectionEvictor.start();
+
+        registerPoolGauge("pds.access.token.http.pool.leased", PoolStats::getLeased);
+        registerPoolGauge("pds.access.token.http.pool.available", PoolStats::getAvailable);
+        registerPoolGauge("pds.access.token.http.pool.pending", PoolStats::getPending);
+        registerPoolGauge("pds.access.token.http.pool.max", PoolStats::getMax);
+
+        var requestFactory = new HttpComponentsClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMillis);
+        requestFactory.setReadTimeout(readTimeoutMillis);
+        requestFactory.setConnectionRequestTimeout(leaseTimeoutMillis);
+        requestFactory.setHttpClient(HttpClients.custom()
+                .setConnectionManager(new TimedHttpClientConnectionManager(connectionManager,
+                        (leasedRoute, outcome) -> leaseTimer(outcome), leasedRoute -> connectionUsageTimer()))
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy(HttpConnectionPoolManager.keepAliveStrategy(maxKeepAliveMillis))
+                .disableContentCompression()
+                .build());
+        restTemplate = new RestTemplate(requestFactory);
+        restTemplate.getInterceptors().add(timingRequests());
+        restTemplate.getInterceptors().add(responseCompression.interceptor());
+    }
+
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    public PoolStats poolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (route == null || warmConnections <= 0) {
+            return;
+        }
+        var connections = new ArrayList<HttpClientConnection>();
+        try {
+            for (int i = 0; i < warmConnections; i++) {
+                var connection = connectionManager.requestConnection(route, null).get(leaseTimeoutMillis, TimeUnit.MILLISECONDS);
+                connections.add(connection);
+                if (!connection.isOpen()) {
+                    var context = HttpClientContext.create();
+                    connectionManager.connect(connection, route, connectTimeoutMillis, context);
+                    connectionManager.routeComplete(connection, route, context);
+                }
+            }
+            log.info("Opened " + connections.size() + " connections to the access token endpoint ahead of use");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException | ExecutionException e) {
+            log.warn("Could not open connections to the access token endpoint ahead of use: " + e.getMessage());
+        }
+        finally {
+            connections.forEach(connection -> connectionManager.releaseConnection(connection, null, maxKeepAliveMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        idleConnectionEvictor.shutdown();
+        connectionManager.shutdown();
+    }
+
+    // what the idle connection evictor does each time it runs
+    void evictIdleConnections() {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(maxIdleMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private ClientHttpRequestInterceptor timingRequests() {
+        return (request, body, execution) -> {
+            var sample = Timer.start();
+            var outcome = "io-error";
+            try {
+                var response = execution.execute(request, body);
+                outcome = (response.getRawStatusCode() / 100) + "xx";
+                return response;
+            }
+            finally {
+                sample.stop(Timer.builder("pds.access.token.http.request")
+                        .description("Time taken by each request to the access token endpoint, by status class or io-error")
+                        .tag("outcome", outcome)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry));
+            }
+        };
+    }
+
+    private Timer leaseTimer(String outcome) {
+        return Timer.builder("pds.access.token.http.pool.lease")
+                .description("Time spent waiting to lease a connection from the access token pool")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private Timer connectionUsageTimer() {
+        return Timer.builder("pds.access.token.http.connection.usage")
+                .description("Time a connection leased from the access token pool is in use before being released")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private void registerPoolGauge(String name, ToDoubleFunction<PoolStats> value) {
+        Gauge.builder(name, () -> value.applyAsDouble(connectionManager.getTotalStats()))
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,47 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import uk.nhs.prm.deductions.pdsadaptor.cache.InvalidationTransport;
+import uk.nhs.prm.deductions.pdsadaptor.cache.LoopbackInvalidationTransport;
+import uk.nhs.prm.deductions.pdsadaptor.cache.RedisInvalidationTransport;
+
+import java.time.Duration;
+
+/**
+ * How patient updates reach the other tasks' caches: none, loopback (this task only, for tests and local runs) or
+ * redis pub/sub, on the same server as the redis shared cache tier.
+ */
+@Slf4j
+@Configuration
+public class CacheInvalidationConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "pds.cache.invalidation.transport", havingValue = "none", matchIfMissing = true)
+    public InvalidationTransport noInvalidationTransport(@Value("${pds.cache.enabled}") boolean cacheEnabled) {
+        if (cacheEnabled) {
+            log.warn("Patient status cache is enabled without an invalidation transport, so if more than one task is running "
+                    + "they may answer with ETags made stale by updates through the others");
+        }
+        return InvalidationTransport.none();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "pds.cache.invalidation.transport", havingValue = "loopback")
+    public InvalidationTransport loopbackInvalidationTransport() {
+        return new LoopbackInvalidationTransport();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "pds.cache.invalidation.transport", havingValue = "redis")
+    public InvalidationTransport redisInvalidationTransport(@Value("${pds.cache.shared.redis.host}") String host,
+                                                            @Value("${pds.cache.shared.redis.port}") int port,
+                                                            @Value("${pds.cache.shared.redis.ssl}") boolean ssl,
+                                                            @Value("${pds.cache.shared.redis.timeout.millis}") long timeoutMillis,
+                                                            @Value("${pds.cache.invalidation.redis.channel}") String channel) {
+        return new RedisInvalidationTransport(host, port, ssl, Duration.ofMillis(timeoutMillis), channel);
+    }
+}
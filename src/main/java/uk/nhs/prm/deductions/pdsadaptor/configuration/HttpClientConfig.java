@@ -0,0 +1,71 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.web.client.RestTemplate;
+import uk.nhs.prm.deductions.pdsadaptor.client.HttpClient;
+import uk.nhs.prm.deductions.pdsadaptor.client.HttpStreamMetrics;
+import uk.nhs.prm.deductions.pdsadaptor.client.JdkClientHttpRequestFactory;
+import uk.nhs.prm.deductions.pdsadaptor.client.NonBlockingHttpClient;
+import uk.nhs.prm.deductions.pdsadaptor.client.ResponseCompression;
+import uk.nhs.prm.deductions.pdsadaptor.client.SimpleHttpClient;
+
+import java.time.Duration;
+
+@Configuration
+public class HttpClientConfig {
+
+    private static final Duration TIMEOUT = Duration.ofMillis(11000);
+
+    @Bean
+    @Qualifier("pdsFhirTransport")
+    @ConditionalOnProperty(name = "pds.fhir.http.transport", havingValue = "blocking", matchIfMissing = true)
+    public HttpClient blockingPdsFhirTransport(RestTemplate restTemplate) {
+        return new SimpleHttpClient(restTemplate);
+    }
+
+    @Bean
+    @Qualifier("pdsFhirTransport")
+    @ConditionalOnProperty(name = "pds.fhir.http.transport", havingValue = "non-blocking")
+    public HttpClient nonBlockingPdsFhirTransport(RestTemplate restTemplate, ObjectMapper objectMapper, HttpStreamMetrics streamMetrics,
+                                                  ResponseCompression responseCompression) {
+        var jdkHttpClient = jdkHttpClient(java.net.http.HttpClient.Version.HTTP_1_1);
+        return new NonBlockingHttpClient(jdkHttpClient, restTemplate.getMessageConverters(), objectMapper, streamMetrics, responseCompression, TIMEOUT);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "pds.fhir.http.transport", havingValue = "http2")
+    public java.net.http.HttpClient http2Client() {
+        // negotiates h2 via ALPN and falls back to HTTP/1.1 on a per connection basis if the peer declines
+        return jdkHttpClient(java.net.http.HttpClient.Version.HTTP_2);
+    }
+
+    @Bean
+    @Qualifier("pdsFhirTransport")
+    @ConditionalOnProperty(name = "pds.fhir.http.transport", havingValue = "http2")
+    public HttpClient http2PdsFhirTransport(java.net.http.HttpClient http2Client, RestTemplate restTemplate,
+                                            ObjectMapper objectMapper, HttpStreamMetrics streamMetrics,
+                                            ResponseCompression responseCompression) {
+        return new NonBlockingHttpClient(http2Client, restTemplate.getMessageConverters(), objectMapper, streamMetrics, responseCompression, TIMEOUT);
+    }
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "pds.fhir.http.transport", havingValue = "http2")
+    public RestTemplate http2RestTemplate(java.net.http.HttpClient http2Client, HttpStreamMetrics streamMetrics,
+                                          ResponseCompression responseCompression) {
+        // takes over from the apache based template, though access token requests keep to AccessTokenHttpClient
+        return RestTemplateConfig.configure(new RestTemplate(new JdkClientHttpRequestFactory(http2Client, streamMetrics, TIMEOUT)), responseCompression);
+    }
+
+    private java.net.http.HttpClient jdkHttpClient(java.net.http.HttpClient.Version version) {
+        return java.net.http.HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(TIMEOUT)
+                .build();
+    }
+}
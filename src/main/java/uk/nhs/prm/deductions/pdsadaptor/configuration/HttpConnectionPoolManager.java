@@ -0,0 +1,171 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+@Slf4j
+@Component
+public class HttpConnectionPoolManager implements DisposableBean {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final HttpClientConnectionManager timedConnectionManager;
+    private final IdleConnectionEvictor idleConnectionEvictor;
+    private final MeterRegistry meterRegistry;
+    private final long maxKeepAliveMillis;
+    private final int leaseTimeoutMillis;
+    private final Map<String, HttpRoute> namedRoutes = new LinkedHashMap<>();
+
+    public HttpConnectionPoolManager(@Value("${pdsFhirEndpoint}") String pdsFhirEndpoint,
+                                     @Value("${accessTokenEndpoint}") String accessTokenEndpoint,
+                                     @Value("${http.pool.max.total}") int maxTotal,
+                                     @Value("${http.pool.pds.fhir.max.per.route}") int pdsFhirMaxPerRoute,
+                                     @Value("${http.pool.access.token.max.per.route}") int accessTokenMaxPerRoute,
+                                     @Value("${http.pool.validate.after.inactivity.ms}") int validateAfterInactivityMillis,
+                                     @Value("${http.pool.max.idle.ms}") long maxIdleMillis,
+                                     @Value("${http.pool.max.keep.alive.ms}") long maxKeepAliveMillis,
+                                     @Value("${http.pool.lease.timeout.ms}") int leaseTimeoutMillis,
+                                     MeterRegistry meterRegistry) {
+        this.maxKeepAliveMillis = maxKeepAliveMillis;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.meterRegistry = meterRegistry;
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(pdsFhirMaxPerRoute);
+        connectionManager.setValidateAfterInactivity(validateAfterInactivityMillis);
+        limitRoute("pds-fhir", pdsFhirEndpoint, pdsFhirMaxPerRoute);
+        limitRoute("access-token", accessTokenEndpoint, accessTokenMaxPerRoute);
+
+        idleConnectionEvictor = new IdleConnectionEvictor(connectionManager, evictionInterval(maxIdleMillis), TimeUnit.MILLISECONDS,
+                maxIdleMillis, TimeUnit.MILLISECONDS);
+        idleConnectionEvictor.start();
+
+        timedConnectionManager = new TimedHttpClientConnectionManager(connectionManager, this::leaseTimer, this::connectionUsageTimer);
+        registerPoolGauges("all", ignored -> connectionManager.getTotalStats());
+        namedRoutes.keySet().forEach(routeName -> registerPoolGauges(routeName, this::routeStats));
+    }
+
+    public PoolingHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    public HttpClientConnectionManager getTimedConnectionManager() {
+        return timedConnectionManager;
+    }
+
+    public int getLeaseTimeoutMillis() {
+        return leaseTimeoutMillis;
+    }
+
+    public ConnectionKeepAliveStrategy keepAliveStrategy() {
+        return keepAliveStrategy(maxKeepAliveMillis);
+    }
+
+    static ConnectionKeepAliveStrategy keepAliveStrategy(long maxKeepAliveMillis) {
+        return (response, context) -> {
+            var serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, maxKeepAliveMillis) : maxKeepAliveMillis;
+        };
+    }
+
+    public PoolStats routeStats(String routeName) {
+        return connectionManager.getStats(namedRoutes.get(routeName));
+    }
+
+    @Override
+    public void destroy() {
+        idleConnectionEvictor.shutdown();
+        connectionManager.shutdown();
+    }
+
+    private Timer leaseTimer(HttpRoute route, String outcome) {
+        return Timer.builder("pds.http.pool.lease")
+                .description("Time spent waiting to lease a pooled connection")
+                .tag("route", routeName(route))
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private Timer connectionUsageTimer(HttpRoute route) {
+        return Timer.builder("pds.http.connection.usage")
+                .description("Time a leased connection is in use on the network before being released")
+                .tag("route", routeName(route))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private String routeName(HttpRoute route) {
+        return namedRoutes.entrySet().stream()
+                .filter(namedRoute -> namedRoute.getValue().equals(route))
+                .map(Map.Entry::getKey)
+                .findFirst()
+                .orElse("other");
+    }
+
+    private void registerPoolGauges(String routeName, Function<String, PoolStats> stats) {
+        registerPoolGauge("pds.http.pool.leased", routeName, stats, PoolStats::getLeased);
+        registerPoolGauge("pds.http.pool.available", routeName, stats, PoolStats::getAvailable);
+        registerPoolGauge("pds.http.pool.pending", routeName, stats, PoolStats::getPending);
+        registerPoolGauge("pds.http.pool.max", routeName, stats, PoolStats::getMax);
+    }
+
+    private void registerPoolGauge(String name, String routeName, Function<String, PoolStats> stats, ToDoubleFunction<PoolStats> value) {
+        Gauge.builder(name, () -> value.applyAsDouble(stats.apply(routeName)))
+                .tag("route", routeName)
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return the direct route to the endpoint's host, or null if it has none
+     */
+    static HttpRoute route(String endpoint) {
+        var uri = URI.create(endpoint);
+        if (uri.getHost() == null) {
+            return null;
+        }
+        var secure = "https".equalsIgnoreCase(uri.getScheme());
+        var port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+        return new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+    }
+
+    private void limitRoute(String routeName, String endpoint, int maxPerRoute) {
+        var route = route(endpoint);
+        if (route == null) {
+            log.warn("Cannot apply connection limit to " + routeName + " route as its endpoint has no host");
+            return;
+        }
+
+        if (namedRoutes.containsValue(route)) {
+            log.info(routeName + " endpoint shares a route already limited, keeping the existing limit");
+            namedRoutes.put(routeName, route);
+            return;
+        }
+        connectionManager.setMaxPerRoute(route, maxPerRoute);
+        namedRoutes.put(routeName, route);
+    }
+
+    private static long evictionInterval(long maxIdleMillis) {
+        return Math.max(1000, maxIdleMillis / 2);
+    }
+}
@@ -0,0 +1,67 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Instances are configured under resilience4j.* in application.properties, and their state is exposed
+ * through the actuator health, circuitbreakers, bulkheads and metrics endpoints.
+ */
+@Slf4j
+@Configuration
+public class ResilienceConfig {
+
+    @Bean
+    public CircuitBreaker pdsFhirCircuitBreaker(CircuitBreakerRegistry registry) {
+        return registry.circuitBreaker("pdsFhir");
+    }
+
+    @Bean
+    public CircuitBreaker accessTokenCircuitBreaker(CircuitBreakerRegistry registry) {
+        return registry.circuitBreaker("accessToken");
+    }
+
+    // a hedged retrieval holds a second pooled connection under the same permit, so with hedging on only half as many
+    // retrievals are let in, keeping them to the connections set aside for them
+    @Bean
+    public Bulkhead pdsFhirRetrievalBulkhead(BulkheadRegistry registry, MeterRegistry meterRegistry,
+                                             @Value("${pds.fhir.hedging.enabled}") boolean hedgingEnabled) {
+        var bulkhead = registry.bulkhead("pdsFhirRetrieval");
+        if (hedgingEnabled) {
+            var config = bulkhead.getBulkheadConfig();
+            var maxConcurrentCalls = Math.max(1, config.getMaxConcurrentCalls() / 2);
+            bulkhead.changeConfig(BulkheadConfig.from(config).maxConcurrentCalls(maxConcurrentCalls).build());
+            log.info("PDS FHIR hedging is enabled, so allowing " + maxConcurrentCalls + " concurrent retrievals");
+        }
+        return countingRejections(bulkhead, meterRegistry);
+    }
+
+    @Bean
+    public Bulkhead pdsFhirUpdateBulkhead(BulkheadRegistry registry, MeterRegistry meterRegistry) {
+        return countingRejections(registry.bulkhead("pdsFhirUpdate"), meterRegistry);
+    }
+
+    @Bean
+    public Bulkhead accessTokenBulkhead(BulkheadRegistry registry, MeterRegistry meterRegistry) {
+        return countingRejections(registry.bulkhead("accessToken"), meterRegistry);
+    }
+
+    // resilience4j only publishes gauges of the calls in flight, so count the calls turned away alongside them
+    private static Bulkhead countingRejections(Bulkhead bulkhead, MeterRegistry meterRegistry) {
+        var rejected = Counter.builder("resilience4j.bulkhead.rejected.calls")
+                .description("Calls rejected because the bulkhead was full")
+                .tag("name", bulkhead.getName())
+                .register(meterRegistry);
+        bulkhead.getEventPublisher().onCallRejected(event -> rejected.increment());
+        return bulkhead;
+    }
+}
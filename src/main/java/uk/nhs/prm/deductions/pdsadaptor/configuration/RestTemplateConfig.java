@@ -6,21 +6,39 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
+import uk.nhs.prm.deductions.pdsadaptor.client.PdsFhirPatientHttpMessageConverter;
+import uk.nhs.prm.deductions.pdsadaptor.client.ResponseCompression;
 
 @Configuration
 @RequiredArgsConstructor
 public class RestTemplateConfig {
 
+    private final HttpConnectionPoolManager connectionPoolManager;
+    private final ResponseCompression responseCompression;
+
     @Bean
     public RestTemplate apacheBasedRestTemplate() {
-        return new RestTemplate(apacheHttpClientRequestFactory());
+        return configure(new RestTemplate(apacheHttpClientRequestFactory()), responseCompression);
+    }
+
+    static RestTemplate configure(RestTemplate restTemplate, ResponseCompression responseCompression) {
+        restTemplate.getMessageConverters().add(0, new PdsFhirPatientHttpMessageConverter());
+        restTemplate.getInterceptors().add(responseCompression.interceptor());
+        return restTemplate;
     }
 
     private HttpComponentsClientHttpRequestFactory apacheHttpClientRequestFactory() {
         HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
         requestFactory.setConnectTimeout(11000);
         requestFactory.setReadTimeout(11000);
-        requestFactory.setHttpClient(HttpClients.custom().setMaxConnTotal(50).setMaxConnPerRoute(10).build());
+        requestFactory.setConnectionRequestTimeout(connectionPoolManager.getLeaseTimeoutMillis());
+        requestFactory.setHttpClient(HttpClients.custom()
+                .setConnectionManager(connectionPoolManager.getTimedConnectionManager())
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy(connectionPoolManager.keepAliveStrategy())
+                // negotiated and decoded by ResponseCompression instead, so it can be switched per endpoint and measured
+                .disableContentCompression()
+                .build());
         return requestFactory;
     }
 }
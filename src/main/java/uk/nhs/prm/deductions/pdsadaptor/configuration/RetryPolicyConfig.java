@@ -0,0 +1,61 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.BackoffPolicy;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.DecorrelatedJitterBackoff;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.FullJitterBackoff;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.RetryPolicy;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.Sleeper;
+
+import java.time.Duration;
+
+@Configuration
+public class RetryPolicyConfig {
+
+    @Bean
+    public RetryPolicy pdsFhirRetrievalRetryPolicy(@Value("${pds.fhir.retrieval.number.of.tries}") int maxTries,
+                                                   @Value("${pds.fhir.retry.retrieval.jitter}") String jitter,
+                                                   @Value("${pds.fhir.retry.retrieval.base.delay.ms}") long baseDelayMillis,
+                                                   @Value("${pds.fhir.retry.retrieval.max.delay.ms}") long maxDelayMillis,
+                                                   @Value("${pds.fhir.retry.retrieval.max.elapsed.ms}") long maxElapsedMillis) {
+        return new RetryPolicy(maxTries, Duration.ofMillis(maxElapsedMillis), backoffPolicy(jitter, baseDelayMillis, maxDelayMillis));
+    }
+
+    @Bean
+    public RetryPolicy pdsFhirUpdateRetryPolicy(@Value("${pds.fhir.update.number.of.tries}") int maxTries,
+                                                @Value("${pds.fhir.retry.update.jitter}") String jitter,
+                                                @Value("${pds.fhir.retry.update.base.delay.ms}") long baseDelayMillis,
+                                                @Value("${pds.fhir.retry.update.max.delay.ms}") long maxDelayMillis,
+                                                @Value("${pds.fhir.retry.update.max.elapsed.ms}") long maxElapsedMillis) {
+        return new RetryPolicy(maxTries, Duration.ofMillis(maxElapsedMillis), backoffPolicy(jitter, baseDelayMillis, maxDelayMillis));
+    }
+
+    @Bean
+    public RetryPolicy accessTokenRetryPolicy(@Value("${access.token.number.of.tries}") int maxTries,
+                                              @Value("${access.token.retry.jitter}") String jitter,
+                                              @Value("${access.token.retry.base.delay.ms}") long baseDelayMillis,
+                                              @Value("${access.token.retry.max.delay.ms}") long maxDelayMillis,
+                                              @Value("${access.token.retry.max.elapsed.ms}") long maxElapsedMillis) {
+        return new RetryPolicy(maxTries, Duration.ofMillis(maxElapsedMillis), backoffPolicy(jitter, baseDelayMillis, maxDelayMillis));
+    }
+
+    @Bean
+    public Sleeper retrySleeper() {
+        return Sleeper.THREAD_SLEEPER;
+    }
+
+    private static BackoffPolicy backoffPolicy(String jitter, long baseDelayMillis, long maxDelayMillis) {
+        var baseDelay = Duration.ofMillis(baseDelayMillis);
+        var maxDelay = Duration.ofMillis(maxDelayMillis);
+        switch (jitter) {
+            case "full":
+                return new FullJitterBackoff(baseDelay, maxDelay);
+            case "decorrelated":
+                return new DecorrelatedJitterBackoff(baseDelay, maxDelay);
+            default:
+                throw new IllegalArgumentException("Unknown retry jitter '" + jitter + "', expected full or decorrelated");
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import uk.nhs.prm.deductions.pdsadaptor.cache.InProcessSharedCacheTier;
+import uk.nhs.prm.deductions.pdsadaptor.cache.RedisSharedCacheTier;
+import uk.nhs.prm.deductions.pdsadaptor.cache.SharedCacheTier;
+
+import java.time.Duration;
+
+/**
+ * The patient status cache tier shared between tasks: none, in-process (this task only, for tests and local runs)
+ * or redis.
+ */
+@Configuration
+public class SharedCacheTierConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "pds.cache.shared.tier", havingValue = "none", matchIfMissing = true)
+    public SharedCacheTier noSharedCacheTier() {
+        return SharedCacheTier.none();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "pds.cache.shared.tier", havingValue = "in-process")
+    public SharedCacheTier inProcessSharedCacheTier() {
+        return new InProcessSharedCacheTier();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "pds.cache.shared.tier", havingValue = "redis")
+    public SharedCacheTier redisSharedCacheTier(@Value("${pds.cache.shared.redis.host}") String host,
+                                                @Value("${pds.cache.shared.redis.port}") int port,
+                                                @Value("${pds.cache.shared.redis.ssl}") boolean ssl,
+                                                @Value("${pds.cache.shared.redis.timeout.millis}") long timeoutMillis,
+                                                @Value("${pds.cache.shared.redis.key.prefix}") String keyPrefix) {
+        return new RedisSharedCacheTier(host, port, ssl, Duration.ofMillis(timeoutMillis), keyPrefix);
+    }
+}
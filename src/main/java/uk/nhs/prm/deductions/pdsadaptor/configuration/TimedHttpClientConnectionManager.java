@@ -0,0 +1,117 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Times how long requests queue for a pooled connection separately from how long they then hold it for,
+ * so that pool starvation can be told apart from slow responses.
+ */
+class TimedHttpClientConnectionManager implements HttpClientConnectionManager {
+
+    private final HttpClientConnectionManager delegate;
+    private final BiFunction<HttpRoute, String, Timer> leaseTimer;
+    private final Function<HttpRoute, Timer> usageTimer;
+    private final Map<HttpClientConnection, Lease> leases = new ConcurrentHashMap<>();
+
+    TimedHttpClientConnectionManager(HttpClientConnectionManager delegate,
+                                     BiFunction<HttpRoute, String, Timer> leaseTimer,
+                                     Function<HttpRoute, Timer> usageTimer) {
+        this.delegate = delegate;
+        this.leaseTimer = leaseTimer;
+        this.usageTimer = usageTimer;
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        var request = delegate.requestConnection(route, state);
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit timeUnit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                var waitStart = System.nanoTime();
+                var outcome = "failed";
+                try {
+                    var connection = request.get(timeout, timeUnit);
+                    outcome = "leased";
+                    leases.put(connection, new Lease(route, System.nanoTime()));
+                    return connection;
+                }
+                catch (ConnectionPoolTimeoutException e) {
+                    outcome = "timeout";
+                    throw e;
+                }
+                finally {
+                    leaseTimer.apply(route, outcome).record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void releaseConnection(HttpClientConnection connection, Object newState, long validDuration, TimeUnit timeUnit) {
+        var lease = leases.remove(connection);
+        if (lease != null) {
+            usageTimer.apply(lease.route).record(System.nanoTime() - lease.startNanos, TimeUnit.NANOSECONDS);
+        }
+        delegate.releaseConnection(connection, newState, validDuration, timeUnit);
+    }
+
+    @Override
+    public void connect(HttpClientConnection connection, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+        delegate.connect(connection, route, connectTimeout, context);
+    }
+
+    @Override
+    public void upgrade(HttpClientConnection connection, HttpRoute route, HttpContext context) throws IOException {
+        delegate.upgrade(connection, route, context);
+    }
+
+    @Override
+    public void routeComplete(HttpClientConnection connection, HttpRoute route, HttpContext context) throws IOException {
+        delegate.routeComplete(connection, route, context);
+    }
+
+    @Override
+    public void closeIdleConnections(long idleTime, TimeUnit timeUnit) {
+        delegate.closeIdleConnections(idleTime, timeUnit);
+    }
+
+    @Override
+    public void closeExpiredConnections() {
+        delegate.closeExpiredConnections();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    private static class Lease {
+        private final HttpRoute route;
+        private final long startNanos;
+
+        Lease(HttpRoute route, long startNanos) {
+            this.route = route;
+            this.startNanos = startNanos;
+        }
+    }
+}
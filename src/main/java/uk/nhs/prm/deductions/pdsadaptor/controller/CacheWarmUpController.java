@@ -0,0 +1,46 @@
+package uk.nhs.prm.deductions.pdsadaptor.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import uk.nhs.prm.deductions.pdsadaptor.model.CacheWarmUpStatus;
+import uk.nhs.prm.deductions.pdsadaptor.service.CacheWarmUp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Principal;
+
+@RestController
+@RequestMapping("cache-warm-up")
+@RequiredArgsConstructor
+@Slf4j
+public class CacheWarmUpController {
+
+    private final CacheWarmUp cacheWarmUp;
+
+    @Operation(security = @SecurityRequirement(name = "basicAuth"))
+    @PostMapping(consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<CacheWarmUpStatus> startWarmUp(InputStream nhsNumbers, Principal principal) throws IOException {
+        log.info("Cache warm up requested by {}", principal.getName());
+        if (!cacheWarmUp.isCacheEnabled()) {
+            log.warn("Not starting cache warm up as the patient status cache is disabled");
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(cacheWarmUp.status());
+        }
+        if (!cacheWarmUp.startFromRequest(nhsNumbers)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(cacheWarmUp.status());
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(cacheWarmUp.status());
+    }
+
+    @Operation(security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping
+    @ResponseStatus(HttpStatus.OK)
+    public CacheWarmUpStatus getWarmUpStatus() {
+        return cacheWarmUp.status();
+    }
+}
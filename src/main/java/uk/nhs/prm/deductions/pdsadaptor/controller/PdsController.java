@@ -4,6 +4,7 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 import uk.nhs.prm.deductions.pdsadaptor.configuration.Tracer;
@@ -28,9 +29,14 @@ public class PdsController {
     @GetMapping("/{nhsNumber}")
     @ResponseStatus(HttpStatus.OK)
     public SuspendedPatientStatus getPatientGpStatus(@PathVariable("nhsNumber") @NotBlank @Size(max = 10, min = 10) String nhsNumber,
-                                                     @RequestHeader(value = "traceId", required = false) String traceId, Principal principal) {
+                                                     @RequestHeader(value = "traceId", required = false) String traceId,
+                                                     @RequestHeader(value = HttpHeaders.CACHE_CONTROL, required = false) String cacheControl,
+                                                     Principal principal) {
         tracer.setTraceId(traceId);
         log.info("Request for pds record received from {}", principal.getName());
+        if (isNoCache(cacheControl)) {
+            return pdsService.getPatientGpStatusBypassingCache(nhsNumber);
+        }
         return pdsService.getPatientGpStatus(nhsNumber);
     }
 
@@ -44,4 +50,8 @@ public class PdsController {
         log.info("Update request for pds record received from {}", principal.getName());
         return pdsService.updatePatientManagingOrganisation(nhsNumber, updateRequest);
     }
+
+    private boolean isNoCache(String cacheControl) {
+        return cacheControl != null && cacheControl.toLowerCase().contains("no-cache");
+    }
 }
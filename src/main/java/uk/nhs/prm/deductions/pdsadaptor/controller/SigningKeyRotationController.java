@@ -0,0 +1,34 @@
+package uk.nhs.prm.deductions.pdsadaptor.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import uk.nhs.prm.deductions.pdsadaptor.service.SigningKeyRotation;
+
+import java.security.Principal;
+
+@RestController
+@RequestMapping("signing-key-rotation")
+@RequiredArgsConstructor
+@Slf4j
+public class SigningKeyRotationController {
+
+    private final SigningKeyRotation signingKeyRotation;
+
+    @Operation(security = @SecurityRequirement(name = "basicAuth"))
+    @PostMapping
+    public ResponseEntity<String> rotateSigningKey(Principal principal) {
+        log.info("Signing key rotation requested by {}", principal.getName());
+        if (!signingKeyRotation.isAvailable()) {
+            log.warn("Not rotating signing key as this environment does not read it from SSM");
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        return ResponseEntity.ok(signingKeyRotation.rotate());
+    }
+}
@@ -0,0 +1,27 @@
+package uk.nhs.prm.deductions.pdsadaptor.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+
+@Value
+@Builder
+public class CacheWarmUpStatus {
+
+    public enum State { NOT_STARTED, RUNNING, COMPLETED, STOPPED }
+
+    State state;
+    String source;
+    Instant startedAt;
+    Instant completedAt;
+    long processed;
+    long warmed;
+    long notFound;
+    long invalid;
+    long failed;
+
+    public static CacheWarmUpStatus notStarted() {
+        return CacheWarmUpStatus.builder().state(State.NOT_STARTED).build();
+    }
+}
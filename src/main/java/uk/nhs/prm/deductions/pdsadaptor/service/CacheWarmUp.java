@@ -0,0 +1,384 @@
+package uk.nhs.prm.deductions.pdsadaptor.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.BulkheadRejectedException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.ClientRateLimitExceededException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.NotFoundException;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.Sleeper;
+import uk.nhs.prm.deductions.pdsadaptor.model.CacheWarmUpStatus;
+import uk.nhs.prm.deductions.pdsadaptor.model.CacheWarmUpStatus.State;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Fills the patient status cache ahead of a batch that is known to ask about a list of NHS numbers, given one per
+ * line in a file named at startup or in the body of a request.
+ * <p>
+ * NHS numbers are read as they are needed rather than all up front, and looked up through {@link PdsService} so
+ * that fresh cache entries are not fetched again. Lookups are paced to the warm-up rate, which should leave room
+ * under the PDS quota for live traffic, and the warm-up stops if PDS keeps failing. A lookup turned away by our own
+ * bulkhead or rate limit is not a PDS failure, it means live traffic needs the capacity, so it is tried again later.
+ * <p>
+ * There is nothing to warm while the patient status cache is disabled, so no warm up is started.
+ */
+@Slf4j
+@Component
+public class CacheWarmUp implements DisposableBean {
+
+    private static final long PROGRESS_LOG_INTERVAL = 1000;
+    private static final Duration BACK_PRESSURE_PAUSE = Duration.ofSeconds(1);
+
+    private final PdsService pdsService;
+    private final boolean cacheEnabled;
+    private final String startupFile;
+    private final double ratePerSecond;
+    private final long intervalNanos;
+    private final int concurrency;
+    private final int maxConsecutiveFailures;
+    private final Sleeper sleeper;
+    private final LongSupplier nanoClock;
+    private final Clock clock;
+    private final ExecutorService executor;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong nextLookupNanos = new AtomicLong(Long.MIN_VALUE);
+    private final MeterRegistry meterRegistry;
+    private final Counter backPressure;
+
+    private volatile Job job;
+
+    @Autowired
+    public CacheWarmUp(PdsService pdsService,
+                       @Value("${pds.cache.enabled}") boolean cacheEnabled,
+                       @Value("${pds.cache.warm.up.file}") String startupFile,
+                       @Value("${pds.cache.warm.up.rate.per.second}") double ratePerSecond,
+                       @Value("${pds.cache.warm.up.concurrency}") int concurrency,
+                       @Value("${pds.cache.warm.up.max.consecutive.failures}") int maxConsecutiveFailures,
+                       Sleeper sleeper,
+                       MeterRegistry meterRegistry) {
+        this(pdsService, cacheEnabled, startupFile, ratePerSecond, concurrency, maxConsecutiveFailures, sleeper, System::nanoTime,
+                Clock.systemUTC(), meterRegistry);
+    }
+
+    CacheWarmUp(PdsService pdsService, boolean cacheEnabled, String startupFile, double ratePerSecond, int concurrency,
+                int maxConsecutiveFailures, Sleeper sleeper, LongSupplier nanoClock, Clock clock, MeterRegistry meterRegistry) {
+        this.pdsService = pdsService;
+        this.cacheEnabled = cacheEnabled;
+        this.startupFile = startupFile;
+        this.ratePerSecond = ratePerSecond;
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        this.concurrency = concurrency;
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        this.sleeper = sleeper;
+        this.nanoClock = nanoClock;
+        this.clock = clock;
+        this.meterRegistry = meterRegistry;
+        this.executor = warmUpExecutor(concurrency);
+
+        Gauge.builder("pds.cache.warm.up.running", running, isRunning -> isRunning.get() ? 1 : 0)
+                .description("Whether a cache warm up is in progress")
+                .register(meterRegistry);
+        backPressure = Counter.builder("pds.cache.warm.up.back.pressure")
+                .description("Cache warm up lookups turned away by the PDS FHIR bulkhead or rate limit, to be tried again")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpFromStartupFile() {
+        if (startupFile == null || startupFile.isBlank()) {
+            return;
+        }
+        if (!cacheEnabled) {
+            log.warn("Not warming the cache from " + startupFile + " as the patient status cache is disabled");
+            return;
+        }
+        try {
+            if (!startFromFile(Paths.get(startupFile))) {
+                log.warn("Cache warm up already running, not starting another from " + startupFile);
+            }
+        }
+        catch (IOException e) {
+            log.error("Could not read NHS numbers to warm the cache with from " + startupFile, e);
+        }
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public boolean startFromFile(Path nhsNumbers) throws IOException {
+        if (!cacheEnabled || !running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            start(nhsNumbers.toString(), nhsNumbers, false);
+        }
+        catch (IOException | RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    public boolean startFromRequest(InputStream nhsNumbers) throws IOException {
+        if (!cacheEnabled || !running.compareAndSet(false, true)) {
+            return false;
+        }
+        Path copy = null;
+        try {
+            // keep the request body on disk rather than in memory while the warm up works through it
+            copy = Files.createTempFile("pds-cache-warm-up", ".txt");
+            Files.copy(nhsNumbers, copy, REPLACE_EXISTING);
+            start("request", copy, true);
+        }
+        catch (IOException | RuntimeException e) {
+            if (copy != null) {
+                Files.deleteIfExists(copy);
+            }
+            running.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    public CacheWarmUpStatus status() {
+        var currentJob = job;
+        return currentJob == null ? CacheWarmUpStatus.notStarted() : currentJob.status();
+    }
+
+    CompletableFuture<Void> completion() {
+        var currentJob = job;
+        return currentJob == null ? CompletableFuture.completedFuture(null) : currentJob.done;
+    }
+
+    @Override
+    public void destroy() {
+        var currentJob = job;
+        if (currentJob != null) {
+            currentJob.stopped.set(true);
+        }
+        executor.shutdownNow();
+    }
+
+    private void start(String source, Path file, boolean deleteWhenDone) throws IOException {
+        var reader = Files.newBufferedReader(file, UTF_8);
+        var newJob = new Job(source, reader, file, deleteWhenDone, clock.instant());
+        job = newJob;
+        log.info("Starting cache warm up from " + source + " at " + ratePerSecond + " lookups per second");
+        var workers = new CompletableFuture<?>[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            workers[i] = CompletableFuture.runAsync(() -> warmUp(newJob), executor);
+        }
+        CompletableFuture.allOf(workers).whenComplete((result, error) -> finish(newJob));
+    }
+
+    private void warmUp(Job job) {
+        String line;
+        while (!job.stopped.get() && (line = job.nextLine()) != null) {
+            var nhsNumber = line.trim();
+            if (nhsNumber.isEmpty()) {
+                continue;
+            }
+            if (!isNhsNumber(nhsNumber)) {
+                job.record(job.invalid, "invalid");
+                continue;
+            }
+            if (!awaitTurn()) {
+                job.stopped.set(true);
+                return;
+            }
+            lookUp(job, nhsNumber);
+        }
+    }
+
+    private void lookUp(Job job, String nhsNumber) {
+        while (!job.stopped.get()) {
+            try {
+                pdsService.getPatientGpStatus(nhsNumber);
+                job.consecutiveFailures.set(0);
+                job.record(job.warmed, "warmed");
+                return;
+            }
+            catch (NotFoundException e) {
+                job.consecutiveFailures.set(0);
+                job.record(job.notFound, "not-found");
+                return;
+            }
+            catch (BulkheadRejectedException | ClientRateLimitExceededException e) {
+                backPressure.increment();
+                if (!pause(BACK_PRESSURE_PAUSE)) {
+                    job.stopped.set(true);
+                    return;
+                }
+            }
+            catch (RuntimeException e) {
+                job.record(job.failed, "failed");
+                if (job.consecutiveFailures.incrementAndGet() >= maxConsecutiveFailures && job.stopped.compareAndSet(false, true)) {
+                    log.error("Stopping cache warm up from " + job.source + " after " + maxConsecutiveFailures
+                            + " failed lookups in a row, last failure: " + e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean awaitTurn() {
+        var now = nanoClock.getAsLong();
+        var previous = nextLookupNanos.getAndAccumulate(now, (next, current) -> Math.max(next, current) + intervalNanos);
+        var wait = Math.max(previous, now) - now;
+        if (wait <= 0) {
+            return true;
+        }
+        return pause(Duration.ofNanos(wait));
+    }
+
+    private boolean pause(Duration duration) {
+        try {
+            sleeper.sleep(duration);
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void finish(Job finishedJob) {
+        try {
+            finishedJob.reader.close();
+            if (finishedJob.deleteWhenDone) {
+                Files.deleteIfExists(finishedJob.file);
+            }
+        }
+        catch (IOException e) {
+            log.warn("Could not tidy up after cache warm up: " + e.getMessage());
+        }
+        finishedJob.complete(clock.instant());
+        var status = finishedJob.status();
+        log.info("Cache warm up from " + status.getSource() + " " + status.getState().name().toLowerCase() + ": "
+                + progress(status));
+        running.set(false);
+        finishedJob.done.complete(null);
+    }
+
+    private static String progress(CacheWarmUpStatus status) {
+        return status.getProcessed() + " processed, " + status.getWarmed() + " warmed, " + status.getNotFound() + " not found, "
+                + status.getInvalid() + " invalid, " + status.getFailed() + " failed";
+    }
+
+    private static boolean isNhsNumber(String value) {
+        return value.length() == 10 && value.chars().allMatch(c -> c >= '0' && c <= '9');
+    }
+
+    private static ExecutorService warmUpExecutor(int concurrency) {
+        var threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(concurrency, runnable -> {
+            var thread = new Thread(runnable, "pds-cache-warm-up-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private class Job {
+        final String source;
+        final BufferedReader reader;
+        final Path file;
+        final boolean deleteWhenDone;
+        final Instant startedAt;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong warmed = new AtomicLong();
+        final AtomicLong notFound = new AtomicLong();
+        final AtomicLong invalid = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        volatile Instant completedAt;
+        volatile boolean finishedEarly;
+
+        Job(String source, BufferedReader reader, Path file, boolean deleteWhenDone, Instant startedAt) {
+            this.source = source;
+            this.reader = reader;
+            this.file = file;
+            this.deleteWhenDone = deleteWhenDone;
+            this.startedAt = startedAt;
+        }
+
+        String nextLine() {
+            synchronized (reader) {
+                try {
+                    return reader.readLine();
+                }
+                catch (IOException e) {
+                    log.error("Could not read NHS numbers to warm the cache with from " + source, e);
+                    stopped.set(true);
+                    return null;
+                }
+            }
+        }
+
+        void record(AtomicLong outcome, String result) {
+            outcome.incrementAndGet();
+            Counter.builder("pds.cache.warm.up.patients")
+                    .description("NHS numbers worked through by cache warm ups, by outcome")
+                    .tag("result", result)
+                    .register(meterRegistry)
+                    .increment();
+            if (processed.incrementAndGet() % PROGRESS_LOG_INTERVAL == 0) {
+                log.info("Cache warm up from " + source + " in progress: " + progress(status()));
+            }
+        }
+
+        void complete(Instant at) {
+            finishedEarly = stopped.get();
+            completedAt = at;
+        }
+
+        CacheWarmUpStatus status() {
+            State state;
+            if (completedAt == null) {
+                state = State.RUNNING;
+            } else {
+                state = finishedEarly ? State.STOPPED : State.COMPLETED;
+            }
+            return CacheWarmUpStatus.builder()
+                    .state(state)
+                    .source(source)
+                    .startedAt(startedAt)
+                    .completedAt(completedAt)
+                    .processed(processed.get())
+                    .warmed(warmed.get())
+                    .notFound(notFound.get())
+                    .invalid(invalid.get())
+                    .failed(failed.get())
+                    .build();
+        }
+    }
+}
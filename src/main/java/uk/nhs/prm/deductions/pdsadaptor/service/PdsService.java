@@ -2,12 +2,21 @@ package uk.nhs.prm.deductions.pdsadaptor.service;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import uk.nhs.prm.deductions.pdsadaptor.cache.CacheInvalidationBus;
+import uk.nhs.prm.deductions.pdsadaptor.cache.CachedPatientStatus;
+import uk.nhs.prm.deductions.pdsadaptor.cache.NotFoundCache;
+import uk.nhs.prm.deductions.pdsadaptor.cache.PatientStatusCache;
+import uk.nhs.prm.deductions.pdsadaptor.cache.RefreshAhead;
 import uk.nhs.prm.deductions.pdsadaptor.client.RetryingPdsFhirClient;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.NotFoundException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.PreconditionFailedException;
 import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
 import uk.nhs.prm.deductions.pdsadaptor.model.UpdateManagingOrganisationRequest;
 import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.GeneralPractitioner;
 import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
 
+import java.util.function.Supplier;
+
 import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.*;
 
 @Service
@@ -15,15 +24,87 @@ import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.*;
 public class PdsService {
 
     private final RetryingPdsFhirClient pdsFhirClient;
+    private final PatientStatusCache patientStatusCache;
+    private final NotFoundCache notFoundCache;
+    private final RefreshAhead refreshAhead;
+    private final CacheInvalidationBus invalidationBus;
 
     public SuspendedPatientStatus getPatientGpStatus(String nhsNumber) {
-        PdsFhirPatient pdsResponse = pdsFhirClient.requestPdsRecordByNhsNumber(nhsNumber);
-        return convertToPatientStatusObject(pdsResponse);
+        if (notFoundCache.isKnownMissing(nhsNumber)) {
+            throw new NotFoundException("PDS FHIR Request not made - Patient recently not found 404");
+        }
+        return patientStatusCache.getFreshEntry(nhsNumber)
+                .map(freshEntry -> {
+                    refreshAhead.refreshIfDue(nhsNumber, freshEntry, () -> refreshPatientGpStatus(nhsNumber, freshEntry));
+                    return freshEntry.getStatus();
+                })
+                .orElseGet(() -> patientStatusCache.getStale(nhsNumber)
+                        .map(staleEntry -> revalidatePatientGpStatus(nhsNumber, staleEntry))
+                        .orElseGet(() -> fetchPatientGpStatus(nhsNumber)));
+    }
+
+    public SuspendedPatientStatus getPatientGpStatusBypassingCache(String nhsNumber) {
+        patientStatusCache.recordBypass();
+        return fetchPatientGpStatus(nhsNumber);
     }
 
     public SuspendedPatientStatus updatePatientManagingOrganisation(String nhsNumber, UpdateManagingOrganisationRequest updateRequest) {
-        PdsFhirPatient pdsResponse = pdsFhirClient.updateManagingOrganisation(nhsNumber, updateRequest);
-        return convertToPatientStatusObject(pdsResponse);
+        PdsFhirPatient pdsResponse = evictingOnStaleETag(nhsNumber, () -> pdsFhirClient.updateManagingOrganisation(nhsNumber, updateRequest));
+        var updatedStatus = cachePatientStatus(nhsNumber, convertToPatientStatusObject(pdsResponse));
+        invalidationBus.publish(nhsNumber, updatedStatus);
+        return updatedStatus;
+    }
+
+    private SuspendedPatientStatus fetchPatientGpStatus(String nhsNumber) {
+        PdsFhirPatient pdsResponse = rememberingNotFound(nhsNumber, () -> pdsFhirClient.requestPdsRecordByNhsNumber(nhsNumber));
+        return cachePatientStatus(nhsNumber, convertToPatientStatusObject(pdsResponse));
+    }
+
+    private SuspendedPatientStatus revalidatePatientGpStatus(String nhsNumber, CachedPatientStatus staleEntry) {
+        var changedRecord = rememberingNotFound(nhsNumber, () ->
+                pdsFhirClient.requestPdsRecordByNhsNumberIfChanged(nhsNumber, staleEntry.getStatus().getRecordETag()));
+        if (changedRecord.isEmpty()) {
+            patientStatusCache.refreshExpiry(nhsNumber, staleEntry);
+            return staleEntry.getStatus();
+        }
+        var patientStatus = convertToPatientStatusObject(changedRecord.get());
+        patientStatusCache.replaceAfterRevalidation(nhsNumber, patientStatus);
+        return patientStatus;
+    }
+
+    private void refreshPatientGpStatus(String nhsNumber, CachedPatientStatus expiringEntry) {
+        if (expiringEntry.getStatus().getRecordETag() == null) {
+            fetchPatientGpStatus(nhsNumber);
+            return;
+        }
+        revalidatePatientGpStatus(nhsNumber, expiringEntry);
+    }
+
+    private SuspendedPatientStatus cachePatientStatus(String nhsNumber, SuspendedPatientStatus patientStatus) {
+        patientStatusCache.put(nhsNumber, patientStatus);
+        notFoundCache.forget(nhsNumber);
+        return patientStatus;
+    }
+
+    private <T> T rememberingNotFound(String nhsNumber, Supplier<T> pdsRequest) {
+        try {
+            return pdsRequest.get();
+        }
+        catch (NotFoundException e) {
+            notFoundCache.recordNotFound(nhsNumber);
+            throw e;
+        }
+    }
+
+    private <T> T evictingOnStaleETag(String nhsNumber, Supplier<T> pdsRequest) {
+        try {
+            return pdsRequest.get();
+        }
+        catch (PreconditionFailedException e) {
+            // the ETag the caller sent may well have come from the cache, so it must not be handed out again
+            patientStatusCache.evict(nhsNumber);
+            throw e;
+        }
     }
 
     private SuspendedPatientStatus convertToPatientStatusObject(PdsFhirPatient pdsResponse) {
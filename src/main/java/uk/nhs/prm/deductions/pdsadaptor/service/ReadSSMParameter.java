@@ -2,6 +2,7 @@ package uk.nhs.prm.deductions.pdsadaptor.service;
 
 import lombok.extern.slf4j.Slf4j;
 import software.amazon.awssdk.services.ssm.SsmClient;
+import software.amazon.awssdk.services.ssm.model.GetParameterRequest;
 import software.amazon.awssdk.services.ssm.model.GetParametersByPathRequest;
 import software.amazon.awssdk.services.ssm.paginators.GetParametersByPathIterable;
 
@@ -33,6 +34,15 @@ public class ReadSSMParameter {
         return userAndServiceApiKeyMap;
     }
 
+    public String getParameter(String paramName) {
+        GetParameterRequest getParameterRequest = GetParameterRequest.builder()
+                .withDecryption(Boolean.TRUE)
+                .name(paramName)
+                .build();
+
+        return ssmClient.getParameter(getParameterRequest).parameter().value();
+    }
+
 
     private Map<String, String> readParamsByPath(String paramName) {
         Map<String, String> apiKeyMap = new HashMap<>();
@@ -0,0 +1,124 @@
+package uk.nhs.prm.deductions.pdsadaptor.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ssm.SsmClient;
+import uk.nhs.prm.deductions.pdsadaptor.client.auth.AuthService;
+import uk.nhs.prm.deductions.pdsadaptor.client.auth.SignedJWTGenerator;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Switches the key client assertions are signed with to the one now held in SSM, where the task's JWT_PRIVATE_KEY
+ * and JWT_KEY_ID came from at startup, so that a rotated key can be taken up without restarting every task. The
+ * access token in use is then replaced with one got with the new key.
+ * <p>
+ * Each task checks the key id in SSM every check interval and rotates when it has changed, so every task takes up a
+ * new key within one interval of it being put in SSM. {@link #rotate} does the same at once, on the task it is
+ * called on.
+ * <p>
+ * Local and integration test runs do not read SSM, so have nothing to rotate to.
+ */
+@Slf4j
+@Component
+public class SigningKeyRotation implements DisposableBean {
+
+    private final SignedJWTGenerator signedJWTGenerator;
+    private final AuthService authService;
+    private final String environment;
+    private final UnaryOperator<String> readParameter;
+    private final Duration checkInterval;
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public SigningKeyRotation(SignedJWTGenerator signedJWTGenerator, AuthService authService,
+                              @Value("${environment}") String environment,
+                              @Value("${signing.key.rotation.check.seconds}") long checkSeconds) {
+        this(signedJWTGenerator, authService, environment, SigningKeyRotation::readSsmParameter, Duration.ofSeconds(checkSeconds),
+                isAvailableIn(environment) && checkSeconds > 0 ? checkScheduler() : null);
+    }
+
+    SigningKeyRotation(SignedJWTGenerator signedJWTGenerator, AuthService authService, String environment,
+                       UnaryOperator<String> readParameter, Duration checkInterval, ScheduledExecutorService scheduler) {
+        this.signedJWTGenerator = signedJWTGenerator;
+        this.authService = authService;
+        this.environment = environment;
+        this.readParameter = readParameter;
+        this.checkInterval = checkInterval;
+        this.scheduler = scheduler;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startCheckingForRotatedKey() {
+        if (scheduler != null) {
+            scheduler.scheduleWithFixedDelay(this::rotateIfChanged, checkInterval.toMillis(), checkInterval.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isAvailable() {
+        return isAvailableIn(environment);
+    }
+
+    public synchronized String rotate() {
+        var privateKey = readParameter.apply(parameterPrefix() + "private-key");
+        var keyId = readParameter.apply(parameterPrefix() + "key-id");
+        signedJWTGenerator.rotateKey(privateKey, keyId);
+        authService.renewAfterKeyRotation();
+        log.info("Access token renewed with signing key " + keyId);
+        return keyId;
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    void rotateIfChanged() {
+        try {
+            var keyId = readParameter.apply(parameterPrefix() + "key-id");
+            if (!keyId.equals(signedJWTGenerator.getKeyId())) {
+                log.info("Signing key id in SSM has changed to " + keyId + ", rotating to it");
+                rotate();
+            }
+        }
+        catch (RuntimeException e) {
+            // thrown out of a scheduled task it would stop every later check
+            log.warn("Could not check for a rotated signing key, trying again in " + checkInterval.toSeconds() + "s: " + e.getMessage());
+        }
+    }
+
+    private String parameterPrefix() {
+        return "/repo/" + environment + "/user-input/external/pds-adaptor-jwt-";
+    }
+
+    private static boolean isAvailableIn(String environment) {
+        return !environment.equals("local") && !environment.equals("int-test");
+    }
+
+    private static String readSsmParameter(String name) {
+        try (var ssmClient = SsmClient.builder().region(Region.EU_WEST_2).build()) {
+            return new ReadSSMParameter(ssmClient).getParameter(name);
+        }
+    }
+
+    private static ScheduledExecutorService checkScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "signing-key-rotation-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
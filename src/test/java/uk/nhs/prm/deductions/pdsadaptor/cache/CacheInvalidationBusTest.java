@@ -0,0 +1,103 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import uk.nhs.prm.deductions.pdsadaptor.testing.MutableClock;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.suspendedPatientStatus;
+
+class CacheInvalidationBusTest {
+
+    private static final String NHS_NUMBER = "9691927179";
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2022-03-01T09:00:00Z"));
+    private final LoopbackInvalidationTransport transport = new LoopbackInvalidationTransport();
+    private final SimpleMeterRegistry updatingTaskMeters = new SimpleMeterRegistry();
+    private final SimpleMeterRegistry otherTaskMeters = new SimpleMeterRegistry();
+    private final PatientStatusCache updatingTaskCache = cache();
+    private final PatientStatusCache otherTaskCache = cache();
+    private final CacheInvalidationBus updatingTaskBus =
+            new CacheInvalidationBus("task-a", transport, updatingTaskCache, clock, updatingTaskMeters);
+    private final CacheInvalidationBus otherTaskBus =
+            new CacheInvalidationBus("task-b", transport, otherTaskCache, clock, otherTaskMeters);
+
+    @Test
+    void shouldReplaceStatusCachedByOtherTaskWithUpdatedStatusAndETag() {
+        otherTaskCache.put(NHS_NUMBER, suspendedPatientStatus(NHS_NUMBER, "B1234", "W/\"2\""));
+        clock.advance(Duration.ofSeconds(1));
+        var updatedStatus = suspendedPatientStatus(NHS_NUMBER, "A1234", "W/\"3\"");
+
+        updatingTaskCache.put(NHS_NUMBER, updatedStatus);
+        updatingTaskBus.publish(NHS_NUMBER, updatedStatus);
+
+        assertThat(otherTaskCache.getFresh(NHS_NUMBER)).contains(updatedStatus);
+        assertThat(received(otherTaskMeters, "replaced")).isEqualTo(1);
+        assertThat(otherTaskMeters.get("pds.cache.invalidation.lag").timer().count()).isEqualTo(1);
+        assertThat(updatingTaskMeters.get("pds.cache.invalidation.published").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldIgnoreOwnUpdatesAndUpdatesForPatientsNotCached() {
+        var updatedStatus = suspendedPatientStatus(NHS_NUMBER, "A1234", "W/\"3\"");
+
+        updatingTaskBus.publish(NHS_NUMBER, updatedStatus);
+
+        assertThat(otherTaskCache.getFresh(NHS_NUMBER)).isEmpty();
+        assertThat(received(otherTaskMeters, "ignored")).isEqualTo(1);
+        assertThat(received(updatingTaskMeters, "ignored")).isZero();
+        assertThat(received(updatingTaskMeters, "replaced")).isZero();
+    }
+
+    @Test
+    void shouldKeepStatusFetchedAfterTheUpdateWasPublished() {
+        var updatedStatus = suspendedPatientStatus(NHS_NUMBER, "A1234", "W/\"3\"");
+        var publishedAt = clock.instant();
+        clock.advance(Duration.ofSeconds(1));
+        var laterStatus = suspendedPatientStatus(NHS_NUMBER, "C1234", "W/\"4\"");
+        otherTaskCache.put(NHS_NUMBER, laterStatus);
+
+        assertThat(otherTaskCache.replaceWithUpdateFromOtherTask(NHS_NUMBER, updatedStatus, publishedAt)).isFalse();
+        assertThat(otherTaskCache.getFresh(NHS_NUMBER)).contains(laterStatus);
+    }
+
+    @Test
+    void shouldMeasureLagFromWhenUpdateWasPublished() {
+        otherTaskCache.put(NHS_NUMBER, suspendedPatientStatus(NHS_NUMBER, "B1234", "W/\"2\""));
+        clock.advance(Duration.ofSeconds(1));
+        var slowTransport = new LoopbackInvalidationTransport() {
+            @Override
+            public void publish(byte[] message) {
+                clock.advance(Duration.ofMillis(250));
+                super.publish(message);
+            }
+        };
+        var publishingBus = new CacheInvalidationBus("task-c", slowTransport, updatingTaskCache, clock, new SimpleMeterRegistry());
+        var receivingMeters = new SimpleMeterRegistry();
+        new CacheInvalidationBus("task-d", slowTransport, otherTaskCache, clock, receivingMeters);
+
+        publishingBus.publish(NHS_NUMBER, suspendedPatientStatus(NHS_NUMBER, "A1234", "W/\"3\""));
+
+        assertThat(receivingMeters.get("pds.cache.invalidation.lag").timer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(250);
+    }
+
+    @Test
+    void shouldCountMessagesThatCannotBeRead() {
+        transport.publish(new byte[] {0, 1, 'x'});
+
+        assertThat(received(otherTaskMeters, "failed")).isEqualTo(1);
+    }
+
+    private PatientStatusCache cache() {
+        return new PatientStatusCache(true, 100, Duration.ofMinutes(1), Duration.ofMinutes(10), Duration.ofDays(1),
+                Duration.ofHours(1), CacheTestFixtures.noStore(), SharedCacheTier.none(), clock, new SimpleMeterRegistry());
+    }
+
+    private static double received(SimpleMeterRegistry registry, String result) {
+        return registry.get("pds.cache.invalidation.received").tag("result", result).counter().count();
+    }
+}
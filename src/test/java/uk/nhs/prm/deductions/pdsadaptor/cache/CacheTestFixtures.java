@@ -0,0 +1,10 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class CacheTestFixtures {
+
+    public static PatientStatusStore noStore() {
+        return new PatientStatusStore(false, null, 0, 0, null, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,103 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import uk.nhs.prm.deductions.pdsadaptor.testing.MutableClock;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NotFoundCacheTest {
+
+    private static final String NHS_NUMBER = "9691927179";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MutableClock clock = new MutableClock(Instant.parse("2022-03-01T09:00:00Z"));
+
+    private final NotFoundCache cache = cache(true);
+
+    @Test
+    void shouldKnowNhsNumberIsMissingUntilTtlHasPassed() {
+        cache.recordNotFound(NHS_NUMBER);
+
+        clock.advance(Duration.ofSeconds(299));
+        assertThat(cache.isKnownMissing(NHS_NUMBER)).isTrue();
+
+        clock.advance(Duration.ofSeconds(1));
+        assertThat(cache.isKnownMissing(NHS_NUMBER)).isFalse();
+    }
+
+    @Test
+    void shouldStillKnowNhsNumberIsMissingAfterBloomFiltersRotate() {
+        clock.advance(Duration.ofSeconds(290));
+        cache.recordNotFound(NHS_NUMBER);
+
+        clock.advance(Duration.ofSeconds(20));
+        assertThat(cache.isKnownMissing(NHS_NUMBER)).isTrue();
+    }
+
+    @Test
+    void shouldNotKnowAboutNhsNumbersThatWereNeverMissing() {
+        cache.recordNotFound(NHS_NUMBER);
+
+        assertThat(cache.isKnownMissing("9691927180")).isFalse();
+    }
+
+    @Test
+    void shouldForgetNhsNumberOncePatientIsFound() {
+        cache.recordNotFound(NHS_NUMBER);
+
+        cache.forget(NHS_NUMBER);
+
+        assertThat(cache.isKnownMissing(NHS_NUMBER)).isFalse();
+    }
+
+    @Test
+    void shouldIgnoreNhsNumbersThatAreNotNumeric() {
+        cache.recordNotFound("not-a-number");
+
+        assertThat(cache.isKnownMissing("not-a-number")).isFalse();
+    }
+
+    @Test
+    void shouldNeverKnowAnythingWhenDisabled() {
+        var disabledCache = cache(false);
+        disabledCache.recordNotFound(NHS_NUMBER);
+
+        assertThat(disabledCache.isKnownMissing(NHS_NUMBER)).isFalse();
+    }
+
+    @Test
+    void shouldCountPdsCallsAvoided() {
+        cache.recordNotFound(NHS_NUMBER);
+
+        cache.isKnownMissing(NHS_NUMBER);
+        cache.isKnownMissing(NHS_NUMBER);
+
+        assertThat(meterRegistry.get("pds.cache.not.found.calls.avoided").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void bloomFilterShouldNeverMissAnAddedNumberAndRarelyClaimOneThatWasNot() {
+        var bloomFilter = new NhsNumberBloomFilter(10_000, 0.01);
+        for (long nhsNumber = 9_000_000_000L; nhsNumber < 9_000_010_000L; nhsNumber++) {
+            bloomFilter.add(nhsNumber);
+        }
+
+        var falsePositives = 0;
+        for (long nhsNumber = 9_000_000_000L; nhsNumber < 9_000_010_000L; nhsNumber++) {
+            assertThat(bloomFilter.mightContain(nhsNumber)).isTrue();
+            if (bloomFilter.mightContain(nhsNumber + 1_000_000)) {
+                falsePositives++;
+            }
+        }
+
+        assertThat(falsePositives).isLessThan(200);
+    }
+
+    private NotFoundCache cache(boolean enabled) {
+        return new NotFoundCache(enabled, Duration.ofMinutes(5), 100, 0.01, clock, meterRegistry);
+    }
+}
@@ -0,0 +1,272 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.nhs.prm.deductions.pdsadaptor.testing.MutableClock;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.deceasedPatientStatus;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.nonSuspendedPatientStatus;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.suspendedPatientStatus;
+
+class PatientStatusCacheTest {
+
+    private static final String NHS_NUMBER = "9691927179";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MutableClock clock = new MutableClock(Instant.parse("2022-03-01T09:00:00Z"));
+
+    private final PatientStatusCache cache = cache(true, 100);
+
+    @Test
+    void shouldAnswerFromCacheUntilRecordTtlHasPassed() {
+        var status = nonSuspendedPatientStatus(NHS_NUMBER, "B1234", null, "W/\"1\"");
+        cache.put(NHS_NUMBER, status);
+
+        clock.advance(Duration.ofSeconds(59));
+        assertThat(cache.getFresh(NHS_NUMBER)).containsSame(status);
+
+        clock.advance(Duration.ofSeconds(1));
+        assertThat(cache.getFresh(NHS_NUMBER)).isEmpty();
+
+        assertThat(requests("hit")).isEqualTo(1);
+        assertThat(requests("miss")).isEqualTo(1);
+    }
+
+    @Test
+    void shouldKeepSuspendedAndDeceasedRecordsForTheirOwnTtls() {
+        cache.put("1111111111", suspendedPatientStatus("1111111111", "A9876", "W/\"1\""));
+        cache.put("2222222222", deceasedPatientStatus("2222222222", "W/\"1\""));
+
+        clock.advance(Duration.ofMinutes(9));
+        assertThat(cache.getFresh("1111111111")).isPresent();
+
+        clock.advance(Duration.ofMinutes(1));
+        assertThat(cache.getFresh("1111111111")).isEmpty();
+        assertThat(cache.getFresh("2222222222")).isPresent();
+
+        clock.advance(Duration.ofDays(1));
+        assertThat(cache.getFresh("2222222222")).isEmpty();
+    }
+
+    @Test
+    void shouldReplaceEntryAndRestartItsTtlWhenPutAgain() {
+        cache.put(NHS_NUMBER, suspendedPatientStatus(NHS_NUMBER, "A9876", "W/\"1\""));
+        clock.advance(Duration.ofMinutes(5));
+        var updated = suspendedPatientStatus(NHS_NUMBER, "B1234", "W/\"2\"");
+
+        cache.put(NHS_NUMBER, updated);
+        clock.advance(Duration.ofMinutes(9));
+
+        assertThat(cache.getFresh(NHS_NUMBER)).containsSame(updated);
+    }
+
+    @Test
+    void shouldKeepExpiredEntryForRevalidationUntilStaleRetentionEnds() {
+        cache.put(NHS_NUMBER, suspendedPatientStatus(NHS_NUMBER, "A9876", "W/\"1\""));
+        assertThat(cache.getStale(NHS_NUMBER)).isEmpty();
+
+        clock.advance(Duration.ofMinutes(10));
+        assertThat(cache.getStale(NHS_NUMBER)).hasValueSatisfying(entry ->
+                assertThat(entry.getStatus().getRecordETag()).isEqualTo("W/\"1\""));
+
+        clock.advance(Duration.ofHours(1));
+        assertThat(cache.getStale(NHS_NUMBER)).isEmpty();
+    }
+
+    @Test
+    void shouldNotOfferEntryWithoutEtagForRevalidation() {
+        cache.put(NHS_NUMBER, suspendedPatientStatus(NHS_NUMBER, "A9876", null));
+        clock.advance(Duration.ofMinutes(10));
+
+        assertThat(cache.getStale(NHS_NUMBER)).isEmpty();
+    }
+
+    @Test
+    void shouldMakeEntryFreshAgainWhenRevalidatedAsNotModified() {
+        var status = suspendedPatientStatus(NHS_NUMBER, "A9876", "W/\"1\"");
+        cache.put(NHS_NUMBER, status);
+        clock.advance(Duration.ofMinutes(10));
+
+        cache.refreshExpiry(NHS_NUMBER, cache.getStale(NHS_NUMBER).orElseThrow());
+        clock.advance(Duration.ofMinutes(9));
+
+        assertThat(cache.getFresh(NHS_NUMBER)).containsSame(status);
+        assertThat(meterRegistry.get("pds.cache.revalidations").tag("result", "not-modified").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldEvictToStayWithinMaximumSize() {
+        var smallCache = cache(true, 2);
+
+        for (int i = 0; i < 10; i++) {
+            smallCache.put("000000000" + i, suspendedPatientStatus("000000000" + i, "A9876", "W/\"1\""));
+        }
+
+        assertThat(meterRegistry.get("pds.cache.evictions").tag("cause", "size").counter().count()).isGreaterThan(0);
+    }
+
+    @Test
+    void shouldNeitherStoreNorAnswerWhenDisabled() {
+        var disabledCache = cache(false, 100);
+
+        disabledCache.put(NHS_NUMBER, suspendedPatientStatus(NHS_NUMBER, "A9876", "W/\"1\""));
+
+        assertThat(disabledCache.getFresh(NHS_NUMBER)).isEmpty();
+    }
+
+    @Test
+    void shouldRestoreStoredStatusesWithTtlsCountingFromWhenTheyWereFetched(@TempDir Path storeDirectory) {
+        var firstStore = store(storeDirectory);
+        var firstCache = cache(true, 100, firstStore);
+        var status = nonSuspendedPatientStatus(NHS_NUMBER, "B1234", null, "W/\"1\"");
+        firstCache.put(NHS_NUMBER, status);
+        firstStore.destroy();
+
+        clock.advance(Duration.ofSeconds(30));
+        var restoredCache = cache(true, 100, store(storeDirectory));
+
+        assertThat(restoredCache.getFresh(NHS_NUMBER)).contains(status);
+        clock.advance(Duration.ofSeconds(30));
+        assertThat(restoredCache.getFresh(NHS_NUMBER)).isEmpty();
+        assertThat(restoredCache.getStale(NHS_NUMBER)).map(CachedPatientStatus::getFetchedAt)
+                .contains(Instant.parse("2022-03-01T09:00:00Z"));
+    }
+
+    @Test
+    void shouldNotRestoreStatusesPastTheirStaleRetention(@TempDir Path storeDirectory) {
+        var firstStore = store(storeDirectory);
+        cache(true, 100, firstStore).put(NHS_NUMBER, nonSuspendedPatientStatus(NHS_NUMBER, "B1234", null, "W/\"1\""));
+        firstStore.destroy();
+
+        clock.advance(Duration.ofMinutes(61));
+        var restoredCache = cache(true, 100, store(storeDirectory));
+
+        assertThat(restoredCache.getStale(NHS_NUMBER)).isEmpty();
+    }
+
+    @Test
+    void shouldNotRestoreStatusEvictedForItsStaleETag(@TempDir Path storeDirectory) {
+        var firstStore = store(storeDirectory);
+        var firstCache = cache(true, 100, firstStore);
+        firstCache.put(NHS_NUMBER, nonSuspendedPatientStatus(NHS_NUMBER, "B1234", null, "W/\"1\""));
+        firstCache.evict(NHS_NUMBER);
+        firstStore.destroy();
+
+        var restoredCache = cache(true, 100, store(storeDirectory));
+
+        assertThat(restoredCache.getFresh(NHS_NUMBER)).isEmpty();
+        assertThat(restoredCache.getStale(NHS_NUMBER)).isEmpty();
+    }
+
+    @Test
+    void shouldAnswerFromSharedTierWhatAnotherTaskFetched() {
+        var sharedTier = new InProcessSharedCacheTier(clock);
+        var otherTaskMeters = new SimpleMeterRegistry();
+        var otherTask = cache(sharedTier, otherTaskMeters);
+        var status = suspendedPatientStatus(NHS_NUMBER, "B1234", "W/\"4\"");
+
+        cache(sharedTier, new SimpleMeterRegistry()).put(NHS_NUMBER, status);
+
+        assertThat(otherTask.getFresh(NHS_NUMBER)).contains(status);
+        assertThat(otherTask.getFresh(NHS_NUMBER)).contains(status);
+        assertThat(tierLookups(otherTaskMeters, "local", "miss")).isEqualTo(1);
+        assertThat(tierLookups(otherTaskMeters, "shared", "hit")).isEqualTo(1);
+        assertThat(tierLookups(otherTaskMeters, "local", "hit")).isEqualTo(1);
+    }
+
+    @Test
+    void shouldKeepExpiredStatusFromSharedTierSoThatItCanBeRevalidated() {
+        var sharedTier = new InProcessSharedCacheTier(clock);
+        var otherTaskMeters = new SimpleMeterRegistry();
+        var otherTask = cache(sharedTier, otherTaskMeters);
+        cache(sharedTier, new SimpleMeterRegistry()).put(NHS_NUMBER, nonSuspendedPatientStatus(NHS_NUMBER, "B1234", null, "W/\"1\""));
+
+        clock.advance(Duration.ofMinutes(2));
+
+        assertThat(otherTask.getFresh(NHS_NUMBER)).isEmpty();
+        assertThat(otherTask.getStale(NHS_NUMBER)).map(entry -> entry.getStatus().getRecordETag()).contains("W/\"1\"");
+        assertThat(tierLookups(otherTaskMeters, "shared", "miss")).isEqualTo(1);
+    }
+
+    @Test
+    void shouldEvictFromBothTiersSoThatNoTaskAnswersWithTheEvictedStatus() {
+        var sharedTier = new InProcessSharedCacheTier(clock);
+        var task = cache(sharedTier, new SimpleMeterRegistry());
+        task.put(NHS_NUMBER, suspendedPatientStatus(NHS_NUMBER, "B1234", "W/\"4\""));
+
+        task.evict(NHS_NUMBER);
+
+        assertThat(task.getFresh(NHS_NUMBER)).isEmpty();
+        assertThat(task.getStale(NHS_NUMBER)).isEmpty();
+        assertThat(cache(sharedTier, new SimpleMeterRegistry()).getFresh(NHS_NUMBER)).isEmpty();
+    }
+
+    @Test
+    void shouldCarryOnWithLocalEntriesWhenSharedTierFails() {
+        var failingTier = new SharedCacheTier() {
+            @Override
+            public String name() {
+                return "failing";
+            }
+
+            @Override
+            public Optional<byte[]> get(String nhsNumber) {
+                throw new IllegalStateException("connection refused");
+            }
+
+            @Override
+            public void put(String nhsNumber, byte[] record, Duration timeToLive) {
+                throw new IllegalStateException("connection refused");
+            }
+
+            @Override
+            public void evict(String nhsNumber) {
+                throw new IllegalStateException("connection refused");
+            }
+        };
+        var taskMeters = new SimpleMeterRegistry();
+        var task = cache(failingTier, taskMeters);
+        var status = deceasedPatientStatus(NHS_NUMBER, "W/\"9\"");
+
+        task.put(NHS_NUMBER, status);
+
+        assertThat(task.getFresh(NHS_NUMBER)).contains(status);
+        assertThat(task.getFresh("9691927180")).isEmpty();
+        task.evict(NHS_NUMBER);
+        assertThat(task.getFresh(NHS_NUMBER)).isEmpty();
+        assertThat(tierLookups(taskMeters, "shared", "error")).isEqualTo(4);
+    }
+
+    private PatientStatusCache cache(boolean enabled, long maxEntries) {
+        return cache(enabled, maxEntries, CacheTestFixtures.noStore());
+    }
+
+    private PatientStatusCache cache(boolean enabled, long maxEntries, PatientStatusStore store) {
+        return new PatientStatusCache(enabled, maxEntries, Duration.ofMinutes(1), Duration.ofMinutes(10), Duration.ofDays(1),
+                Duration.ofHours(1), store, SharedCacheTier.none(), clock, meterRegistry);
+    }
+
+    private PatientStatusCache cache(SharedCacheTier sharedTier, SimpleMeterRegistry taskMeterRegistry) {
+        return new PatientStatusCache(true, 100, Duration.ofMinutes(1), Duration.ofMinutes(10), Duration.ofDays(1),
+                Duration.ofHours(1), CacheTestFixtures.noStore(), sharedTier, clock, taskMeterRegistry);
+    }
+
+    private PatientStatusStore store(Path directory) {
+        return new PatientStatusStore(true, directory, 1024 * 1024, 4, null, new SimpleMeterRegistry());
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("pds.cache.requests").tag("result", result).counter().count();
+    }
+
+    private static double tierLookups(SimpleMeterRegistry registry, String tier, String result) {
+        return registry.get("pds.cache.tier.lookups").tag("tier", tier).tag("result", result).counter().count();
+    }
+}
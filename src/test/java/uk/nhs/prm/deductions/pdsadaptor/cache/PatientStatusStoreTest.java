@@ -0,0 +1,248 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.deceasedPatientStatus;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.nonSuspendedPatientStatus;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.suspendedPatientStatus;
+
+class PatientStatusStoreTest {
+
+    private static final Instant FETCHED_AT = Instant.parse("2022-03-01T09:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<String, CachedPatientStatus> liveEntries = new ConcurrentHashMap<>();
+    private final List<PatientStatusStore> stores = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        stores.forEach(PatientStatusStore::destroy);
+    }
+
+    @Test
+    void shouldRestoreEveryFieldOfStoredStatuses() {
+        var registered = nonSuspendedPatientStatus("9691927179", "B1234", "A9876", "W/\"1\"");
+        var suspended = suspendedPatientStatus("9691927180", "C5678", "W/\"2\"");
+        var deceased = deceasedPatientStatus("9691927181", null);
+        var store = openStore(1024 * 1024, new HashMap<>());
+        store.append("9691927179", cached(registered, FETCHED_AT));
+        store.append("9691927180", cached(suspended, FETCHED_AT.plusSeconds(1)));
+        store.append("9691927181", cached(deceased, FETCHED_AT.plusSeconds(2)));
+        store.destroy();
+
+        var restored = new HashMap<String, CachedPatientStatus>();
+        openStore(1024 * 1024, restored);
+
+        assertThat(restored).containsOnlyKeys("9691927179", "9691927180", "9691927181");
+        assertThat(restored.get("9691927179").getStatus()).isEqualTo(registered);
+        assertThat(restored.get("9691927180").getStatus()).isEqualTo(suspended);
+        assertThat(restored.get("9691927181").getStatus()).isEqualTo(deceased);
+        assertThat(restored.get("9691927180").getFetchedAt()).isEqualTo(FETCHED_AT.plusSeconds(1));
+    }
+
+    @Test
+    void shouldRestoreMostRecentlyFetchedStatusForEachNhsNumber() {
+        var store = openStore(1024 * 1024, new HashMap<>());
+        store.append("9691927179", cached(suspendedPatientStatus("9691927179", "B1234", "W/\"2\""), FETCHED_AT.plusSeconds(10)));
+        store.append("9691927179", cached(suspendedPatientStatus("9691927179", "A9876", "W/\"1\""), FETCHED_AT));
+        store.destroy();
+
+        var restored = new HashMap<String, CachedPatientStatus>();
+        openStore(1024 * 1024, restored);
+
+        assertThat(restored.get("9691927179").getStatus().getRecordETag()).isEqualTo("W/\"2\"");
+    }
+
+    @Test
+    void shouldOnlyRestoreEvictedStatusWhenFetchedAgainAfterTheEviction() {
+        var store = openStore(1024 * 1024, new HashMap<>());
+        store.append("9691927179", cached(suspendedPatientStatus("9691927179", "B1234", "W/\"1\""), FETCHED_AT));
+        store.appendEviction("9691927179", FETCHED_AT.plusSeconds(1));
+        store.append("9691927180", cached(suspendedPatientStatus("9691927180", "B1234", "W/\"1\""), FETCHED_AT));
+        store.appendEviction("9691927180", FETCHED_AT.plusSeconds(1));
+        store.append("9691927180", cached(suspendedPatientStatus("9691927180", "B1234", "W/\"2\""), FETCHED_AT.plusSeconds(2)));
+        store.destroy();
+
+        var restored = new HashMap<String, CachedPatientStatus>();
+        openStore(1024 * 1024, restored);
+
+        assertThat(restored).containsOnlyKeys("9691927180");
+        assertThat(restored.get("9691927180").getStatus().getRecordETag()).isEqualTo("W/\"2\"");
+        assertThat(meterRegistry.get("pds.cache.store.restored").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRestoreSegmentsWrittenBeforeEvictionsWereStored() throws IOException {
+        var status = suspendedPatientStatus("9691927179", "B1234", "W/\"1\"");
+        var record = PatientStatusRecordFormat.encode("9691927179", status, FETCHED_AT);
+        var segment = ByteBuffer.allocate(PatientStatusRecordFormat.HEADER_BYTES + record.limit())
+                .putInt(PatientStatusRecordFormat.MAGIC).putShort((short) 1).put(record);
+        Files.write(directory.resolve("segment-0000000000000001.log"), segment.array());
+
+        var restored = new HashMap<String, CachedPatientStatus>();
+        openStore(1024 * 1024, restored);
+
+        assertThat(restored.get("9691927179").getStatus()).isEqualTo(status);
+    }
+
+    @Test
+    void shouldReadSegmentUpToRecordCutShortByACrash() throws IOException {
+        var store = openStore(1024 * 1024, new HashMap<>());
+        store.append("9691927179", cached(suspendedPatientStatus("9691927179", "B1234", "W/\"1\""), FETCHED_AT));
+        store.append("9691927180", cached(suspendedPatientStatus("9691927180", "B1234", "W/\"1\""), FETCHED_AT));
+        store.destroy();
+        var segment = onlySegment();
+        try (var channel = FileChannel.open(segment, WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        var restored = new HashMap<String, CachedPatientStatus>();
+        openStore(1024 * 1024, restored);
+
+        assertThat(restored).containsOnlyKeys("9691927179");
+        assertThat(meterRegistry.get("pds.cache.store.torn.segments").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldStopReadingSegmentAtRecordThatFailsItsChecksum() throws IOException {
+        var store = openStore(1024 * 1024, new HashMap<>());
+        store.append("9691927179", cached(suspendedPatientStatus("9691927179", "B1234", "W/\"1\""), FETCHED_AT));
+        store.append("9691927180", cached(suspendedPatientStatus("9691927180", "B1234", "W/\"1\""), FETCHED_AT));
+        store.destroy();
+        var segment = onlySegment();
+        try (var channel = FileChannel.open(segment, WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'X'}), channel.size() - 2);
+        }
+
+        var restored = new HashMap<String, CachedPatientStatus>();
+        openStore(1024 * 1024, restored);
+
+        assertThat(restored).containsOnlyKeys("9691927179");
+    }
+
+    @Test
+    void shouldSkipSegmentsWrittenInAnotherFormatVersion() throws IOException {
+        Files.write(directory.resolve("segment-0000000000000001.log"),
+                ByteBuffer.allocate(6).putInt(PatientStatusRecordFormat.MAGIC).putShort((short) 99).array());
+
+        var restored = new HashMap<String, CachedPatientStatus>();
+        openStore(1024 * 1024, restored);
+
+        assertThat(restored).isEmpty();
+    }
+
+    @Test
+    void shouldCompactSealedSegmentsDownToTheLiveEntries() throws IOException {
+        var store = openStore(200, new HashMap<>());
+        for (int i = 0; i < 20; i++) {
+            var nhsNumber = String.valueOf(9691927100L + i % 3);
+            var entry = cached(suspendedPatientStatus(nhsNumber, "B1234", "W/\"" + i + "\""), FETCHED_AT.plusSeconds(i));
+            liveEntries.put(nhsNumber, entry);
+            store.append(nhsNumber, entry);
+        }
+
+        assertThat(meterRegistry.get("pds.cache.store.compactions").counter().count()).isGreaterThan(0);
+        assertThat(segments().size()).isLessThanOrEqualTo(4);
+
+        store.destroy();
+        var restored = new HashMap<String, CachedPatientStatus>();
+        openStore(200, restored);
+
+        assertThat(restored).isEqualTo(liveEntries);
+    }
+
+    @Test
+    void shouldIgnoreStatusesCachedOnceItHasBeenClosed() {
+        var store = openStore(1024 * 1024, new HashMap<>());
+        store.append("9691927179", cached(suspendedPatientStatus("9691927179", "B1234", "W/\"1\""), FETCHED_AT));
+        store.destroy();
+
+        store.append("9691927180", cached(suspendedPatientStatus("9691927180", "B1234", "W/\"1\""), FETCHED_AT));
+        store.compact();
+
+        var restored = new HashMap<String, CachedPatientStatus>();
+        openStore(1024 * 1024, restored);
+        assertThat(restored).containsOnlyKeys("9691927179");
+        assertThat(meterRegistry.get("pds.cache.store.write.failures").counter().count()).isZero();
+    }
+
+    private PatientStatusStore openStore(long segmentMaxBytes, Map<String, CachedPatientStatus> restoreInto) {
+        var store = new PatientStatusStore(true, directory, segmentMaxBytes, 3, new DirectExecutorService(), meterRegistry);
+        stores.add(store);
+        store.open((nhsNumber, status, fetchedAt) -> restoreInto.put(nhsNumber, cached(status, fetchedAt)), () -> liveEntries);
+        return store;
+    }
+
+    private static CachedPatientStatus cached(SuspendedPatientStatus status, Instant fetchedAt) {
+        return new CachedPatientStatus(status, fetchedAt, fetchedAt);
+    }
+
+    private Path onlySegment() throws IOException {
+        var segments = segments();
+        assertThat(segments).hasSize(1);
+        return segments.get(0);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log"))
+                    .filter(file -> file.toFile().length() > PatientStatusRecordFormat.HEADER_BYTES)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static class DirectExecutorService extends AbstractExecutorService {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionException;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.pubsub.RedisPubSubListener;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import io.lettuce.core.pubsub.api.sync.RedisPubSubCommands;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RedisInvalidationTransportTest {
+
+    private static final String CHANNEL = "pds-adaptor:patient-status-updates";
+
+    @Mock
+    private RedisClient client;
+
+    @Mock
+    private StatefulRedisPubSubConnection<String, byte[]> subscribeConnection;
+
+    @Mock
+    private RedisPubSubCommands<String, byte[]> subscribeCommands;
+
+    private RedisInvalidationTransport transport;
+
+    @AfterEach
+    void tearDown() {
+        if (transport != null) {
+            transport.destroy();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldKeepTryingToSubscribeUntilRedisCanBeReached() {
+        when(client.connectPubSub(any(RedisCodec.class)))
+                .thenThrow(new RedisConnectionException("connection refused"))
+                .thenReturn(subscribeConnection);
+        when(subscribeConnection.sync()).thenReturn(subscribeCommands);
+        transport = new RedisInvalidationTransport(client, CHANNEL, Duration.ofMillis(10));
+        var received = new ArrayList<byte[]>();
+        var update = new byte[] {1};
+
+        transport.subscribe(received::add);
+
+        verify(subscribeCommands, timeout(5000)).subscribe(CHANNEL);
+        listenerOn(subscribeConnection).message(CHANNEL, update);
+        listenerOn(subscribeConnection).message("some-other-channel", new byte[] {2});
+        assertThat(received).containsExactly(update);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldNotTryToConnectAgainForAWhileAfterPublishingFails() {
+        when(client.connect(any(RedisCodec.class))).thenThrow(new RedisConnectionException("connection refused"));
+        transport = new RedisInvalidationTransport(client, CHANNEL, Duration.ofMinutes(1));
+
+        assertThrows(RedisConnectionException.class, () -> transport.publish(new byte[] {1}));
+        assertThrows(RedisConnectionException.class, () -> transport.publish(new byte[] {2}));
+
+        verify(client, times(1)).connect(any(RedisCodec.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisPubSubListener<String, byte[]> listenerOn(StatefulRedisPubSubConnection<String, byte[]> connection) {
+        var listener = ArgumentCaptor.forClass(RedisPubSubListener.class);
+        verify(connection).addListener(listener.capture());
+        return (RedisPubSubListener<String, byte[]>) listener.getValue();
+    }
+}
@@ -0,0 +1,44 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RedisSharedCacheTierTest {
+
+    private static final String KEY_PREFIX = "pds-adaptor:patient-status:";
+
+    @Mock
+    private RedisCommands<String, byte[]> commands;
+
+    @Test
+    void shouldStoreRecordUnderPrefixedKeyForItsTimeToLive() {
+        var record = new byte[] {1, 2, 3};
+
+        new RedisSharedCacheTier(commands, KEY_PREFIX).put("9691927179", record, Duration.ofMinutes(62));
+
+        verify(commands).psetex(KEY_PREFIX + "9691927179", 3_720_000L, record);
+    }
+
+    @Test
+    void shouldReadAndEvictRecordsByPrefixedKey() {
+        var tier = new RedisSharedCacheTier(commands, KEY_PREFIX);
+        var record = new byte[] {1, 2, 3};
+        when(commands.get(KEY_PREFIX + "9691927179")).thenReturn(record);
+
+        assertThat(tier.get("9691927179")).containsSame(record);
+        assertThat(tier.get("9691927180")).isEmpty();
+
+        tier.evict("9691927179");
+        verify(commands).del(KEY_PREFIX + "9691927179");
+    }
+}
@@ -0,0 +1,171 @@
+package uk.nhs.prm.deductions.pdsadaptor.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import uk.nhs.prm.deductions.pdsadaptor.client.AdaptiveRateLimiter;
+import uk.nhs.prm.deductions.pdsadaptor.client.ClientTestFixtures;
+import uk.nhs.prm.deductions.pdsadaptor.testing.MutableClock;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus.suspendedPatientStatus;
+
+class RefreshAheadTest {
+
+    private static final String NHS_NUMBER = "9691927179";
+    private static final Instant FETCHED_AT = Instant.parse("2022-03-01T09:00:00Z");
+    private static final CachedPatientStatus ENTRY =
+            new CachedPatientStatus(suspendedPatientStatus(NHS_NUMBER, "B1234", "W/\"1\""), FETCHED_AT, FETCHED_AT.plus(Duration.ofMinutes(10)));
+
+    private final MutableClock clock = new MutableClock(FETCHED_AT);
+    private final QueueingExecutorService executor = new QueueingExecutorService();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger refreshes = new AtomicInteger();
+
+    @Test
+    void shouldOnlyRefreshOnceEntryIsIntoTheLastRatioOfItsTtl() {
+        var refreshAhead = refreshAhead(ClientTestFixtures.unlimitedRateLimiter());
+
+        clock.advance(Duration.ofMinutes(7));
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, refreshes::incrementAndGet);
+        assertThat(executor.queued).isEmpty();
+
+        clock.advance(Duration.ofMinutes(1));
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, refreshes::incrementAndGet);
+        executor.runQueued();
+
+        assertThat(refreshes.get()).isEqualTo(1);
+        assertThat(meterRegistry.counter("pds.cache.refresh.ahead.completed", "result", "refreshed").count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRefreshEachNhsNumberOnceWhileARefreshIsInFlight() {
+        var refreshAhead = refreshAhead(ClientTestFixtures.unlimitedRateLimiter());
+        clock.advance(Duration.ofMinutes(9));
+
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, refreshes::incrementAndGet);
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, refreshes::incrementAndGet);
+        executor.runQueued();
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, refreshes::incrementAndGet);
+        executor.runQueued();
+
+        assertThat(refreshes.get()).isEqualTo(2);
+        assertThat(meterRegistry.counter("pds.cache.refresh.ahead.scheduled").count()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldGiveWayToCallersWhenRateLimiterHasNoSpareCapacity() {
+        var rateLimiter = mock(AdaptiveRateLimiter.class);
+        when(rateLimiter.hasSpareCapacity()).thenReturn(false);
+        var refreshAhead = refreshAhead(rateLimiter);
+        clock.advance(Duration.ofMinutes(9));
+
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, refreshes::incrementAndGet);
+
+        assertThat(executor.queued).isEmpty();
+        assertThat(meterRegistry.counter("pds.cache.refresh.ahead.skipped", "reason", "rate-limited").count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldSkipRefreshAndAllowALaterOneWhenPoolIsBusy() {
+        var refreshAhead = refreshAhead(ClientTestFixtures.unlimitedRateLimiter());
+        clock.advance(Duration.ofMinutes(9));
+
+        executor.rejecting = true;
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, refreshes::incrementAndGet);
+        executor.rejecting = false;
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, refreshes::incrementAndGet);
+        executor.runQueued();
+
+        assertThat(refreshes.get()).isEqualTo(1);
+        assertThat(meterRegistry.counter("pds.cache.refresh.ahead.skipped", "reason", "busy").count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCountFailedRefreshAndAllowAnotherAttempt() {
+        var refreshAhead = refreshAhead(ClientTestFixtures.unlimitedRateLimiter());
+        clock.advance(Duration.ofMinutes(9));
+
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, () -> {
+            throw new IllegalStateException("PDS unavailable");
+        });
+        executor.runQueued();
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, refreshes::incrementAndGet);
+        executor.runQueued();
+
+        assertThat(refreshes.get()).isEqualTo(1);
+        assertThat(meterRegistry.counter("pds.cache.refresh.ahead.completed", "result", "failed").count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNeverRefreshWhenDisabled() {
+        var refreshAhead = refreshAhead(false, ClientTestFixtures.unlimitedRateLimiter());
+        clock.advance(Duration.ofMinutes(9));
+
+        refreshAhead.refreshIfDue(NHS_NUMBER, ENTRY, refreshes::incrementAndGet);
+        executor.runQueued();
+
+        assertThat(refreshes.get()).isZero();
+    }
+
+    private RefreshAhead refreshAhead(AdaptiveRateLimiter rateLimiter) {
+        return refreshAhead(true, rateLimiter);
+    }
+
+    private RefreshAhead refreshAhead(boolean enabled, AdaptiveRateLimiter rateLimiter) {
+        return new RefreshAhead(enabled, 0.2, rateLimiter, clock, executor, meterRegistry);
+    }
+
+    private static class QueueingExecutorService extends AbstractExecutorService {
+        private final List<Runnable> queued = new ArrayList<>();
+        private boolean rejecting;
+
+        void runQueued() {
+            var toRun = new ArrayList<>(queued);
+            queued.clear();
+            toRun.forEach(Runnable::run);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (rejecting) {
+                throw new RejectedExecutionException("busy");
+            }
+            queued.add(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.ClientRateLimitExceededException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.TooManyRequestsException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdaptiveRateLimiterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final List<Duration> sleeps = new ArrayList<>();
+
+    @Test
+    void shouldLetABurstThroughWithoutWaiting() {
+        var limiter = limiter(10, 1000);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.execute(() -> "ok");
+        }
+
+        assertThat(sleeps).isEmpty();
+    }
+
+    @Test
+    void shouldQueueCallersOnceBurstIsUsedUpAtThePermittedRate() {
+        var limiter = limiter(10, 1000);
+        useUpBurst(limiter);
+
+        limiter.execute(() -> "ok");
+
+        assertThat(sleeps).containsExactly(Duration.ofMillis(100));
+        assertThat(meterRegistry.get("pds.fhir.rate.limit.throttled").timer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(100);
+    }
+
+    @Test
+    void shouldTurnCallersAwayRatherThanWaitLongerThanMaxWait() {
+        var limiter = limiter(10, 50);
+        useUpBurst(limiter);
+        var calls = new AtomicInteger();
+
+        assertThrows(ClientRateLimitExceededException.class, () -> limiter.execute(calls::incrementAndGet));
+
+        assertThat(calls).hasValue(0);
+        assertThat(sleeps).isEmpty();
+        assertThat(meterRegistry.get("pds.fhir.rate.limit.rejected").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCutRateOnTooManyRequestsAndRecoverAdditivelyOnSuccess() {
+        var limiter = limiter(10, 1000);
+
+        assertThrows(TooManyRequestsException.class, () -> limiter.execute(() -> {
+            throw new TooManyRequestsException();
+        }));
+        assertThat(limiter.currentRate()).isEqualTo(5);
+
+        limiter.execute(() -> "ok");
+        limiter.execute(() -> "ok");
+
+        assertThat(limiter.currentRate()).isEqualTo(6);
+        assertThat(meterRegistry.get("pds.fhir.rate.limit.permitted").gauge().value()).isEqualTo(6);
+    }
+
+    @Test
+    void shouldOnlyCutRateOnceForABurstOfTooManyRequests() {
+        var limiter = limiter(10, 1000);
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(TooManyRequestsException.class, () -> limiter.execute(() -> {
+                throw new TooManyRequestsException();
+            }));
+        }
+        assertThat(limiter.currentRate()).isEqualTo(5);
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThrows(TooManyRequestsException.class, () -> limiter.execute(() -> {
+            throw new TooManyRequestsException();
+        }));
+        assertThat(limiter.currentRate()).isEqualTo(2.5);
+    }
+
+    @Test
+    void shouldNeverCutRateBelowMinimum() {
+        var limiter = limiter(10, 1000);
+
+        for (int i = 0; i < 10; i++) {
+            nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+            assertThrows(TooManyRequestsException.class, () -> limiter.execute(() -> {
+                throw new TooManyRequestsException();
+            }));
+        }
+
+        assertThat(limiter.currentRate()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldOnlyReportSpareCapacityWhileARequestWouldGoStraightThrough() {
+        var limiter = limiter(10, 1000);
+        assertThat(limiter.hasSpareCapacity()).isTrue();
+
+        useUpBurst(limiter);
+        assertThat(limiter.hasSpareCapacity()).isFalse();
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(limiter.hasSpareCapacity()).isTrue();
+    }
+
+    @Test
+    void shouldRefuseRatherThanWaitWhenNoTokenIsFreeForAnExtraRequest() {
+        var limiter = limiter(10, 1000);
+        assertThat(limiter.tryAcquire()).isTrue();
+
+        useUpBurst(limiter);
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(sleeps).isEmpty();
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    private void useUpBurst(AdaptiveRateLimiter limiter) {
+        for (int i = 0; i < 5; i++) {
+            limiter.execute(() -> "ok");
+        }
+        sleeps.clear();
+    }
+
+    private AdaptiveRateLimiter limiter(double maxRate, long maxWaitMillis) {
+        return new AdaptiveRateLimiter(true, maxRate, 1, 5, 0.5, 0.5, maxWaitMillis, nanoTime::get,
+                duration -> {
+                    sleeps.add(duration);
+                    nanoTime.addAndGet(duration.toNanos());
+                }, meterRegistry);
+    }
+}
@@ -131,7 +131,7 @@ class AuthenticatingHttpClientTest {
         var okResponse = new ResponseEntity<>("someResponse", HttpStatus.OK);
 
         when(authService.getAccessToken()).thenReturn("expired_token");
-        when(authService.getNewAccessToken()).thenReturn("new_token");
+        when(authService.getNewAccessToken("expired_token")).thenReturn("new_token");
 
         when((innerHttpClient).get(eq("url"), any(), eq(String.class)))
                 .thenAnswer(invocation -> {
@@ -156,7 +156,7 @@ class AuthenticatingHttpClientTest {
         var okResponse = new ResponseEntity<>("someResponse", HttpStatus.OK);
 
         when(authService.getAccessToken()).thenReturn("expired_token");
-        when(authService.getNewAccessToken()).thenReturn("new_token");
+        when(authService.getNewAccessToken("expired_token")).thenReturn("new_token");
 
         when((innerHttpClient).patch(eq("url"), any(), eq("the patch"), eq(String.class)))
                 .thenAnswer(invocation -> {
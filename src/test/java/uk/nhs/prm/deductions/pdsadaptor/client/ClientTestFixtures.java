@@ -0,0 +1,22 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.RetryPolicy;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.Sleeper;
+
+import java.time.Duration;
+
+public class ClientTestFixtures {
+
+    public static AdaptiveRateLimiter unlimitedRateLimiter() {
+        return new AdaptiveRateLimiter(false, 0, 0, 0, 0, 0, 0, System::nanoTime, Sleeper.THREAD_SLEEPER, new SimpleMeterRegistry());
+    }
+
+    public static RequestHedger noHedging() {
+        return new RequestHedger(false, 0, 0, 0, 0, 0, new SimpleMeterRegistry());
+    }
+
+    public static RetryPolicy immediateRetries(int maxTries) {
+        return new RetryPolicy(maxTries, Duration.ofDays(1), (retryNumber, previousDelay) -> Duration.ZERO);
+    }
+}
@@ -0,0 +1,95 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JdkClientHttpRequestFactoryTest {
+
+    private WireMockServer tokenServer;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private HttpStreamMetrics streamMetrics;
+
+    private RestTemplate restTemplate;
+
+    @BeforeEach
+    void setUp() {
+        tokenServer = new WireMockServer(options().dynamicPort());
+        tokenServer.start();
+
+        meterRegistry = new SimpleMeterRegistry();
+        streamMetrics = new HttpStreamMetrics(meterRegistry);
+        var http2Client = java.net.http.HttpClient.newBuilder().version(java.net.http.HttpClient.Version.HTTP_2).build();
+        restTemplate = new RestTemplate(new JdkClientHttpRequestFactory(http2Client, streamMetrics, Duration.ofSeconds(5)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        tokenServer.stop();
+    }
+
+    @Test
+    void shouldPostFormBodyAndReturnResponse() {
+        tokenServer.stubFor(post(urlEqualTo("/access-token"))
+                .withHeader("Content-Type", containing("application/x-www-form-urlencoded"))
+                .withRequestBody(containing("grant_type=client_credentials"))
+                .willReturn(aResponse().withBody("{\"access_token\":\"token\"}")));
+
+        var response = restTemplate.postForEntity(url("/access-token"), aFormRequest(), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isEqualTo("{\"access_token\":\"token\"}");
+    }
+
+    @Test
+    void shouldRaiseRestTemplateErrorsForFailureStatuses() {
+        tokenServer.stubFor(post(urlEqualTo("/access-token")).willReturn(aResponse().withStatus(403)));
+
+        var thrown = assertThrows(HttpClientErrorException.class,
+                () -> restTemplate.postForEntity(url("/access-token"), aFormRequest(), String.class));
+
+        assertThat(thrown.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    }
+
+    @Test
+    void shouldCountResponsesByNegotiatedVersionAndReleaseStreamOnCompletion() {
+        tokenServer.stubFor(get(urlEqualTo("/Patient/123")).willReturn(aResponse().withBody("patient")));
+
+        restTemplate.getForEntity(url("/Patient/123"), String.class);
+
+        var authority = "localhost:" + tokenServer.port();
+        assertThat(meterRegistry.find("pds.http.responses").tag("authority", authority).counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.find("pds.http.connection.streams").tag("authority", authority).summary().count()).isEqualTo(1);
+        assertThat(streamMetrics.activeStreams(authority)).isZero();
+    }
+
+    private HttpEntity<LinkedMultiValueMap<String, String>> aFormRequest() {
+        var headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        var body = new LinkedMultiValueMap<String, String>();
+        body.add("grant_type", "client_credentials");
+        return new HttpEntity<>(body, headers);
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + tokenServer.port() + path;
+    }
+}
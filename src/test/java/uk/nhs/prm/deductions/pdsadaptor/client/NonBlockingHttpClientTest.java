@@ -0,0 +1,150 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.github.tomakehurst.wiremock.http.Fault;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import uk.nhs.prm.deductions.pdsadaptor.model.pdspatchrequest.PdsPatchIdentifier;
+import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.zip.GZIPOutputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NonBlockingHttpClientTest {
+
+    private WireMockServer pdsFhir;
+
+    private NonBlockingHttpClient client;
+
+    @BeforeEach
+    void setUp() {
+        pdsFhir = new WireMockServer(options().dynamicPort());
+        pdsFhir.start();
+
+        client = new NonBlockingHttpClient(
+                java.net.http.HttpClient.newBuilder().version(java.net.http.HttpClient.Version.HTTP_1_1).build(),
+                new RestTemplate().getMessageConverters(),
+                new ObjectMapper(),
+                new HttpStreamMetrics(new SimpleMeterRegistry()),
+                new ResponseCompression("http://localhost:" + pdsFhir.port() + "/", "http://localhost:" + pdsFhir.port() + "/access-token",
+                        true, false, new SimpleMeterRegistry()),
+                Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        pdsFhir.stop();
+    }
+
+    @Test
+    void shouldForwardHeadersAndConvertTypedResponseBodyOnGet() {
+        pdsFhir.stubFor(get(urlEqualTo("/Patient/9691927179"))
+                .withHeader("X-Request-ID", equalTo("some-request-id"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("ETag", "W/\"6\"")
+                        .withBody("{\"id\":\"9691927179\",\"name\":[{\"family\":\"Smith\"}]}")));
+
+        var headers = new HttpHeaders();
+        headers.add("X-Request-ID", "some-request-id");
+
+        var response = client.get(url("/Patient/9691927179"), headers, PdsFhirPatient.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getETag()).isEqualTo("W/\"6\"");
+        assertThat(response.getBody().getId()).isEqualTo("9691927179");
+    }
+
+    @Test
+    void shouldSerializePayloadAsJsonOnPatch() {
+        pdsFhir.stubFor(patch(urlEqualTo("/Patient/9691927179"))
+                .withHeader("Content-Type", containing("application/json-patch+json"))
+                .withRequestBody(equalToJson("{\"system\":\"ods\",\"value\":\"A1234\"}"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"id\":\"9691927179\"}")));
+
+        var headers = new HttpHeaders();
+        headers.add(HttpHeaders.CONTENT_TYPE, "application/json-patch+json");
+
+        var response = client.patch(url("/Patient/9691927179"), headers, new PdsPatchIdentifier("ods", "A1234"), PdsFhirPatient.class);
+
+        assertThat(response.getBody().getId()).isEqualTo("9691927179");
+    }
+
+    @Test
+    void shouldAskForCompressedResponseAndDecodeItIntoThePatient() throws Exception {
+        var compressed = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(compressed)) {
+            gzip.write("{\"id\":\"9691927179\"}".getBytes(UTF_8));
+        }
+        pdsFhir.stubFor(get(urlEqualTo("/Patient/9691927179"))
+                .withHeader("Accept-Encoding", containing("gzip"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("Content-Encoding", "gzip")
+                        .withBody(compressed.toByteArray())));
+
+        var response = client.get(url("/Patient/9691927179"), new HttpHeaders(), PdsFhirPatient.class);
+
+        assertThat(response.getBody().getId()).isEqualTo("9691927179");
+    }
+
+    @Test
+    void shouldCompleteFutureWithResponseOnGetAsync() {
+        pdsFhir.stubFor(get(urlEqualTo("/Patient/123")).willReturn(aResponse().withBody("async body")));
+
+        var futureResponse = client.getAsync(url("/Patient/123"), new HttpHeaders(), String.class);
+
+        assertThat(futureResponse.join().getBody()).isEqualTo("async body");
+    }
+
+    @Test
+    void shouldThrowClientErrorExceptionLikeRestTemplateOn4xx() {
+        pdsFhir.stubFor(get(urlEqualTo("/Patient/123")).willReturn(aResponse().withStatus(404).withBody("not found")));
+
+        var thrown = assertThrows(HttpClientErrorException.class,
+                () -> client.get(url("/Patient/123"), new HttpHeaders(), String.class));
+
+        assertThat(thrown.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(thrown.getResponseBodyAsString()).isEqualTo("not found");
+    }
+
+    @Test
+    void shouldThrowServerErrorExceptionLikeRestTemplateOn5xx() {
+        pdsFhir.stubFor(get(urlEqualTo("/Patient/123")).willReturn(aResponse().withStatus(503)));
+
+        var thrown = assertThrows(HttpServerErrorException.class,
+                () -> client.get(url("/Patient/123"), new HttpHeaders(), String.class));
+
+        assertThat(thrown.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @Test
+    void shouldThrowResourceAccessExceptionLikeRestTemplateOnNetworkFailure() {
+        pdsFhir.stubFor(get(urlEqualTo("/Patient/123")).willReturn(aResponse().withFault(Fault.CONNECTION_RESET_BY_PEER)));
+
+        assertThrows(ResourceAccessException.class,
+                () -> client.get(url("/Patient/123"), new HttpHeaders(), String.class));
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + pdsFhir.port() + path;
+    }
+}
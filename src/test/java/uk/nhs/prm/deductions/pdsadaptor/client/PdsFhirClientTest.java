@@ -1,5 +1,9 @@
 package uk.nhs.prm.deductions.pdsadaptor.client;
 
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -13,21 +17,29 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.UnknownContentTypeException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.BulkheadRejectedException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.CircuitBreakerOpenException;
 import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.PdsFhirPatchSpecifiesNoChangesException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.RetryableRequestException;
 import uk.nhs.prm.deductions.pdsadaptor.model.UpdateManagingOrganisationRequest;
 import uk.nhs.prm.deductions.pdsadaptor.model.pdspatchrequest.PdsPatch;
 import uk.nhs.prm.deductions.pdsadaptor.model.pdspatchrequest.PdsPatchRequest;
 import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static uk.nhs.prm.deductions.pdsadaptor.testing.PdsFhirTestData.buildPdsResponse;
@@ -49,6 +61,10 @@ class PdsFhirClientTest {
 
     private PdsFhirClient pdsFhirClient;
 
+    private CircuitBreaker circuitBreaker;
+
+    private Bulkhead retrievalBulkhead;
+
     private static final String NHS_NUMBER = "123456789";
 
     private static final String MANAGING_ORGANISATION = "B9087";
@@ -62,7 +78,86 @@ class PdsFhirClientTest {
 
     @BeforeEach
     void setUp() {
-        pdsFhirClient = new PdsFhirClient(httpClient, patchRejectionInterpreter, exceptionHandler, PDS_FHIR_ENDPOINT);
+        circuitBreaker = CircuitBreaker.ofDefaults("pdsFhir");
+        retrievalBulkhead = Bulkhead.of("pdsFhirRetrieval", BulkheadConfig.custom()
+                .maxConcurrentCalls(1)
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+        pdsFhirClient = new PdsFhirClient(httpClient, patchRejectionInterpreter, exceptionHandler, ClientTestFixtures.noHedging(),
+                ClientTestFixtures.unlimitedRateLimiter(), circuitBreaker, retrievalBulkhead, Bulkhead.ofDefaults("pdsFhirUpdate"), PDS_FHIR_ENDPOINT);
+    }
+
+    @Nested
+    @DisplayName("PDS FHIR Bulkheads")
+    class PdsFhirBulkheads {
+        @Test
+        void shouldRejectRetrievalWithoutCallingPdsFhirWhenRetrievalCompartmentIsFull() {
+            retrievalBulkhead.tryAcquirePermission();
+
+            assertThrows(BulkheadRejectedException.class, () -> pdsFhirClient.requestPdsRecordByNhsNumber(NHS_NUMBER));
+
+            verifyNoInteractions(httpClient);
+        }
+
+        @Test
+        void shouldStillAllowUpdatesWhenRetrievalCompartmentIsFull() {
+            var pdsResponse = buildPdsResponse(NHS_NUMBER, MANAGING_ORGANISATION, LocalDate.now().minusYears(1), null, null);
+            retrievalBulkhead.tryAcquirePermission();
+
+            when(httpClient.patch(eq(URL_PATH), any(), any(), eq(PdsFhirPatient.class)))
+                    .thenReturn(new ResponseEntity<>(pdsResponse, headersWithEtag(RECORD_E_TAG), HttpStatus.OK));
+
+            var updated = pdsFhirClient.updateManagingOrganisation(NHS_NUMBER, anUpdateRequest(), aRequestId());
+
+            assertThat(updated.getETag()).isEqualTo(RECORD_E_TAG);
+        }
+
+        @Test
+        void shouldNotHoldARetrievalPermitWhileWaitingForTheRateLimit() {
+            var nanoTime = new AtomicLong();
+            var permitsFreeWhileWaiting = new ArrayList<Integer>();
+            var rateLimiter = new AdaptiveRateLimiter(true, 10, 1, 1, 0.5, 0.5, 1000, nanoTime::get, duration -> {
+                permitsFreeWhileWaiting.add(retrievalBulkhead.getMetrics().getAvailableConcurrentCalls());
+                nanoTime.addAndGet(duration.toNanos());
+            }, new SimpleMeterRegistry());
+            pdsFhirClient = new PdsFhirClient(httpClient, patchRejectionInterpreter, exceptionHandler, ClientTestFixtures.noHedging(),
+                    rateLimiter, circuitBreaker, retrievalBulkhead, Bulkhead.ofDefaults("pdsFhirUpdate"), PDS_FHIR_ENDPOINT);
+            var pdsResponse = buildPdsResponse(NHS_NUMBER, MANAGING_ORGANISATION, LocalDate.now().minusYears(1), null, null);
+            when(httpClient.get(eq(URL_PATH), any(), eq(PdsFhirPatient.class))).thenReturn(new ResponseEntity<>(pdsResponse, HttpStatus.OK));
+
+            pdsFhirClient.requestPdsRecordByNhsNumber(NHS_NUMBER);
+            pdsFhirClient.requestPdsRecordByNhsNumber(NHS_NUMBER);
+
+            assertThat(permitsFreeWhileWaiting).containsExactly(1);
+        }
+    }
+
+    @Nested
+    @DisplayName("PDS FHIR Circuit Breaker")
+    class PdsFhirCircuitBreaker {
+        @Test
+        void shouldFailFastWithoutCallingPdsFhirWhileCircuitBreakerIsOpen() {
+            circuitBreaker.transitionToOpenState();
+
+            assertThrows(CircuitBreakerOpenException.class, () -> pdsFhirClient.requestPdsRecordByNhsNumber(NHS_NUMBER));
+            assertThrows(CircuitBreakerOpenException.class, () -> pdsFhirClient.updateManagingOrganisation(
+                    NHS_NUMBER, anUpdateRequest(), aRequestId()));
+
+            verifyNoInteractions(httpClient);
+        }
+
+        @Test
+        void shouldRecordFailuresHandedBackByExceptionHandler() {
+            var causingException = new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+            var retryableException = new RetryableRequestException(causingException);
+
+            when(httpClient.get(any(), any(), any())).thenThrow(causingException);
+            when(exceptionHandler.handleCommonExceptions("requesting", causingException)).thenReturn(retryableException);
+
+            assertThrows(RetryableRequestException.class, () -> pdsFhirClient.requestPdsRecordByNhsNumber(NHS_NUMBER));
+
+            assertThat(circuitBreaker.getMetrics().getNumberOfFailedCalls()).isEqualTo(1);
+        }
     }
 
     @Nested
@@ -126,6 +221,41 @@ class PdsFhirClientTest {
         }
     }
 
+    @Nested
+    @DisplayName("PDS FHIR Conditional GET Request")
+    class PdsFhirConditionalGetRequest {
+        @Test
+        void shouldSendCachedEtagAsIfNoneMatch() {
+            when(httpClient.get(eq(URL_PATH), any(), eq(PdsFhirPatient.class))).thenReturn(new ResponseEntity<>(HttpStatus.NOT_MODIFIED));
+
+            pdsFhirClient.requestPdsRecordByNhsNumberIfChanged(NHS_NUMBER, RECORD_E_TAG);
+
+            verify(httpClient).get(eq(URL_PATH), headersCaptor.capture(), eq(PdsFhirPatient.class));
+            assertThat(headersCaptor.getValue().getIfNoneMatch()).containsExactly(RECORD_E_TAG);
+            assertThat(headersCaptor.getValue().get("X-Request-ID").get(0)).isNotNull();
+        }
+
+        @Test
+        void shouldReturnNothingWhenRecordIsNotModified() {
+            when(httpClient.get(eq(URL_PATH), any(), eq(PdsFhirPatient.class))).thenReturn(new ResponseEntity<>(HttpStatus.NOT_MODIFIED));
+
+            var changedRecord = pdsFhirClient.requestPdsRecordByNhsNumberIfChanged(NHS_NUMBER, RECORD_E_TAG);
+
+            assertThat(changedRecord).isEmpty();
+        }
+
+        @Test
+        void shouldReturnChangedRecordWithItsNewEtag() {
+            var pdsResponse = buildPdsResponse(NHS_NUMBER, "A1234", LocalDate.now().minusYears(1), null, null);
+            when(httpClient.get(eq(URL_PATH), any(), eq(PdsFhirPatient.class)))
+                    .thenReturn(new ResponseEntity<>(pdsResponse, headersWithEtag("W/\"2\""), HttpStatus.OK));
+
+            var changedRecord = pdsFhirClient.requestPdsRecordByNhsNumberIfChanged(NHS_NUMBER, RECORD_E_TAG);
+
+            assertThat(changedRecord).hasValueSatisfying(record -> assertThat(record.getETag()).isEqualTo("W/\"2\""));
+        }
+    }
+
     @Nested
     @DisplayName("PDS FHIR Patch Request")
     class PdsFhirPatchRequest {
@@ -2,6 +2,7 @@ package uk.nhs.prm.deductions.pdsadaptor.client;
 
 import net.logstash.logback.marker.RawJsonAppendingMarker;
 import org.jetbrains.annotations.NotNull;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -109,6 +110,16 @@ class PdsFhirExceptionHandlerTest {
         assertThat(exception.getMessage()).isEqualTo("Rate limit exceeded for PDS FHIR - too many requests");
     }
 
+    @Test
+    void shouldThrowPreconditionFailedExceptionWhenUpdateEtagIsNoLongerTheRecordsCurrentOne() {
+        var preconditionFailed412 = new HttpClientErrorException(HttpStatus.PRECONDITION_FAILED, "error");
+
+        var exception = assertThrows(PreconditionFailedException.class, () ->
+                handler.handleCommonExceptions("updating", preconditionFailed412));
+
+        assertThat(exception).isInstanceOf(BadRequestException.class);
+    }
+
     @Test
     void whenPdsFhirIsApparentlyUnavailableShouldThrowExceptionDenotingThatItIsPossiblyATemporaryIssueAndThereforeProbablyUsefulToRetry() {
         var pdsServiceIsUnavailable503 = new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE, "error");
@@ -130,6 +141,16 @@ class PdsFhirExceptionHandlerTest {
         assertThat(exception.getMessage()).contains("something like a socket timeout");
     }
 
+    @Test
+    void whenTimingOutWaitingForAPooledConnectionShouldThrowExceptionThatFailsFastRatherThanRetrying() {
+        var poolTimeout = new ResourceAccessException("I/O error", new ConnectionPoolTimeoutException("Timeout waiting for connection from pool"));
+
+        var exception = assertThrows(ConnectionPoolExhaustedException.class, () ->
+                handler.handleCommonExceptions("context", poolTimeout));
+
+        assertThat(exception.getCause()).isEqualTo(poolTimeout);
+    }
+
     @Test
     void shouldThrowRuntimeExceptionWhenClientCannotParseSeeminglySuccessfulResponse____feelsLikeImplementationDetailLowerDownShouldMoveIntoHttpClient() {
         var unparseableResponseException = new UnknownContentTypeException(PdsFhirPatient.class, APPLICATION_JSON, 200,
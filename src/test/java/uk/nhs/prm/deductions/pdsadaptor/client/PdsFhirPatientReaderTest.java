@@ -0,0 +1,110 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static uk.nhs.prm.deductions.pdsadaptor.testing.MapBuilder.array;
+import static uk.nhs.prm.deductions.pdsadaptor.testing.MapBuilder.json;
+
+class PdsFhirPatientReaderTest {
+
+    private PdsFhirPatientReader reader;
+
+    @BeforeEach
+    void setUp() {
+        reader = new PdsFhirPatientReader();
+    }
+
+    @Test
+    void shouldReadOnlyTheFieldsNeededForPatientStatusAndSkipTheRest() throws Exception {
+        var patientJson = json(p -> p
+                .kv("resourceType", "Patient")
+                .kv("address", array(a -> a
+                        .kv("id", "address-id")
+                        .kv("extension", array(e -> e
+                                .kv("url", "https://fhir.hl7.org.uk/StructureDefinition/Extension-UKCore-AddressKey")
+                                .kv("extension", array(ee -> ee.kv("url", "value").kv("valueString", "6292549")))))
+                        .kv("line", array("1 Whitehall", "Leeds"))))
+                .kv("generalPractitioner", array(gp -> gp
+                        .kv("id", "OwJvS")
+                        .kv("type", "Organization")
+                        .kv("identifier", i -> i
+                                .kv("system", "https://fhir.nhs.uk/Id/ods-organization-code")
+                                .kv("period", period -> period.kv("start", "1998-01-22"))
+                                .kv("value", "A20047"))))
+                .kv("identifier", array(i -> i.kv("system", "https://fhir.nhs.uk/Id/nhs-number").kv("value", "9691927179")))
+                .kv("id", "9691927179")
+                .kv("managingOrganization", mo -> mo
+                        .kv("type", "Organization")
+                        .kv("identifier", i -> i.kv("system", "https://fhir.nhs.uk/Id/ods-organization-code").kv("value", "B1234")))
+                .kv("meta", m -> m.kv("versionId", "2")));
+
+        var patient = read(patientJson);
+
+        assertThat(patient.getId()).isEqualTo("9691927179");
+        assertThat(patient.getGeneralPractitioner()).hasSize(1);
+        assertThat(patient.getGeneralPractitioner().get(0).getIdentifier().getValue()).isEqualTo("A20047");
+        assertThat(patient.getManagingOrganization().getIdentifier().getValue()).isEqualTo("B1234");
+        assertThat(patient.getDeceasedDateTime()).isNull();
+    }
+
+    @Test
+    void shouldReadOnlyTheFirstGeneralPractitioner() throws Exception {
+        var patientJson = json(p -> p
+                .kv("id", "9691927179")
+                .kv("generalPractitioner", array(
+                        gp -> gp.kv("identifier", i -> i.kv("value", "A20047")),
+                        gp -> gp.kv("identifier", i -> i.kv("value", "C30000")))));
+
+        var patient = read(patientJson);
+
+        assertThat(patient.getGeneralPractitioner()).hasSize(1);
+        assertThat(patient.getGeneralPractitioner().get(0).getIdentifier().getValue()).isEqualTo("A20047");
+    }
+
+    @Test
+    void shouldReadDeceasedDateTime() throws Exception {
+        var patientJson = json(p -> p
+                .kv("id", "9691927179")
+                .kv("deceasedDateTime", "2013-05-23T00:00:00+00:00"));
+
+        var patient = read(patientJson);
+
+        assertThat(patient.getDeceasedDateTime()).isEqualTo("2013-05-23T00:00:00+00:00");
+    }
+
+    @Test
+    void shouldLeaveFieldsAbsentFromTheResourceUnset() throws Exception {
+        var patient = read("{\"id\":\"9691927179\",\"generalPractitioner\":[],\"deceasedDateTime\":null}");
+
+        assertThat(patient.getId()).isEqualTo("9691927179");
+        assertThat(patient.getGeneralPractitioner()).isEmpty();
+        assertThat(patient.getManagingOrganization()).isNull();
+        assertThat(patient.getDeceasedDateTime()).isNull();
+    }
+
+    @Test
+    void shouldRejectBodyThatIsNotAJsonObject() {
+        assertThrows(JsonParseException.class, () -> read("[]"));
+    }
+
+    @Test
+    void converterShouldOnlyReadPdsFhirPatientsFromJson() {
+        var converter = new PdsFhirPatientHttpMessageConverter(reader);
+
+        assertThat(converter.canRead(PdsFhirPatient.class, MediaType.valueOf("application/fhir+json"))).isTrue();
+        assertThat(converter.canRead(PdsFhirPatient.class, MediaType.APPLICATION_JSON)).isTrue();
+        assertThat(converter.canRead(String.class, MediaType.APPLICATION_JSON)).isFalse();
+        assertThat(converter.canWrite(PdsFhirPatient.class, MediaType.APPLICATION_JSON)).isFalse();
+    }
+
+    private PdsFhirPatient read(String json) throws Exception {
+        return reader.read(json.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,180 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RequestHedgerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private RequestHedger hedger;
+
+    @AfterEach
+    void tearDown() {
+        if (hedger != null) {
+            hedger.destroy();
+        }
+    }
+
+    @Test
+    void shouldRunRequestOnCallingThreadWhenDisabled() {
+        hedger = ClientTestFixtures.noHedging();
+        var callingThread = Thread.currentThread();
+
+        var ranOn = hedge(Thread::currentThread);
+
+        assertThat(ranOn).isEqualTo(callingThread);
+    }
+
+    @Test
+    void shouldNotHedgeRequestThatAnswersWithinDelay() {
+        hedger = hedger(100, 1.0);
+        var attempts = new AtomicInteger();
+
+        var result = hedge(() -> "attempt-" + attempts.incrementAndGet());
+
+        assertThat(result).isEqualTo("attempt-1");
+        assertThat(attempts).hasValue(1);
+        assertThat(hedgesCounted("sent")).isZero();
+    }
+
+    @Test
+    void shouldUseHedgedResponseAndCancelSlowOriginalWhenOriginalIsSlowerThanDelay() throws Exception {
+        hedger = hedger(50, 1.0);
+        var attempts = new AtomicInteger();
+        var slowOriginalInterrupted = new CountDownLatch(1);
+
+        var result = hedge(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                return sleepUntilInterrupted(slowOriginalInterrupted);
+            }
+            return "hedge";
+        });
+
+        assertThat(result).isEqualTo("hedge");
+        assertThat(slowOriginalInterrupted.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(hedgesCounted("sent")).isEqualTo(1);
+        assertThat(meterRegistry.get("pds.http.hedging.winner").tag("attempt", "hedge").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldOnlyHedgeAsOftenAsTheBudgetAllows() {
+        hedger = hedger(10, 0.5);
+        var attempts = new AtomicInteger();
+        Supplier<String> slowRequest = () -> {
+            attempts.incrementAndGet();
+            sleep(50);
+            return "slow";
+        };
+
+        hedge(slowRequest);
+        hedge(slowRequest);
+        hedge(slowRequest);
+
+        assertThat(attempts).hasValue(4);
+        assertThat(hedgesCounted("sent")).isEqualTo(1);
+        assertThat(hedgesCounted("denied")).isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotHedgeARequestThatFailsQuickly() {
+        hedger = hedger(100, 1.0);
+        var attempts = new AtomicInteger();
+
+        var thrown = assertThrows(IllegalArgumentException.class, () -> hedge(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalArgumentException("bad request");
+        }));
+
+        assertThat(thrown).hasMessage("bad request");
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    void shouldWaitForTheHedgeWhenOriginalFailsAfterHedgeIsSent() {
+        hedger = hedger(20, 1.0);
+        var attempts = new AtomicInteger();
+
+        var result = hedge(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                sleep(40);
+                throw new IllegalStateException("gateway reset");
+            }
+            sleep(60);
+            return "hedge";
+        });
+
+        assertThat(result).isEqualTo("hedge");
+    }
+
+    @Test
+    void shouldThrowFirstFailureWhenOriginalAndHedgeBothFail() {
+        hedger = hedger(20, 1.0);
+        var attempts = new AtomicInteger();
+
+        var thrown = assertThrows(IllegalStateException.class, () -> hedge(() -> {
+            var attempt = attempts.incrementAndGet();
+            sleep(attempt == 1 ? 40 : 80);
+            throw new IllegalStateException("failure " + attempt);
+        }));
+
+        assertThat(thrown).hasMessage("failure 1");
+    }
+
+    @Test
+    void shouldWaitOnOriginalWhenNoPermitIsGrantedForTheHedge() {
+        hedger = hedger(10, 1.0);
+        var attempts = new AtomicInteger();
+
+        var result = hedger.execute(() -> {
+            attempts.incrementAndGet();
+            sleep(50);
+            return "original";
+        }, () -> false);
+
+        assertThat(result).isEqualTo("original");
+        assertThat(attempts).hasValue(1);
+        assertThat(hedgesCounted("no-permit")).isEqualTo(1);
+    }
+
+    private <T> T hedge(Supplier<T> request) {
+        return hedger.execute(request, () -> true);
+    }
+
+    private RequestHedger hedger(long delayMillis, double budgetRatio) {
+        return new RequestHedger(true, delayMillis, 0, budgetRatio, 1, 4, meterRegistry);
+    }
+
+    private double hedgesCounted(String outcome) {
+        return meterRegistry.get("pds.http.hedging.hedges").tag("outcome", outcome).counter().count();
+    }
+
+    private static String sleepUntilInterrupted(CountDownLatch interrupted) {
+        try {
+            Thread.sleep(5000);
+            return "original";
+        }
+        catch (InterruptedException e) {
+            interrupted.countDown();
+            throw new IllegalStateException("cancelled");
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
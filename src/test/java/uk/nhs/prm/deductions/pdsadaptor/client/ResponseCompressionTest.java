@@ -0,0 +1,146 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseCompressionTest {
+
+    private static final String PDS_FHIR_ENDPOINT = "https://pds.example.nhs.uk/";
+    private static final URI PATIENT_URI = URI.create(PDS_FHIR_ENDPOINT + "Patient/9691927179");
+    private static final String PATIENT_JSON = "{\"id\":\"9691927179\",\"name\":[{\"family\":\"Smith\"},{\"family\":\"Smith\"},{\"family\":\"Smith\"}]}";
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private ResponseCompression responseCompression;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        responseCompression = new ResponseCompression(PDS_FHIR_ENDPOINT, PDS_FHIR_ENDPOINT + "access-token", true, false, meterRegistry);
+    }
+
+    @Test
+    void shouldOnlyAskForCompressedResponsesFromEndpointsItIsEnabledFor() {
+        var patientRequestHeaders = new HttpHeaders();
+        var tokenRequestHeaders = new HttpHeaders();
+
+        responseCompression.negotiate(PATIENT_URI, patientRequestHeaders);
+        responseCompression.negotiate(URI.create(PDS_FHIR_ENDPOINT + "access-token"), tokenRequestHeaders);
+
+        assertThat(patientRequestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING)).isEqualTo("gzip, deflate");
+        assertThat(tokenRequestHeaders.containsKey(HttpHeaders.ACCEPT_ENCODING)).isFalse();
+    }
+
+    @Test
+    void shouldInflateGzipResponseAndRecordWireAndDecodedSizes() throws IOException {
+        var wireBody = gzip(PATIENT_JSON);
+
+        var response = responseCompression.decode(PATIENT_URI, encodedResponse(wireBody, "gzip"));
+        var body = new String(response.getBody().readAllBytes(), UTF_8);
+        response.close();
+
+        assertThat(body).isEqualTo(PATIENT_JSON);
+        assertThat(response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)).isFalse();
+        assertThat(response.getHeaders().containsKey(HttpHeaders.CONTENT_LENGTH)).isFalse();
+        assertThat(recordedBytes("gzip", "wire")).isEqualTo(wireBody.length);
+        assertThat(recordedBytes("gzip", "decoded")).isEqualTo(PATIENT_JSON.length());
+    }
+
+    @Test
+    void shouldCountTheWholeBodyWhenReaderStopsBeforeTheGzipTrailer() throws IOException {
+        var wireBody = gzip(PATIENT_JSON);
+
+        var response = responseCompression.decode(PATIENT_URI, encodedResponse(wireBody, "gzip"));
+        response.getBody().readNBytes(PATIENT_JSON.length());
+        response.getBody().close();
+        response.close();
+
+        assertThat(recordedBytes("gzip", "wire")).isEqualTo(wireBody.length);
+    }
+
+    @Test
+    void shouldInflateBothZlibWrappedAndRawDeflateResponses() throws IOException {
+        var zlibResponse = responseCompression.decode(PATIENT_URI, encodedResponse(deflate(PATIENT_JSON, false), "deflate"));
+        var rawResponse = responseCompression.decode(PATIENT_URI, encodedResponse(deflate(PATIENT_JSON, true), "deflate"));
+
+        assertThat(new String(zlibResponse.getBody().readAllBytes(), UTF_8)).isEqualTo(PATIENT_JSON);
+        assertThat(new String(rawResponse.getBody().readAllBytes(), UTF_8)).isEqualTo(PATIENT_JSON);
+    }
+
+    @Test
+    void shouldPassUncompressedResponsesThroughAndStillRecordTheirSize() throws IOException {
+        var response = responseCompression.decode(PATIENT_URI, new MockClientHttpResponse(PATIENT_JSON.getBytes(UTF_8), HttpStatus.OK));
+        var body = new String(response.getBody().readAllBytes(), UTF_8);
+        response.close();
+
+        assertThat(body).isEqualTo(PATIENT_JSON);
+        assertThat(recordedBytes("identity", "wire")).isEqualTo(PATIENT_JSON.length());
+        assertThat(recordedBytes("identity", "decoded")).isEqualTo(PATIENT_JSON.length());
+    }
+
+    @Test
+    void shouldHandleEmptyBodyDeclaredAsGzip() throws IOException {
+        var response = responseCompression.decode(PATIENT_URI, encodedResponse(new byte[0], "gzip"));
+
+        assertThat(response.getBody().read()).isEqualTo(-1);
+    }
+
+    @Test
+    void shouldCountTypicalFullResponseSizeAsSavedWhenResponseIsNotModified() throws IOException {
+        var wireBody = gzip(PATIENT_JSON);
+        var fullResponse = responseCompression.decode(PATIENT_URI, encodedResponse(wireBody, "gzip"));
+        fullResponse.getBody().readAllBytes();
+        fullResponse.close();
+
+        responseCompression.decode(PATIENT_URI, new MockClientHttpResponse(new byte[0], HttpStatus.NOT_MODIFIED)).close();
+
+        var bytesSaved = meterRegistry.get("pds.http.not.modified.bytes.saved").tag("endpoint", "pds-fhir").counter().count();
+        assertThat(bytesSaved).isEqualTo(wireBody.length);
+    }
+
+    private double recordedBytes(String encoding, String stage) {
+        return meterRegistry.get("pds.http.response.bytes")
+                .tag("endpoint", "pds-fhir")
+                .tag("encoding", encoding)
+                .tag("stage", stage)
+                .summary()
+                .totalAmount();
+    }
+
+    private static MockClientHttpResponse encodedResponse(byte[] body, String encoding) {
+        var response = new MockClientHttpResponse(body, HttpStatus.OK);
+        response.getHeaders().set(HttpHeaders.CONTENT_ENCODING, encoding);
+        response.getHeaders().setContentLength(body.length);
+        return response;
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        var compressed = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(content.getBytes(UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(String content, boolean raw) throws IOException {
+        var compressed = new ByteArrayOutputStream();
+        try (var deflate = new DeflaterOutputStream(compressed, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+            deflate.write(content.getBytes(UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -1,5 +1,6 @@
 package uk.nhs.prm.deductions.pdsadaptor.client;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -8,11 +9,24 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
 import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.RetryableRequestException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.TooManyRequestsException;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.RetryPolicy;
 import uk.nhs.prm.deductions.pdsadaptor.model.UpdateManagingOrganisationRequest;
+import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -20,6 +34,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
 import static uk.nhs.prm.deductions.pdsadaptor.testing.PdsFhirTestData.buildPdsSuspendedResponse;
 
 @ExtendWith(MockitoExtension.class)
@@ -35,9 +50,15 @@ class RetryingPdsFhirClientTest {
     @Captor
     private ArgumentCaptor<UUID> requestIdCaptor;
 
+    private final List<Duration> sleeps = new ArrayList<>();
+
+    private SimpleMeterRegistry meterRegistry;
+
     @BeforeEach
     void setUp() {
-        retryingClient = new RetryingPdsFhirClient(oneShotClient, 3);
+        meterRegistry = new SimpleMeterRegistry();
+        retryingClient = new RetryingPdsFhirClient(oneShotClient, ClientTestFixtures.immediateRetries(3), ClientTestFixtures.immediateRetries(3),
+                sleeps::add, meterRegistry);
     }
 
     @Test
@@ -51,6 +72,38 @@ class RetryingPdsFhirClientTest {
         assertThat(actualResponse).isEqualTo(pdsResponse);
     }
 
+    @Test
+    void shouldMakeOnlyOneCallToPdsForConcurrentRequestsForTheSamePatient() throws Exception {
+        var concurrentRequests = 10;
+        var pdsResponse = buildPdsSuspendedResponse(NHS_NUMBER, "MOF12", null);
+        var releasePdsResponse = new CountDownLatch(1);
+
+        when(oneShotClient.requestPdsRecordByNhsNumber(NHS_NUMBER)).thenAnswer(invocation -> {
+            releasePdsResponse.await(5, TimeUnit.SECONDS);
+            return pdsResponse;
+        });
+
+        var workers = Executors.newFixedThreadPool(concurrentRequests);
+        try {
+            var requests = new ArrayList<Future<PdsFhirPatient>>();
+            for (int i = 0; i < concurrentRequests; i++) {
+                requests.add(workers.submit((Callable<PdsFhirPatient>) () -> retryingClient.requestPdsRecordByNhsNumber(NHS_NUMBER)));
+            }
+            awaitSharedCalls(concurrentRequests - 1);
+            releasePdsResponse.countDown();
+
+            for (var request : requests) {
+                assertThat(request.get(5, TimeUnit.SECONDS)).isEqualTo(pdsResponse);
+            }
+        }
+        finally {
+            workers.shutdownNow();
+        }
+
+        verify(oneShotClient, times(1)).requestPdsRecordByNhsNumber(NHS_NUMBER);
+        assertThat(meterRegistry.get("pds.fhir.retrieval.coalescing.hit.ratio").gauge().value()).isEqualTo(0.9);
+    }
+
     @Test
     void shouldImmediatelyRetryGetPatientIfServerUnavailable() {
         var pdsResponse = buildPdsSuspendedResponse(NHS_NUMBER, "MOF12", null);
@@ -97,6 +150,78 @@ class RetryingPdsFhirClientTest {
         assertThat(response).isEqualTo(successfulPdsResponse);
     }
 
+    @Test
+    void shouldRetryWhenPdsRateLimitsTheRequest() {
+        var pdsResponse = buildPdsSuspendedResponse(NHS_NUMBER, "MOF12", null);
+
+        when(oneShotClient.requestPdsRecordByNhsNumber(NHS_NUMBER))
+                .thenThrow(new TooManyRequestsException())
+                .thenReturn(pdsResponse);
+
+        var actualResponse = retryingClient.requestPdsRecordByNhsNumber(NHS_NUMBER);
+
+        assertThat(actualResponse).isEqualTo(pdsResponse);
+    }
+
+    @Test
+    void shouldWaitAsLongAsPdsAsksInRetryAfterHeader() {
+        var pdsResponse = buildPdsSuspendedResponse(NHS_NUMBER, "MOF12", null);
+        var headers = new HttpHeaders();
+        headers.set("Retry-After", "2");
+
+        when(oneShotClient.requestPdsRecordByNhsNumber(NHS_NUMBER))
+                .thenThrow(new TooManyRequestsException(HttpClientErrorException.create(TOO_MANY_REQUESTS, "", headers, null, null)))
+                .thenReturn(pdsResponse);
+
+        retryingClient.requestPdsRecordByNhsNumber(NHS_NUMBER);
+
+        assertThat(sleeps).containsExactly(Duration.ofSeconds(2));
+        assertThat(meterRegistry.get("pds.fhir.retry.sleep").tag("operation", "retrieval").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldBackOffBetweenRetriesAndCountThem() {
+        var backingOffPolicy = new RetryPolicy(3, Duration.ofMinutes(1), (retryNumber, previousDelay) -> Duration.ofMillis(100L * retryNumber));
+        retryingClient = new RetryingPdsFhirClient(oneShotClient, backingOffPolicy, backingOffPolicy, sleeps::add, meterRegistry);
+
+        when(oneShotClient.requestPdsRecordByNhsNumber(NHS_NUMBER)).thenThrow(new RetryableRequestException(aServerException()));
+
+        assertThrows(RetryableRequestException.class, () -> retryingClient.requestPdsRecordByNhsNumber(NHS_NUMBER));
+
+        assertThat(sleeps).containsExactly(Duration.ofMillis(100), Duration.ofMillis(200));
+        assertThat(meterRegistry.get("pds.fhir.retries").tag("operation", "retrieval").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("pds.fhir.retries.exhausted").tag("reason", "attempts").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldGiveUpRatherThanWaitBeyondMaxElapsedTime() {
+        var impatientPolicy = new RetryPolicy(3, Duration.ofMillis(500), (retryNumber, previousDelay) -> Duration.ofSeconds(1));
+        retryingClient = new RetryingPdsFhirClient(oneShotClient, impatientPolicy, ClientTestFixtures.immediateRetries(3), sleeps::add, meterRegistry);
+
+        when(oneShotClient.requestPdsRecordByNhsNumber(NHS_NUMBER)).thenThrow(new RetryableRequestException(aServerException()));
+
+        assertThrows(RetryableRequestException.class, () -> retryingClient.requestPdsRecordByNhsNumber(NHS_NUMBER));
+
+        verify(oneShotClient, times(1)).requestPdsRecordByNhsNumber(NHS_NUMBER);
+        assertThat(sleeps).isEmpty();
+        assertThat(meterRegistry.get("pds.fhir.retries.exhausted").tag("reason", "elapsed").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldApplySeparateRetryPoliciesToRetrievalAndUpdate() {
+        retryingClient = new RetryingPdsFhirClient(oneShotClient, ClientTestFixtures.immediateRetries(1), ClientTestFixtures.immediateRetries(3),
+                sleeps::add, meterRegistry);
+
+        when(oneShotClient.requestPdsRecordByNhsNumber(NHS_NUMBER)).thenThrow(new RetryableRequestException(aServerException()));
+        when(oneShotClient.updateManagingOrganisation(any(), any(), any())).thenThrow(new RetryableRequestException(aServerException()));
+
+        assertThrows(RetryableRequestException.class, () -> retryingClient.requestPdsRecordByNhsNumber(NHS_NUMBER));
+        assertThrows(RetryableRequestException.class, () -> retryingClient.updateManagingOrganisation(NHS_NUMBER, anUpdateRequest()));
+
+        verify(oneShotClient, times(1)).requestPdsRecordByNhsNumber(NHS_NUMBER);
+        verify(oneShotClient, times(3)).updateManagingOrganisation(any(), any(), any());
+    }
+
     @NotNull
     private HttpServerErrorException aServerException() {
         return new HttpServerErrorException(SERVICE_UNAVAILABLE, "error");
@@ -106,4 +231,16 @@ class RetryingPdsFhirClientTest {
     private UpdateManagingOrganisationRequest anUpdateRequest() {
         return new UpdateManagingOrganisationRequest("ODS123", "someTag");
     }
+
+    private void awaitSharedCalls(int expected) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sharedCalls() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(sharedCalls()).isEqualTo(expected);
+    }
+
+    private double sharedCalls() {
+        return meterRegistry.get("pds.fhir.retrieval.coalescing").tag("result", "shared").counter().count();
+    }
 }
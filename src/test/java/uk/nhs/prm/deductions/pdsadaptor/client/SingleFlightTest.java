@@ -0,0 +1,98 @@
+package uk.nhs.prm.deductions.pdsadaptor.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>("test.coalescing", meterRegistry);
+    private final ExecutorService workers = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    void shouldShareExceptionFromCallInFlightWithCallersWaitingOnIt() throws Exception {
+        var callStarted = new CountDownLatch(1);
+        var releaseCall = new CountDownLatch(1);
+        var failure = new IllegalStateException("pds down");
+
+        var leader = workers.submit(() -> singleFlight.execute("key", () -> {
+            callStarted.countDown();
+            await(releaseCall);
+            throw failure;
+        }));
+        callStarted.await(5, TimeUnit.SECONDS);
+        var follower = workers.submit(() -> singleFlight.execute("key", () -> "should not be called"));
+        awaitSharedCalls(1);
+        releaseCall.countDown();
+
+        assertThat(assertThrows(ExecutionException.class, leader::get)).hasCauseReference(failure);
+        assertThat(assertThrows(ExecutionException.class, follower::get)).hasCauseReference(failure);
+    }
+
+    @Test
+    void shouldNotShareCallsForDifferentKeys() throws Exception {
+        var calls = new AtomicInteger();
+        var bothStarted = new CountDownLatch(2);
+
+        var first = workers.submit(() -> singleFlight.execute("first", () -> {
+            calls.incrementAndGet();
+            bothStarted.countDown();
+            await(bothStarted);
+            return "first";
+        }));
+        var second = workers.submit(() -> singleFlight.execute("second", () -> {
+            calls.incrementAndGet();
+            bothStarted.countDown();
+            await(bothStarted);
+            return "second";
+        }));
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("second");
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void shouldCallAgainOnceEarlierCallHasFinished() {
+        var calls = new AtomicInteger();
+
+        singleFlight.execute("key", () -> "call " + calls.incrementAndGet());
+        var result = singleFlight.execute("key", () -> "call " + calls.incrementAndGet());
+
+        assertThat(result).isEqualTo("call 2");
+        assertThat(singleFlight.hitRatio()).isZero();
+    }
+
+    private void awaitSharedCalls(int expected) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.get("test.coalescing").tag("result", "shared").counter().count() < expected
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,18 +1,39 @@
 package uk.nhs.prm.deductions.pdsadaptor.client.auth;
 
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.*;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
+import uk.nhs.prm.deductions.pdsadaptor.client.ClientTestFixtures;
 import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.AccessTokenRequestException;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.RetryPolicy;
+import uk.nhs.prm.deductions.pdsadaptor.testing.MutableClock;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -28,11 +49,17 @@ public class AuthServiceTest {
     @Mock
     private RestTemplate restTemplate;
 
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2022-03-01T09:00:00Z"));
+    private SimpleMeterRegistry meterRegistry;
+
     private AuthService authService;
 
     @BeforeEach
     void setUp()  {
-        authService = new AuthService(signedJWTGenerator, restTemplate, "https://token-endpoint");
+        authService = authService(CircuitBreaker.ofDefaults("accessToken"), false);
     }
 
     @Test
@@ -115,6 +142,265 @@ public class AuthServiceTest {
         verify(restTemplate).postForEntity("https://token-endpoint", request, String.class);
     }
 
+    @Test
+    public void shouldStopCallingTokenEndpointOnceCircuitBreakerOpensAfterServerErrors() {
+        var circuitBreaker = CircuitBreaker.of("accessToken", CircuitBreakerConfig.custom()
+                .slidingWindowSize(2)
+                .minimumNumberOfCalls(2)
+                .recordExceptions(HttpServerErrorException.class)
+                .build());
+        authService = authService(circuitBreaker, false);
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE));
+
+        assertThrows(AccessTokenRequestException.class, authService::getNewAccessToken);
+        assertThrows(AccessTokenRequestException.class, authService::getNewAccessToken);
+        var thrown = assertThrows(AccessTokenRequestException.class, authService::getNewAccessToken);
+
+        assertThat(thrown.getCause()).isInstanceOf(CallNotPermittedException.class);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        verify(restTemplate, times(2)).postForEntity("https://token-endpoint", createRequest(), String.class);
+    }
+
+    @Test
+    public void shouldScheduleRefreshSafetyMarginBeforeTokenExpires() {
+        authService = authService(CircuitBreaker.ofDefaults("accessToken"), true);
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenReturn(new ResponseEntity<>(tokenResponse("first-token", "599"), HttpStatus.OK));
+
+        authService.getAccessToken();
+
+        verify(scheduler).schedule(any(Runnable.class), eq(539_000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldReplaceTokenInBackgroundWhenScheduledRefreshRuns() {
+        authService = authService(CircuitBreaker.ofDefaults("accessToken"), true);
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenReturn(new ResponseEntity<>(tokenResponse("first-token", "599"), HttpStatus.OK))
+                .thenReturn(new ResponseEntity<>(tokenResponse("second-token", "599"), HttpStatus.OK));
+        authService.getAccessToken();
+
+        clock.advance(Duration.ofSeconds(539));
+        scheduledRefresh().run();
+
+        assertThat(authService.getAccessToken()).isEqualTo("second-token");
+        assertThat(meterRegistry.get("pds.access.token.request.duration").tag("trigger", "scheduled").timer().count()).isEqualTo(1);
+        verify(restTemplate, times(2)).postForEntity("https://token-endpoint", createRequest(), String.class);
+    }
+
+    @Test
+    public void shouldTryBackgroundRefreshAgainShortlyWhenItFails() {
+        authService = authService(CircuitBreaker.ofDefaults("accessToken"), true);
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenReturn(new ResponseEntity<>(tokenResponse("first-token", "599"), HttpStatus.OK))
+                .thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE));
+        authService.getAccessToken();
+
+        scheduledRefresh().run();
+
+        verify(scheduler).schedule(any(Runnable.class), eq(10_000L), eq(TimeUnit.MILLISECONDS));
+        assertThat(authService.getAccessToken()).isEqualTo("first-token");
+    }
+
+    @Test
+    public void shouldFetchFirstTokenOnceApplicationIsReadyAndReportItsAge() {
+        authService = authService(CircuitBreaker.ofDefaults("accessToken"), true);
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenReturn(new ResponseEntity<>(tokenResponse("first-token", "599"), HttpStatus.OK));
+
+        authService.fetchFirstAccessToken();
+        var startupFetch = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).execute(startupFetch.capture());
+        startupFetch.getValue().run();
+        clock.advance(Duration.ofSeconds(30));
+
+        assertThat(authService.getAccessToken()).isEqualTo("first-token");
+        assertThat(meterRegistry.get("pds.access.token.age").gauge().value()).isEqualTo(30);
+        verify(restTemplate, times(1)).postForEntity("https://token-endpoint", createRequest(), String.class);
+    }
+
+    @Test
+    public void shouldReplaceTokenKnownToHaveExpiredBeforeUsingIt() {
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenReturn(new ResponseEntity<>(tokenResponse("first-token", "599"), HttpStatus.OK))
+                .thenReturn(new ResponseEntity<>(tokenResponse("second-token", "599"), HttpStatus.OK));
+        authService.getAccessToken();
+
+        clock.advance(Duration.ofSeconds(599));
+
+        assertThat(authService.getAccessToken()).isEqualTo("second-token");
+    }
+
+    @Test
+    public void shouldCountTokensRequestedBecausePdsRejectedTheCurrentOne() {
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenReturn(new ResponseEntity<>(tokenResponse("new-token", "599"), HttpStatus.OK));
+
+        authService.getNewAccessToken();
+
+        assertThat(meterRegistry.get("pds.access.token.unauthorized.refreshes").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("pds.access.token.request.duration").tag("trigger", "unauthorized").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReplaceTokenInUseOnceSigningKeyIsRotated() {
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenReturn(new ResponseEntity<>(tokenResponse("token-from-new-key", "599"), HttpStatus.OK));
+        authService.setAccessToken("token-from-old-key");
+
+        authService.renewAfterKeyRotation();
+
+        assertThat(authService.getAccessToken()).isEqualTo("token-from-new-key");
+        assertThat(meterRegistry.get("pds.access.token.request.duration").tag("trigger", "key-rotation").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldGiveReplacementWithoutRenewingAgainWhenRejectedTokenHasAlreadyBeenReplaced() {
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenReturn(new ResponseEntity<>(tokenResponse("second-token", "599"), HttpStatus.OK));
+        authService.setAccessToken("first-token");
+
+        assertThat(authService.getNewAccessToken("first-token")).isEqualTo("second-token");
+        assertThat(authService.getNewAccessToken("first-token")).isEqualTo("second-token");
+
+        verify(restTemplate, times(1)).postForEntity("https://token-endpoint", createRequest(), String.class);
+    }
+
+    @Test
+    public void shouldRenewEachRejectedTokenOnceWhileCallersUnderLoadAlwaysSeeTheLatestTokenTheyWereGiven() throws Exception {
+        var issued = new AtomicInteger();
+        var acceptedByPds = new AtomicReference<String>();
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity(eq("https://token-endpoint"), any(), eq(String.class))).thenAnswer(invocation -> {
+            Thread.sleep(5);
+            var token = "token-" + issued.incrementAndGet();
+            acceptedByPds.set(token);
+            return new ResponseEntity<>(tokenResponse(token, "599"), HttpStatus.OK);
+        });
+        var threads = 8;
+        var revocations = 50;
+        var revoked = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            var callers = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++) {
+                callers.add(executor.submit(() -> {
+                    start.await();
+                    var lastSeen = 0;
+                    while (revoked.get() < revocations) {
+                        var token = authService.getAccessToken();
+                        if (!token.equals(acceptedByPds.get())) {
+                            token = authService.getNewAccessToken(token);
+                        }
+                        var version = Integer.parseInt(token.substring("token-".length()));
+                        assertThat(version).isGreaterThanOrEqualTo(lastSeen).isLessThanOrEqualTo(issued.get());
+                        lastSeen = version;
+                    }
+                    return null;
+                }));
+            }
+            var revoker = executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < revocations; i++) {
+                    Thread.sleep(2);
+                    acceptedByPds.set("revoked");
+                    revoked.incrementAndGet();
+                }
+                return null;
+            });
+            start.countDown();
+
+            revoker.get(30, TimeUnit.SECONDS);
+            for (var caller : callers) {
+                caller.get(30, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(issued.get()).isBetween(1, revocations + 1);
+        assertThat(meterRegistry.get("pds.access.token.unauthorized.refreshes").counter().count()).isEqualTo(issued.get() - 1);
+    }
+
+    @Test
+    public void shouldRetryServerErrorsWithANewClientAssertionEachTry() {
+        authService = authService(CircuitBreaker.ofDefaults("accessToken"), ClientTestFixtures.immediateRetries(3), false);
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("first-assertion", "second-assertion", "third-assertion");
+        when(restTemplate.postForEntity(eq("https://token-endpoint"), any(), eq(String.class)))
+                .thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))
+                .thenThrow(new ResourceAccessException("Read timed out"))
+                .thenReturn(new ResponseEntity<>(tokenResponse("new-token", "599"), HttpStatus.OK));
+
+        assertThat(authService.getNewAccessToken()).isEqualTo("new-token");
+
+        var requests = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(restTemplate, times(3)).postForEntity(eq("https://token-endpoint"), requests.capture(), eq(String.class));
+        assertThat(requests.getAllValues()).extracting(request -> ((MultiValueMap<?, ?>) request.getBody()).getFirst("client_assertion"))
+                .containsExactly("first-assertion", "second-assertion", "third-assertion");
+        assertThat(meterRegistry.get("pds.access.token.retries").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotRetryWhenTokenEndpointRejectsTheRequest() {
+        authService = authService(CircuitBreaker.ofDefaults("accessToken"), ClientTestFixtures.immediateRetries(3), false);
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST));
+
+        assertThrows(AccessTokenRequestException.class, authService::getNewAccessToken);
+
+        verify(restTemplate, times(1)).postForEntity("https://token-endpoint", createRequest(), String.class);
+    }
+
+    @Test
+    public void shouldGiveUpWhenRetriesAreExhausted() {
+        authService = authService(CircuitBreaker.ofDefaults("accessToken"), ClientTestFixtures.immediateRetries(2), false);
+        when(signedJWTGenerator.createSignedJWT()).thenReturn("Test");
+        when(restTemplate.postForEntity("https://token-endpoint", createRequest(), String.class))
+                .thenThrow(HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", new HttpHeaders(), null, null));
+
+        var thrown = assertThrows(AccessTokenRequestException.class, authService::getNewAccessToken);
+
+        assertThat(thrown.getCause()).isInstanceOf(HttpClientErrorException.TooManyRequests.class);
+        verify(restTemplate, times(2)).postForEntity("https://token-endpoint", createRequest(), String.class);
+    }
+
+    private AuthService authService(CircuitBreaker circuitBreaker, boolean refreshAhead) {
+        return authService(circuitBreaker, ClientTestFixtures.immediateRetries(1), refreshAhead);
+    }
+
+    private AuthService authService(CircuitBreaker circuitBreaker, RetryPolicy retryPolicy, boolean refreshAhead) {
+        meterRegistry = new SimpleMeterRegistry();
+        return new AuthService(signedJWTGenerator, restTemplate, "https://token-endpoint", circuitBreaker,
+                Bulkhead.ofDefaults("accessToken"), retryPolicy, duration -> {}, refreshAhead, Duration.ofSeconds(60), Duration.ofSeconds(10), clock,
+                scheduler, meterRegistry);
+    }
+
+    private Runnable scheduledRefresh() {
+        var refresh = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(refresh.capture(), eq(539_000L), eq(TimeUnit.MILLISECONDS));
+        return refresh.getValue();
+    }
+
+    private static String tokenResponse(String accessToken, String expiresIn) {
+        return json(tr -> tr
+                .kv("access_token", accessToken)
+                .kv("expires_in", expiresIn)
+                .kv("token_type", "Bearer"));
+    }
+
     private HttpEntity<MultiValueMap<String, String>> createRequest() {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
@@ -0,0 +1,81 @@
+package uk.nhs.prm.deductions.pdsadaptor.client.retry;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryPolicyTest {
+
+    private static final Duration BASE_DELAY = Duration.ofMillis(100);
+    private static final Duration MAX_DELAY = Duration.ofSeconds(1);
+
+    @Test
+    void fullJitterShouldStayWithinExponentiallyGrowingCeilingCappedAtMaximum() {
+        var backoff = new FullJitterBackoff(BASE_DELAY, MAX_DELAY);
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(backoff.delayBeforeRetry(1, Duration.ZERO)).isBetween(Duration.ZERO, Duration.ofMillis(100));
+            assertThat(backoff.delayBeforeRetry(3, Duration.ZERO)).isBetween(Duration.ZERO, Duration.ofMillis(400));
+            assertThat(backoff.delayBeforeRetry(20, Duration.ZERO)).isBetween(Duration.ZERO, MAX_DELAY);
+        }
+    }
+
+    @Test
+    void decorrelatedJitterShouldStayBetweenBaseAndThreeTimesPreviousDelayCappedAtMaximum() {
+        var backoff = new DecorrelatedJitterBackoff(BASE_DELAY, MAX_DELAY);
+
+        assertThat(backoff.delayBeforeRetry(1, Duration.ZERO)).isEqualTo(BASE_DELAY);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(backoff.delayBeforeRetry(2, Duration.ofMillis(200))).isBetween(BASE_DELAY, Duration.ofMillis(600));
+            assertThat(backoff.delayBeforeRetry(5, Duration.ofMillis(900))).isBetween(BASE_DELAY, MAX_DELAY);
+        }
+    }
+
+    @Test
+    void shouldNotRetryOnceOutOfTries() {
+        var policy = new RetryPolicy(3, Duration.ofMinutes(1), new FullJitterBackoff(BASE_DELAY, MAX_DELAY));
+
+        assertThat(policy.delayBeforeNextTry(2, Duration.ZERO, Duration.ZERO, Optional.empty())).isPresent();
+        assertThat(policy.delayBeforeNextTry(3, Duration.ZERO, Duration.ZERO, Optional.empty())).isEmpty();
+    }
+
+    @Test
+    void shouldNotRetryWhenWaitingWouldTakeItPastMaxElapsedTime() {
+        var policy = new RetryPolicy(5, Duration.ofSeconds(2), (retryNumber, previousDelay) -> Duration.ofMillis(500));
+
+        assertThat(policy.delayBeforeNextTry(1, Duration.ofMillis(1500), Duration.ZERO, Optional.empty())).contains(Duration.ofMillis(500));
+        assertThat(policy.delayBeforeNextTry(2, Duration.ofMillis(1600), Duration.ZERO, Optional.empty())).isEmpty();
+    }
+
+    @Test
+    void shouldWaitForRetryAfterWhenLongerThanBackoff() {
+        var policy = new RetryPolicy(3, Duration.ofMinutes(1), (retryNumber, previousDelay) -> Duration.ofMillis(500));
+
+        assertThat(policy.delayBeforeNextTry(1, Duration.ZERO, Duration.ZERO, Optional.of(Duration.ofSeconds(3)))).contains(Duration.ofSeconds(3));
+        assertThat(policy.delayBeforeNextTry(1, Duration.ZERO, Duration.ZERO, Optional.of(Duration.ofMillis(100)))).contains(Duration.ofMillis(500));
+    }
+
+    @Test
+    void shouldReadRetryAfterGivenInSecondsOrAsHttpDate() {
+        var clock = Clock.fixed(Instant.parse("2021-10-21T07:28:00Z"), ZoneOffset.UTC);
+
+        assertThat(RetryAfter.from(retryAfter("120"), clock)).contains(Duration.ofSeconds(120));
+        assertThat(RetryAfter.from(retryAfter("Thu, 21 Oct 2021 07:28:30 GMT"), clock)).contains(Duration.ofSeconds(30));
+        assertThat(RetryAfter.from(retryAfter("Thu, 21 Oct 2021 07:27:00 GMT"), clock)).contains(Duration.ZERO);
+        assertThat(RetryAfter.from(retryAfter("soon"), clock)).isEmpty();
+        assertThat(RetryAfter.from(new HttpHeaders(), clock)).isEmpty();
+    }
+
+    private static HttpHeaders retryAfter(String value) {
+        var headers = new HttpHeaders();
+        headers.set("Retry-After", value);
+        return headers;
+    }
+}
@@ -0,0 +1,118 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.web.client.ResourceAccessException;
+import uk.nhs.prm.deductions.pdsadaptor.client.ResponseCompression;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AccessTokenHttpClientTest {
+
+    private WireMockServer tokenServer;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AccessTokenHttpClient client;
+
+    @BeforeEach
+    void setUp() {
+        tokenServer = new WireMockServer(options().dynamicPort());
+        tokenServer.start();
+        meterRegistry = new SimpleMeterRegistry();
+        client = accessTokenClient(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.destroy();
+        tokenServer.stop();
+    }
+
+    @Test
+    void shouldOpenConnectionsToTokenEndpointOnceWarmedUp() {
+        client.warmUp();
+
+        assertThat(client.poolStats().getAvailable()).isEqualTo(2);
+        assertThat(meterRegistry.get("pds.access.token.http.pool.available").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldKeepWarmedConnectionsForRenewalThatComesBeforeTheIdleLimit() throws InterruptedException {
+        client.destroy();
+        client = accessTokenClient(2, 60_000);
+        client.warmUp();
+
+        Thread.sleep(100);
+        client.evictIdleConnections();
+
+        assertThat(client.poolStats().getAvailable()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldCloseWarmedConnectionsLeftIdleForLongerThanTheIdleLimit() throws InterruptedException {
+        client.destroy();
+        client = accessTokenClient(2, 50);
+        client.warmUp();
+
+        Thread.sleep(200);
+        client.evictIdleConnections();
+
+        assertThat(client.poolStats().getAvailable()).isZero();
+    }
+
+    @Test
+    void shouldNotOpenMoreConnectionsThanThePoolAllows() {
+        client.destroy();
+        client = accessTokenClient(5);
+
+        client.warmUp();
+
+        assertThat(client.poolStats().getAvailable()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldTimeEachTokenRequestByOutcome() {
+        tokenServer.stubFor(post(urlEqualTo("/access-token")).willReturn(aResponse().withBody("{\"access_token\":\"token\"}")));
+
+        var response = client.getRestTemplate().postForEntity(tokenUrl(), new LinkedMultiValueMap<>(), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(meterRegistry.get("pds.access.token.http.request").tag("outcome", "2xx").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("pds.access.token.http.pool.lease").tag("outcome", "leased").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldGiveUpOnTokenEndpointThatIsSlowerThanTheReadTimeout() {
+        tokenServer.stubFor(post(urlEqualTo("/access-token")).willReturn(aResponse().withFixedDelay(1000)));
+
+        assertThrows(ResourceAccessException.class,
+                () -> client.getRestTemplate().postForEntity(tokenUrl(), new LinkedMultiValueMap<>(), String.class));
+
+        assertThat(meterRegistry.get("pds.access.token.http.request").tag("outcome", "io-error").timer().count()).isEqualTo(1);
+    }
+
+    private AccessTokenHttpClient accessTokenClient(int warmConnections) {
+        return accessTokenClient(warmConnections, 900000);
+    }
+
+    private AccessTokenHttpClient accessTokenClient(int warmConnections, long maxIdleMillis) {
+        var responseCompression = new ResponseCompression("https://pds.example.nhs.uk/", tokenUrl(), true, false, meterRegistry);
+        return new AccessTokenHttpClient(tokenUrl(), 2, 500, 200, 100, warmConnections, 2000, maxIdleMillis, 900000,
+                responseCompression, meterRegistry);
+    }
+
+    private String tokenUrl() {
+        return "http://localhost:" + tokenServer.port() + "/access-token";
+    }
+}
@@ -0,0 +1,112 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HttpConnectionPoolManagerTest {
+
+    private static final String PDS_FHIR_ENDPOINT = "https://pds.example.nhs.uk/personal-demographics/FHIR/R4/";
+    private static final String ACCESS_TOKEN_ENDPOINT = "https://auth.example.nhs.uk/oauth2/token";
+
+    private static final HttpRoute ACCESS_TOKEN_ROUTE = new HttpRoute(new HttpHost("auth.example.nhs.uk", 443, "https"), null, true);
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private HttpConnectionPoolManager poolManager;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        poolManager = new HttpConnectionPoolManager(PDS_FHIR_ENDPOINT, ACCESS_TOKEN_ENDPOINT, 50, 10, 2, 2000, 30000, 30000, 100, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        poolManager.destroy();
+    }
+
+    @Test
+    void shouldApplySeparateLimitsToPdsFhirAndAccessTokenRoutes() {
+        assertThat(poolManager.routeStats("pds-fhir").getMax()).isEqualTo(10);
+        assertThat(poolManager.routeStats("access-token").getMax()).isEqualTo(2);
+        assertThat(poolManager.getConnectionManager().getMaxTotal()).isEqualTo(50);
+    }
+
+    @Test
+    void shouldKeepTheExistingLimitWhenBothEndpointsShareARoute() {
+        var sharedRoutePool = new HttpConnectionPoolManager("http://localhost:8080/", "http://localhost:8080/access-token",
+                50, 10, 2, 2000, 30000, 30000, 100, new SimpleMeterRegistry());
+
+        assertThat(sharedRoutePool.routeStats("access-token").getMax()).isEqualTo(10);
+
+        sharedRoutePool.destroy();
+    }
+
+    @Test
+    void shouldKeepConnectionAliveForAsLongAsServerAllowsWhenShorterThanMaximum() {
+        var response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.addHeader("Keep-Alive", "timeout=5");
+
+        assertThat(poolManager.keepAliveStrategy().getKeepAliveDuration(response, new BasicHttpContext())).isEqualTo(5000);
+    }
+
+    @Test
+    void shouldCapServerKeepAliveAtMaximum() {
+        var response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.addHeader("Keep-Alive", "timeout=600");
+
+        assertThat(poolManager.keepAliveStrategy().getKeepAliveDuration(response, new BasicHttpContext())).isEqualTo(30000);
+    }
+
+    @Test
+    void shouldUseMaximumKeepAliveWhenServerDoesNotSpecifyOne() {
+        var response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+
+        assertThat(poolManager.keepAliveStrategy().getKeepAliveDuration(response, new BasicHttpContext())).isEqualTo(30000);
+    }
+
+    @Test
+    void shouldExportPoolCountsPerRoute() {
+        assertThat(meterRegistry.get("pds.http.pool.max").tag("route", "access-token").gauge().value()).isEqualTo(2);
+        assertThat(meterRegistry.get("pds.http.pool.leased").tag("route", "pds-fhir").gauge().value()).isZero();
+        assertThat(meterRegistry.get("pds.http.pool.pending").tag("route", "all").gauge().value()).isZero();
+        assertThat(meterRegistry.get("pds.http.pool.available").tag("route", "all").gauge().value()).isZero();
+    }
+
+    @Test
+    void shouldTimeConnectionLeaseSeparatelyFromConnectionUsage() throws Exception {
+        var connectionManager = poolManager.getTimedConnectionManager();
+
+        var connection = connectionManager.requestConnection(ACCESS_TOKEN_ROUTE, null).get(100, MILLISECONDS);
+        connectionManager.releaseConnection(connection, null, 0, MILLISECONDS);
+
+        assertThat(meterRegistry.get("pds.http.pool.lease").tag("route", "access-token").tag("outcome", "leased").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("pds.http.connection.usage").tag("route", "access-token").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldFailFastAndRecordTimeoutWhenNoConnectionIsFreeWithinLeaseTimeout() throws Exception {
+        var connectionManager = poolManager.getTimedConnectionManager();
+        connectionManager.requestConnection(ACCESS_TOKEN_ROUTE, null).get(100, MILLISECONDS);
+        connectionManager.requestConnection(ACCESS_TOKEN_ROUTE, null).get(100, MILLISECONDS);
+
+        assertThrows(ConnectionPoolTimeoutException.class,
+                () -> connectionManager.requestConnection(ACCESS_TOKEN_ROUTE, null).get(poolManager.getLeaseTimeoutMillis(), MILLISECONDS));
+
+        var timeouts = meterRegistry.get("pds.http.pool.lease").tag("route", "access-token").tag("outcome", "timeout").timer();
+        assertThat(timeouts.count()).isEqualTo(1);
+        assertThat(timeouts.totalTime(MILLISECONDS)).isGreaterThanOrEqualTo(90);
+    }
+}
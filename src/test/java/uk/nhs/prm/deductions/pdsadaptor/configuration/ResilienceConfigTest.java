@@ -0,0 +1,39 @@
+package uk.nhs.prm.deductions.pdsadaptor.configuration;
+
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResilienceConfigTest {
+
+    private final ResilienceConfig resilienceConfig = new ResilienceConfig();
+
+    @Test
+    void shouldLetInTheConfiguredRetrievalsWithoutHedging() {
+        var bulkhead = resilienceConfig.pdsFhirRetrievalBulkhead(registryAllowing(8), new SimpleMeterRegistry(), false);
+
+        assertThat(bulkhead.getBulkheadConfig().getMaxConcurrentCalls()).isEqualTo(8);
+    }
+
+    @Test
+    void shouldLetInHalfTheRetrievalsWhenEachCanHoldASecondConnectionForAHedge() {
+        var bulkhead = resilienceConfig.pdsFhirRetrievalBulkhead(registryAllowing(8), new SimpleMeterRegistry(), true);
+
+        assertThat(bulkhead.getBulkheadConfig().getMaxConcurrentCalls()).isEqualTo(4);
+        assertThat(bulkhead.getMetrics().getAvailableConcurrentCalls()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldAlwaysLetInAtLeastOneRetrieval() {
+        var bulkhead = resilienceConfig.pdsFhirRetrievalBulkhead(registryAllowing(1), new SimpleMeterRegistry(), true);
+
+        assertThat(bulkhead.getBulkheadConfig().getMaxConcurrentCalls()).isEqualTo(1);
+    }
+
+    private static BulkheadRegistry registryAllowing(int maxConcurrentCalls) {
+        return BulkheadRegistry.of(BulkheadConfig.custom().maxConcurrentCalls(maxConcurrentCalls).build());
+    }
+}
@@ -173,4 +173,22 @@ class PdsControllerTest {
 
         verify(pdsService,times(1)).getPatientGpStatus(NHS_NUMBER);
     }
+
+    @Test
+    void shouldBypassCacheWhenRequestAsksForNoCache() throws Exception {
+        var patientStatus = new SuspendedPatientStatus(NHS_NUMBER, true, null, null, "W1", false);
+        when(pdsService.getPatientGpStatusBypassingCache(NHS_NUMBER)).thenReturn(patientStatus);
+
+        Principal mockPrincipal = mock(Principal.class);
+        when(mockPrincipal.getName()).thenReturn("fake-user");
+
+        mockMvc.perform(get("/suspended-patient-status/" + NHS_NUMBER)
+                        .header("traceId", "fake-trace-id")
+                        .header("Cache-Control", "no-cache")
+                        .principal(mockPrincipal))
+                .andExpect(status().isOk());
+
+        verify(pdsService).getPatientGpStatusBypassingCache(NHS_NUMBER);
+        verify(pdsService, never()).getPatientGpStatus(NHS_NUMBER);
+    }
 }
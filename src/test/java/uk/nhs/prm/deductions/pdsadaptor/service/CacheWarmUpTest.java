@@ -0,0 +1,162 @@
+package uk.nhs.prm.deductions.pdsadaptor.service;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.ResourceAccessException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.BulkheadRejectedException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.ClientRateLimitExceededException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.NotFoundException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.RetryableRequestException;
+import uk.nhs.prm.deductions.pdsadaptor.client.retry.Sleeper;
+import uk.nhs.prm.deductions.pdsadaptor.model.CacheWarmUpStatus.State;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class CacheWarmUpTest {
+
+    private final PdsService pdsService = mock(PdsService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Duration> sleeps = new CopyOnWriteArrayList<>();
+    private final Sleeper recordingSleeper = sleeps::add;
+
+    private CacheWarmUp cacheWarmUp;
+
+    @AfterEach
+    void tearDown() {
+        if (cacheWarmUp != null) {
+            cacheWarmUp.destroy();
+        }
+    }
+
+    @Test
+    void shouldNotHaveStartedUntilAskedTo() {
+        cacheWarmUp = cacheWarmUp(10, 1, 50);
+
+        assertThat(cacheWarmUp.status().getState()).isEqualTo(State.NOT_STARTED);
+    }
+
+    @Test
+    void shouldLookUpEachNhsNumberInFileAndReportOutcomesOnCompletion(@TempDir Path directory) throws Exception {
+        var nhsNumbers = Files.writeString(directory.resolve("nhs-numbers.txt"), "9691927179\n9691927180\n\nnot-an-nhs-number\n9691927181\n");
+        when(pdsService.getPatientGpStatus("9691927180")).thenThrow(new NotFoundException("not found"));
+        cacheWarmUp = cacheWarmUp(10, 2, 50);
+
+        assertThat(cacheWarmUp.startFromFile(nhsNumbers)).isTrue();
+        cacheWarmUp.completion().get(5, TimeUnit.SECONDS);
+
+        var status = cacheWarmUp.status();
+        assertThat(status.getState()).isEqualTo(State.COMPLETED);
+        assertThat(status.getSource()).isEqualTo(nhsNumbers.toString());
+        assertThat(status.getProcessed()).isEqualTo(4);
+        assertThat(status.getWarmed()).isEqualTo(2);
+        assertThat(status.getNotFound()).isEqualTo(1);
+        assertThat(status.getInvalid()).isEqualTo(1);
+        assertThat(status.getCompletedAt()).isNotNull();
+        verify(pdsService).getPatientGpStatus("9691927179");
+        verify(pdsService).getPatientGpStatus("9691927181");
+        assertThat(meterRegistry.get("pds.cache.warm.up.patients").tag("result", "warmed").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldPaceLookupsToTheWarmUpRate() throws Exception {
+        cacheWarmUp = cacheWarmUp(10, 1, 50);
+
+        cacheWarmUp.startFromRequest(body("9691927179\n9691927180\n9691927181\n9691927182\n"));
+        cacheWarmUp.completion().get(5, TimeUnit.SECONDS);
+
+        assertThat(sleeps).containsExactly(Duration.ofMillis(100), Duration.ofMillis(200), Duration.ofMillis(300));
+    }
+
+    @Test
+    void shouldStopWhenPdsKeepsFailing() throws Exception {
+        when(pdsService.getPatientGpStatus(anyString())).thenThrow(new RetryableRequestException(new ResourceAccessException("connection reset")));
+        cacheWarmUp = cacheWarmUp(10, 1, 2);
+
+        cacheWarmUp.startFromRequest(body("9691927179\n9691927180\n9691927181\n9691927182\n"));
+        cacheWarmUp.completion().get(5, TimeUnit.SECONDS);
+
+        assertThat(cacheWarmUp.status().getState()).isEqualTo(State.STOPPED);
+        assertThat(cacheWarmUp.status().getFailed()).isEqualTo(2);
+        verify(pdsService, times(2)).getPatientGpStatus(anyString());
+    }
+
+    @Test
+    void shouldNotStartAnotherWarmUpWhileOneIsRunning() throws Exception {
+        var lookupStarted = new CountDownLatch(1);
+        var releaseLookup = new CountDownLatch(1);
+        when(pdsService.getPatientGpStatus("9691927179")).thenAnswer(invocation -> {
+            lookupStarted.countDown();
+            releaseLookup.await(5, TimeUnit.SECONDS);
+            return null;
+        });
+        cacheWarmUp = cacheWarmUp(10, 1, 50);
+
+        assertThat(cacheWarmUp.startFromRequest(body("9691927179\n"))).isTrue();
+        lookupStarted.await(5, TimeUnit.SECONDS);
+
+        assertThat(cacheWarmUp.status().getState()).isEqualTo(State.RUNNING);
+        assertThat(cacheWarmUp.startFromRequest(body("9691927180\n"))).isFalse();
+
+        releaseLookup.countDown();
+        cacheWarmUp.completion().get(5, TimeUnit.SECONDS);
+        assertThat(cacheWarmUp.startFromRequest(body("9691927180\n"))).isTrue();
+    }
+
+    @Test
+    void shouldRetryLookupsTurnedAwayByOurOwnLimitsWithoutCountingThemAsFailures() throws Exception {
+        when(pdsService.getPatientGpStatus("9691927179"))
+                .thenThrow(new BulkheadRejectedException("retrieval", BulkheadFullException.createBulkheadFullException(Bulkhead.ofDefaults("pdsFhirRetrieval"))))
+                .thenThrow(new ClientRateLimitExceededException("rate limit"))
+                .thenReturn(null);
+        cacheWarmUp = cacheWarmUp(10, 1, 1);
+
+        cacheWarmUp.startFromRequest(body("9691927179\n"));
+        cacheWarmUp.completion().get(5, TimeUnit.SECONDS);
+
+        var status = cacheWarmUp.status();
+        assertThat(status.getState()).isEqualTo(State.COMPLETED);
+        assertThat(status.getWarmed()).isEqualTo(1);
+        assertThat(status.getFailed()).isZero();
+        assertThat(sleeps).containsExactly(Duration.ofSeconds(1), Duration.ofSeconds(1));
+        assertThat(meterRegistry.get("pds.cache.warm.up.back.pressure").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotStartWhenThePatientStatusCacheIsDisabled() throws Exception {
+        cacheWarmUp = new CacheWarmUp(pdsService, false, "", 10, 1, 50, recordingSleeper, () -> 0L, Clock.systemUTC(), meterRegistry);
+
+        assertThat(cacheWarmUp.startFromRequest(body("9691927179\n"))).isFalse();
+        assertThat(cacheWarmUp.status().getState()).isEqualTo(State.NOT_STARTED);
+        verifyNoInteractions(pdsService);
+    }
+
+    private CacheWarmUp cacheWarmUp(double ratePerSecond, int concurrency, int maxConsecutiveFailures) {
+        return new CacheWarmUp(pdsService, true, "", ratePerSecond, concurrency, maxConsecutiveFailures, recordingSleeper,
+                () -> 0L, Clock.systemUTC(), meterRegistry);
+    }
+
+    private static ByteArrayInputStream body(String nhsNumbers) {
+        return new ByteArrayInputStream(nhsNumbers.getBytes(UTF_8));
+    }
+}
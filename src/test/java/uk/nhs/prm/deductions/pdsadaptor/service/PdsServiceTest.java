@@ -2,18 +2,34 @@ package uk.nhs.prm.deductions.pdsadaptor.service;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import uk.nhs.prm.deductions.pdsadaptor.cache.CacheInvalidationBus;
+import uk.nhs.prm.deductions.pdsadaptor.cache.CachedPatientStatus;
+import uk.nhs.prm.deductions.pdsadaptor.cache.NotFoundCache;
+import uk.nhs.prm.deductions.pdsadaptor.cache.PatientStatusCache;
+import uk.nhs.prm.deductions.pdsadaptor.cache.RefreshAhead;
 import uk.nhs.prm.deductions.pdsadaptor.client.RetryingPdsFhirClient;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.NotFoundException;
+import uk.nhs.prm.deductions.pdsadaptor.client.exceptions.PreconditionFailedException;
 import uk.nhs.prm.deductions.pdsadaptor.model.UpdateManagingOrganisationRequest;
 import uk.nhs.prm.deductions.pdsadaptor.model.pdsresponse.PdsFhirPatient;
 import uk.nhs.prm.deductions.pdsadaptor.model.SuspendedPatientStatus;
 import uk.nhs.prm.deductions.pdsadaptor.testing.PdsFhirTestData;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -22,6 +38,18 @@ class PdsServiceTest {
     @Mock
     private RetryingPdsFhirClient pdsFhirClient;
 
+    @Mock
+    private PatientStatusCache patientStatusCache;
+
+    @Mock
+    private NotFoundCache notFoundCache;
+
+    @Mock
+    private RefreshAhead refreshAhead;
+
+    @Mock
+    private CacheInvalidationBus invalidationBus;
+
     @InjectMocks
     private PdsService pdsService;
     public static final String NHS_NUMBER = "1234567890";
@@ -116,4 +144,136 @@ class PdsServiceTest {
         assertThat(expected.getRecordETag()).isEqualTo(RECORD_E_TAG);
     }
 
+    @Test
+    void shouldReturnFreshCachedStatusWithoutCallingPdsFhir() {
+        var cachedStatus = SuspendedPatientStatus.suspendedPatientStatus(NHS_NUMBER, "B1234", RECORD_E_TAG);
+        var freshEntry = new CachedPatientStatus(cachedStatus, Instant.now(), Instant.now().plusSeconds(600));
+        when(patientStatusCache.getFreshEntry(NHS_NUMBER)).thenReturn(Optional.of(freshEntry));
+
+        var status = pdsService.getPatientGpStatus(NHS_NUMBER);
+
+        assertThat(status).isSameAs(cachedStatus);
+        verifyNoInteractions(pdsFhirClient);
+    }
+
+    @Test
+    void shouldRefreshFreshCachedStatusAheadOfExpiryWithAConditionalRequest() {
+        var cachedStatus = SuspendedPatientStatus.suspendedPatientStatus(NHS_NUMBER, "B1234", RECORD_E_TAG);
+        var freshEntry = new CachedPatientStatus(cachedStatus, Instant.now().minusSeconds(550), Instant.now().plusSeconds(50));
+        when(patientStatusCache.getFreshEntry(NHS_NUMBER)).thenReturn(Optional.of(freshEntry));
+        when(pdsFhirClient.requestPdsRecordByNhsNumberIfChanged(NHS_NUMBER, RECORD_E_TAG)).thenReturn(Optional.empty());
+
+        pdsService.getPatientGpStatus(NHS_NUMBER);
+        var refresh = ArgumentCaptor.forClass(Runnable.class);
+        verify(refreshAhead).refreshIfDue(eq(NHS_NUMBER), eq(freshEntry), refresh.capture());
+        refresh.getValue().run();
+
+        verify(patientStatusCache).refreshExpiry(NHS_NUMBER, freshEntry);
+    }
+
+    @Test
+    void shouldCacheStatusFetchedFromPdsFhir() {
+        PdsFhirPatient pdsResponse = PdsFhirTestData.buildPdsSuspendedResponse(NHS_NUMBER, "B1234", RECORD_E_TAG);
+        when(pdsFhirClient.requestPdsRecordByNhsNumber(NHS_NUMBER)).thenReturn(pdsResponse);
+
+        var status = pdsService.getPatientGpStatus(NHS_NUMBER);
+
+        verify(patientStatusCache).put(NHS_NUMBER, status);
+    }
+
+    @Test
+    void shouldGoToPdsFhirWhenBypassingCacheAndCacheTheResult() {
+        PdsFhirPatient pdsResponse = PdsFhirTestData.buildPdsSuspendedResponse(NHS_NUMBER, "B1234", RECORD_E_TAG);
+        when(pdsFhirClient.requestPdsRecordByNhsNumber(NHS_NUMBER)).thenReturn(pdsResponse);
+
+        var status = pdsService.getPatientGpStatusBypassingCache(NHS_NUMBER);
+
+        assertThat(status.getRecordETag()).isEqualTo(RECORD_E_TAG);
+        verify(patientStatusCache).recordBypass();
+        verify(patientStatusCache).put(NHS_NUMBER, status);
+    }
+
+    @Test
+    void shouldWriteUpdatedStatusWithItsNewEtagIntoTheCacheAndTellOtherTasks() {
+        PdsFhirPatient pdsResponse = PdsFhirTestData.buildPdsSuspendedResponse(NHS_NUMBER, "A1234", "W/\"3\"");
+        var updateRequest = new UpdateManagingOrganisationRequest("A1234", RECORD_E_TAG);
+        when(pdsFhirClient.updateManagingOrganisation(NHS_NUMBER, updateRequest)).thenReturn(pdsResponse);
+
+        var status = pdsService.updatePatientManagingOrganisation(NHS_NUMBER, updateRequest);
+
+        verify(patientStatusCache).put(NHS_NUMBER, status);
+        verify(invalidationBus).publish(NHS_NUMBER, status);
+        assertThat(status.getRecordETag()).isEqualTo("W/\"3\"");
+    }
+
+    @Test
+    void shouldEvictCachedStatusWhenUpdateIsRejectedForAStaleEtag() {
+        var updateRequest = new UpdateManagingOrganisationRequest("A1234", RECORD_E_TAG);
+        var staleETag = new PreconditionFailedException(new HttpClientErrorException(HttpStatus.PRECONDITION_FAILED));
+        when(pdsFhirClient.updateManagingOrganisation(NHS_NUMBER, updateRequest)).thenThrow(staleETag);
+
+        var thrown = assertThrows(PreconditionFailedException.class, () -> pdsService.updatePatientManagingOrganisation(NHS_NUMBER, updateRequest));
+
+        assertThat(thrown).isSameAs(staleETag);
+        verify(patientStatusCache).evict(NHS_NUMBER);
+        verifyNoInteractions(invalidationBus);
+    }
+
+    @Test
+    void shouldRevalidateStaleEntryAndKeepItWhenPdsSaysNotModified() {
+        var staleStatus = SuspendedPatientStatus.suspendedPatientStatus(NHS_NUMBER, "B1234", RECORD_E_TAG);
+        var staleEntry = new CachedPatientStatus(staleStatus, Instant.now().minusSeconds(700), Instant.now().minusSeconds(100));
+        when(patientStatusCache.getStale(NHS_NUMBER)).thenReturn(Optional.of(staleEntry));
+        when(pdsFhirClient.requestPdsRecordByNhsNumberIfChanged(NHS_NUMBER, RECORD_E_TAG)).thenReturn(Optional.empty());
+
+        var status = pdsService.getPatientGpStatus(NHS_NUMBER);
+
+        assertThat(status).isSameAs(staleStatus);
+        verify(patientStatusCache).refreshExpiry(NHS_NUMBER, staleEntry);
+    }
+
+    @Test
+    void shouldReplaceStaleEntryWhenRevalidationFindsRecordHasChanged() {
+        var staleStatus = SuspendedPatientStatus.suspendedPatientStatus(NHS_NUMBER, "B1234", RECORD_E_TAG);
+        var staleEntry = new CachedPatientStatus(staleStatus, Instant.now().minusSeconds(700), Instant.now().minusSeconds(100));
+        var changedRecord = PdsFhirTestData.buildPdsResponse(NHS_NUMBER, "C5678", LocalDate.now(), null, "W/\"3\"");
+        when(patientStatusCache.getStale(NHS_NUMBER)).thenReturn(Optional.of(staleEntry));
+        when(pdsFhirClient.requestPdsRecordByNhsNumberIfChanged(NHS_NUMBER, RECORD_E_TAG)).thenReturn(Optional.of(changedRecord));
+
+        var status = pdsService.getPatientGpStatus(NHS_NUMBER);
+
+        assertThat(status.getCurrentOdsCode()).isEqualTo("C5678");
+        assertThat(status.getRecordETag()).isEqualTo("W/\"3\"");
+        verify(patientStatusCache).replaceAfterRevalidation(NHS_NUMBER, status);
+    }
+
+    @Test
+    void shouldAnswerNotFoundWithoutCallingPdsFhirWhenNhsNumberWasRecentlyNotFound() {
+        when(notFoundCache.isKnownMissing(NHS_NUMBER)).thenReturn(true);
+
+        assertThrows(NotFoundException.class, () -> pdsService.getPatientGpStatus(NHS_NUMBER));
+
+        verifyNoInteractions(pdsFhirClient, patientStatusCache);
+    }
+
+    @Test
+    void shouldRememberNhsNumbersPdsFhirDoesNotFind() {
+        var notFound = new NotFoundException("PDS FHIR Request failed - Patient not found 404");
+        when(pdsFhirClient.requestPdsRecordByNhsNumber(NHS_NUMBER)).thenThrow(notFound);
+
+        var thrown = assertThrows(NotFoundException.class, () -> pdsService.getPatientGpStatus(NHS_NUMBER));
+
+        assertThat(thrown).isSameAs(notFound);
+        verify(notFoundCache).recordNotFound(NHS_NUMBER);
+    }
+
+    @Test
+    void shouldForgetNhsNumberWasNotFoundOncePatientIsFound() {
+        PdsFhirPatient pdsResponse = PdsFhirTestData.buildPdsSuspendedResponse(NHS_NUMBER, "B1234", RECORD_E_TAG);
+        when(pdsFhirClient.requestPdsRecordByNhsNumber(NHS_NUMBER)).thenReturn(pdsResponse);
+
+        pdsService.getPatientGpStatusBypassingCache(NHS_NUMBER);
+
+        verify(notFoundCache).forget(NHS_NUMBER);
+    }
 }
@@ -0,0 +1,103 @@
+package uk.nhs.prm.deductions.pdsadaptor.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.nhs.prm.deductions.pdsadaptor.client.auth.AuthService;
+import uk.nhs.prm.deductions.pdsadaptor.client.auth.SignedJWTGenerator;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SigningKeyRotationTest {
+
+    private static final Map<String, String> SSM_PARAMETERS = Map.of(
+            "/repo/dev/user-input/external/pds-adaptor-jwt-private-key", "new-private-key",
+            "/repo/dev/user-input/external/pds-adaptor-jwt-key-id", "key-2");
+
+    @Mock
+    private SignedJWTGenerator signedJWTGenerator;
+
+    @Mock
+    private AuthService authService;
+
+    @Test
+    void shouldRotateToTheKeyInSsmAndThenRenewTheAccessToken() {
+        var rotation = rotation("dev", SSM_PARAMETERS::get);
+
+        var keyId = rotation.rotate();
+
+        assertThat(keyId).isEqualTo("key-2");
+        InOrder inOrder = inOrder(signedJWTGenerator, authService);
+        inOrder.verify(signedJWTGenerator).rotateKey("new-private-key", "key-2");
+        inOrder.verify(authService).renewAfterKeyRotation();
+    }
+
+    @Test
+    void shouldKeepTheAccessTokenWhenTheNewKeyCannotBeUsed() {
+        var rotation = rotation("dev", SSM_PARAMETERS::get);
+        doThrow(new IllegalArgumentException("malformed")).when(signedJWTGenerator).rotateKey(any(), any());
+
+        assertThrows(IllegalArgumentException.class, rotation::rotate);
+
+        verifyNoInteractions(authService);
+    }
+
+    @Test
+    void shouldNotBeAvailableWhereKeysAreNotReadFromSsm() {
+        assertThat(rotation("local", SSM_PARAMETERS::get).isAvailable()).isFalse();
+        assertThat(rotation("int-test", SSM_PARAMETERS::get).isAvailable()).isFalse();
+        assertThat(rotation("dev", SSM_PARAMETERS::get).isAvailable()).isTrue();
+    }
+
+    @Test
+    void shouldRotateWhenTheKeyIdInSsmHasChanged() {
+        when(signedJWTGenerator.getKeyId()).thenReturn("key-1");
+
+        rotation("dev", SSM_PARAMETERS::get).rotateIfChanged();
+
+        InOrder inOrder = inOrder(signedJWTGenerator, authService);
+        inOrder.verify(signedJWTGenerator).rotateKey("new-private-key", "key-2");
+        inOrder.verify(authService).renewAfterKeyRotation();
+    }
+
+    @Test
+    void shouldLeaveTheKeyAndAccessTokenAloneWhileTheKeyIdInSsmIsUnchanged() {
+        when(signedJWTGenerator.getKeyId()).thenReturn("key-2");
+
+        rotation("dev", SSM_PARAMETERS::get).rotateIfChanged();
+
+        verify(signedJWTGenerator, never()).rotateKey(any(), any());
+        verifyNoInteractions(authService);
+    }
+
+    @Test
+    void shouldCarryOnCheckingWhenSsmCannotBeRead() {
+        var rotation = rotation("dev", name -> {
+            throw new IllegalStateException("ssm unavailable");
+        });
+
+        rotation.rotateIfChanged();
+
+        verify(signedJWTGenerator, never()).rotateKey(any(), any());
+        verifyNoInteractions(authService);
+    }
+
+    private SigningKeyRotation rotation(String environment, UnaryOperator<String> readParameter) {
+        return new SigningKeyRotation(signedJWTGenerator, authService, environment, readParameter, Duration.ofMinutes(5), null);
+    }
+}